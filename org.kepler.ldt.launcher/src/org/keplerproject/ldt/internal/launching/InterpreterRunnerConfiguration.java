@@ -68,9 +68,7 @@ public class InterpreterRunnerConfiguration implements
 		}
 		org.eclipse.core.resources.IProject project = ResourcesPlugin
 				.getWorkspace().getRoot().getProject(projectName);
-		LuaProject luaProject = new LuaProject();
-		luaProject.setProject(project);
-		return luaProject;
+		return LuaProject.getLuaProject(project);
 	}
 
 	public File getAbsoluteWorkingDirectory() {
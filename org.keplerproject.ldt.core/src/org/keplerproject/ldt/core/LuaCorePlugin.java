@@ -31,12 +31,14 @@ import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Plugin;
 import org.eclipse.core.runtime.Status;
-import org.keplerproject.ldt.core.project.LuaProjectNature;
+import org.keplerproject.ldt.core.luadoc.LuadocGenerator;
 import org.osgi.framework.BundleContext;
 
 /**
@@ -48,6 +50,8 @@ import org.osgi.framework.BundleContext;
  */
 public class LuaCorePlugin extends Plugin implements IResourceChangeListener {
 
+	public static final String PLUGIN_ID = "org.keplerproject.ldt.core";
+
 	// The shared instance.
 	private static LuaCorePlugin plugin;
 
@@ -56,15 +60,6 @@ public class LuaCorePlugin extends Plugin implements IResourceChangeListener {
 	 */
 	public LuaCorePlugin() {
 		plugin = this;
-
-		for(IProject prj : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
-			try {
-				if(prj.isOpen() && prj.hasNature(LuaProjectNature.NATURE_ID))
-					LuaProject.getLuaProject(prj);
-			} catch (CoreException e) {
-				e.printStackTrace();
-			}
-		}
 	}
 
 	/**
@@ -73,12 +68,41 @@ public class LuaCorePlugin extends Plugin implements IResourceChangeListener {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 
+		// the luadoc indexes are written in the background, make sure they
+		// are on disk whenever the workspace is
+		ResourcesPlugin.getWorkspace().addSaveParticipant(this,
+				new ISaveParticipant() {
+					public void prepareToSave(ISaveContext context) {
+					}
+
+					public void saving(ISaveContext context) {
+						if (context.getKind() == ISaveContext.FULL_SAVE)
+							LuaProject.saveAllIndexes();
+						else
+							LuaProject.flushAllIndexes();
+					}
+
+					public void doneSaving(ISaveContext context) {
+					}
+
+					public void rollback(ISaveContext context) {
+					}
+				});
+
+		LuaLoadPathResolver.getDefault().startup();
+		LuaIndexManager.getDefault().startup();
 	}
 
 	/**
 	 * This method is called when the plug-in is stopped
 	 */
 	public void stop(BundleContext context) throws Exception {
+		LuaIndexManager.getDefault().shutdown();
+		LuaLoadPathResolver.getDefault().shutdown();
+		LuaStatePool.getDefault().dispose();
+		LuadocGenerator.getInstance().dispose();
+		LuaProject.saveAllIndexes();
+		ResourcesPlugin.getWorkspace().removeSaveParticipant(this);
 		super.stop(context);
 		plugin = null;
 	}
@@ -90,6 +114,25 @@ public class LuaCorePlugin extends Plugin implements IResourceChangeListener {
 		return plugin;
 	}
 
+	/**
+	 * Logs an error to the error log, or to the console when the plug-in is
+	 * not running.
+	 * 
+	 * @param message
+	 *            what went wrong
+	 * @param e
+	 *            the cause, null if none
+	 */
+	public static void log(String message, Throwable e) {
+		LuaCorePlugin p = plugin;
+		if (p == null) {
+			System.err.println(message);
+			return;
+		}
+		p.getLog().log(new Status(IStatus.ERROR, PLUGIN_ID, IStatus.OK,
+				message, e));
+	}
+
 	public static IProject[] getLuaProjects() {
 		List<IProject> luaProjectsList = new ArrayList<IProject>();
 		IProject workspaceProjects[] = ResourcesPlugin.getWorkspace().getRoot()
@@ -108,9 +151,7 @@ public class LuaCorePlugin extends Plugin implements IResourceChangeListener {
 		IProject aProject = ResourcesPlugin.getWorkspace().getRoot()
 				.getProject(name);
 		if (isLuaProject(aProject)) {
-			LuaProject theLuaProject = new LuaProject();
-			theLuaProject.setProject(aProject);
-			return theLuaProject;
+			return LuaProject.getLuaProject(aProject);
 		} else {
 			return null;
 		}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.Job;
+import org.keplerproject.ldt.core.compiler.LuaResourceDeltaVisitor;
+
+/**
+ * Keeps the luadoc entries of the workspace up to date in the background,
+ * whether or not the projects get built. Lua scripts that change are queued
+ * and indexed one at a time by a low priority job:
+ * <ul>
+ * <li>scripts open in an editor go first, see {@link #prioritize(IFile)};</li>
+ * <li>then the scripts that just changed;</li>
+ * <li>then whole projects, queued when they are opened or have no saved
+ * index, see {@link #indexProject(IProject)}.</li>
+ * </ul>
+ * The job steps aside while a build runs or while the user is typing, see
+ * {@link #userActive()}, and picks up where it left off afterwards. Scripts
+ * whose contents the last build already saw are skipped.
+ *
+ * @version $Id$
+ */
+public class LuaIndexManager implements IResourceChangeListener {
+
+	/**
+	 * Priority of the scripts open in an editor.
+	 */
+	public static final int PRIORITY_EDITOR = 0;
+
+	/**
+	 * Priority of the scripts that just changed.
+	 */
+	public static final int PRIORITY_RECENT = 1;
+
+	/**
+	 * Priority of the scripts of projects indexed as a whole.
+	 */
+	public static final int PRIORITY_BACKGROUND = 2;
+
+	/**
+	 * Nothing left to index.
+	 */
+	public static final int STATE_IDLE = 0;
+
+	/**
+	 * Scripts are being indexed.
+	 */
+	public static final int STATE_INDEXING = 1;
+
+	/**
+	 * Scripts are waiting for a build or the user.
+	 */
+	public static final int STATE_WAITING = 2;
+
+	/**
+	 * Told whenever the state or the number of queued scripts changes, from
+	 * any thread.
+	 */
+	public interface Listener {
+		void indexStatusChanged(LuaIndexManager manager);
+	}
+
+	// how long to wait for a build to finish before checking again
+	private static final long BUILD_DELAY = 1000;
+
+	// how long the user must stay idle before indexing goes on
+	private static final long ACTIVITY_DELAY = 500;
+
+	private static LuaIndexManager instance;
+
+	private final PriorityQueue<Request> queue = new PriorityQueue<Request>();
+
+	// the queued request of each script
+	private final Map<IFile, Request> pending = new HashMap<IFile, Request>();
+
+	// orders the requests of a same priority
+	private long sequence;
+
+	private volatile int state = STATE_IDLE;
+
+	private volatile long lastActivity;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final Job job = new Job("Indexing Lua documentation") {
+		protected IStatus run(IProgressMonitor monitor) {
+			return LuaIndexManager.this.run(monitor);
+		}
+	};
+
+	private LuaIndexManager() {
+		job.setSystem(true);
+		job.setPriority(Job.DECORATE);
+	}
+
+	public static synchronized LuaIndexManager getDefault() {
+		if (instance == null)
+			instance = new LuaIndexManager();
+		return instance;
+	}
+
+	/**
+	 * Starts following the workspace, called when the plug-in starts.
+	 */
+	public void startup() {
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this,
+				IResourceChangeEvent.POST_CHANGE);
+	}
+
+	public void shutdown() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		job.cancel();
+		synchronized (queue) {
+			queue.clear();
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Queues a script, or raises the priority of a queued one.
+	 *
+	 * @param file
+	 *            the script, which may have been removed
+	 * @param priority
+	 *            one of the <code>PRIORITY_</code> constants
+	 */
+	public void schedule(IFile file, int priority) {
+		synchronized (queue) {
+			Request request = pending.get(file);
+			if (request != null) {
+				if (request.priority <= priority)
+					return;
+				queue.remove(request);
+			}
+
+			request = new Request(file, priority, sequence++);
+			pending.put(file, request);
+			queue.add(request);
+		}
+		job.schedule();
+		fireStatusChanged();
+	}
+
+	/**
+	 * Has a script open in an editor indexed before the others, if it is
+	 * waiting to be indexed.
+	 */
+	public void prioritize(IFile file) {
+		synchronized (queue) {
+			if (!pending.containsKey(file))
+				return;
+		}
+		schedule(file, PRIORITY_EDITOR);
+	}
+
+	/**
+	 * Queues every script of a project at the lowest priority.
+	 */
+	public void indexProject(IProject project) {
+		try {
+			project.accept(new IResourceVisitor() {
+				public boolean visit(IResource res) {
+					if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(
+							res)) {
+						schedule((IFile) res, PRIORITY_BACKGROUND);
+						return false;
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+		}
+	}
+
+	/**
+	 * Tells that the user is busy, typing for instance; indexing waits until
+	 * the user stops for a moment. Cheap enough to call on every keystroke.
+	 */
+	public void userActive() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return one of the <code>STATE_</code> constants
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of scripts waiting to be indexed
+	 */
+	public int getQueueDepth() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null)
+			return;
+
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta child) {
+					IResource res = child.getResource();
+					switch (res.getType()) {
+					case IResource.ROOT:
+						return true;
+					case IResource.PROJECT:
+						return visitProject(child, (IProject) res);
+					case IResource.FILE:
+						visitFile(child, (IFile) res);
+						return false;
+					default:
+						return true;
+					}
+				}
+			});
+		} catch (CoreException e) {
+		}
+	}
+
+	private boolean visitProject(IResourceDelta delta, IProject project) {
+		if (!project.isOpen() || !LuaCorePlugin.isLuaProject(project))
+			return false;
+
+		if (delta.getKind() == IResourceDelta.ADDED
+				|| (delta.getFlags() & IResourceDelta.OPEN) != 0) {
+			indexProject(project);
+			return false;
+		}
+		return true;
+	}
+
+	private void visitFile(IResourceDelta delta, IFile file) {
+		if (!LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(file))
+			return;
+
+		if (delta.getKind() == IResourceDelta.CHANGED
+				&& (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) == 0)
+			return;
+
+		schedule(file, PRIORITY_RECENT);
+	}
+
+	private IStatus run(IProgressMonitor monitor) {
+		while (!monitor.isCanceled()) {
+			long wait = getBusyDelay();
+			if (wait > 0) {
+				setState(STATE_WAITING);
+				job.schedule(wait);
+				return Status.OK_STATUS;
+			}
+
+			Request request;
+			synchronized (queue) {
+				request = queue.poll();
+				if (request == null) {
+					setState(STATE_IDLE);
+					return Status.OK_STATUS;
+				}
+				pending.remove(request.file);
+			}
+
+			setState(STATE_INDEXING);
+			index(request.file);
+			fireStatusChanged();
+		}
+
+		setState(getQueueDepth() > 0 ? STATE_WAITING : STATE_IDLE);
+		return Status.CANCEL_STATUS;
+	}
+
+	private static void index(IFile file) {
+		if (!LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive())
+			return;
+
+		if (file.exists())
+			LuaResourceDeltaVisitor.indexLuadoc(file);
+		else
+			LuaResourceDeltaVisitor.removeLuadoc(file);
+	}
+
+	/**
+	 * @return how long to wait before indexing, 0 if the way is clear
+	 */
+	private long getBusyDelay() {
+		IJobManager manager = Job.getJobManager();
+		if (manager.find(ResourcesPlugin.FAMILY_AUTO_BUILD).length > 0
+				|| manager.find(ResourcesPlugin.FAMILY_MANUAL_BUILD).length > 0)
+			return BUILD_DELAY;
+
+		long idle = System.currentTimeMillis() - lastActivity;
+		return idle < ACTIVITY_DELAY ? ACTIVITY_DELAY - idle : 0;
+	}
+
+	private void setState(int newState) {
+		if (state != newState) {
+			state = newState;
+			fireStatusChanged();
+		}
+	}
+
+	private void fireStatusChanged() {
+		for (Listener listener : listeners)
+			listener.indexStatusChanged(this);
+	}
+
+	/**
+	 * A script waiting to be indexed.
+	 */
+	private static class Request implements Comparable<Request> {
+		final IFile file;
+
+		final int priority;
+
+		final long sequence;
+
+		Request(IFile file, int priority, long sequence) {
+			this.file = file;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		public int compareTo(Request other) {
+			if (priority != other.priority)
+				return priority - other.priority;
+			return sequence < other.sequence ? -1
+					: sequence > other.sequence ? 1 : 0;
+		}
+	}
+}
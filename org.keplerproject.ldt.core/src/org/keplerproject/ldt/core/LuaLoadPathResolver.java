@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Tells which luadoc scopes a project sees: the project itself, then the
+ * projects on its load path, transitively and in load path order, then the
+ * Lua Reference Manual, which is the <code>null</code> scope of the
+ * {@link org.keplerproject.ldt.core.luadoc.LuaSymbolIndex}.
+ * <p>
+ * The scopes of a project are computed once and kept until a
+ * <code>.loadpath</code> file changes or a project is added, removed, opened
+ * or closed. Load paths are small, so any such change simply forgets every
+ * project.
+ *
+ * @version $Id$
+ */
+public class LuaLoadPathResolver implements IResourceChangeListener {
+
+	private static LuaLoadPathResolver instance;
+
+	// project name -> its visible scopes
+	private final Map<String, List<String>> scopes = new HashMap<String, List<String>>();
+
+	// bumped by every invalidation, so that stale results are not cached
+	private int generation;
+
+	public static synchronized LuaLoadPathResolver getDefault() {
+		if (instance == null)
+			instance = new LuaLoadPathResolver();
+		return instance;
+	}
+
+	/**
+	 * @param projectName
+	 *            the name of the project, null if unknown
+	 * @return the read-only scopes visible from the project, nearest first and
+	 *         ending with the null scope of the reference manual; null if the
+	 *         project is unknown, meaning every scope is visible
+	 */
+	public List<String> getVisibleScopes(String projectName) {
+		if (projectName == null)
+			return null;
+
+		int computedFor;
+		synchronized (scopes) {
+			List<String> visible = scopes.get(projectName);
+			if (visible != null)
+				return visible;
+			computedFor = generation;
+		}
+
+		IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(
+				projectName);
+		if (!project.isAccessible())
+			return null;
+
+		List<String> visible = Collections
+				.unmodifiableList(computeScopes(project));
+		synchronized (scopes) {
+			if (computedFor == generation)
+				scopes.put(projectName, visible);
+		}
+		return visible;
+	}
+
+	/**
+	 * Forgets the scopes of every project.
+	 */
+	public void invalidate() {
+		synchronized (scopes) {
+			scopes.clear();
+			generation++;
+		}
+	}
+
+	/**
+	 * Walks the load path breadth first, so that a project's own references
+	 * come before theirs. Cycles and closed projects are skipped.
+	 */
+	private static List<String> computeScopes(IProject project) {
+		List<String> visible = new ArrayList<String>();
+		LinkedList<IProject> pending = new LinkedList<IProject>();
+		pending.add(project);
+
+		while (!pending.isEmpty()) {
+			IProject next = pending.removeFirst();
+			if (visible.contains(next.getName()) || !next.isAccessible())
+				continue;
+
+			visible.add(next.getName());
+			pending.addAll(LuaProject.getLuaProject(next)
+					.getReferencedProjects());
+		}
+
+		visible.add(null);
+		return visible;
+	}
+
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null)
+			return;
+
+		boolean changed = false;
+		for (IResourceDelta projectDelta : delta.getAffectedChildren()) {
+			IProject project = (IProject) projectDelta.getResource();
+			if (projectDelta.getKind() != IResourceDelta.CHANGED
+					|| (projectDelta.getFlags() & IResourceDelta.OPEN) != 0) {
+				changed = true;
+			} else if (projectDelta.findMember(new Path(
+					LuaProject.LOAD_PATH_FILE)) != null) {
+				LuaProject.getLuaProject(project).forgetLoadPathEntries();
+				changed = true;
+			}
+		}
+
+		if (changed)
+			invalidate();
+	}
+
+	/**
+	 * Starts following the workspace, called when the plug-in starts.
+	 */
+	public void startup() {
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(this,
+				IResourceChangeEvent.POST_CHANGE);
+	}
+
+	public void shutdown() {
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		invalidate();
+	}
+}
@@ -22,21 +22,17 @@
  */
 package org.keplerproject.ldt.core;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.regex.MatchResult;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.parsers.SAXParserFactory;
 
@@ -48,11 +44,17 @@ import org.eclipse.core.resources.ISynchronizer;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.QualifiedName;
-import org.keplerproject.ldt.core.luadoc.LuadocEntry;
-import org.keplerproject.ldt.core.luadoc.LuadocGenerator;
-import org.keplerproject.ldt.core.utils.ResourceUtils;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.keplerproject.ldt.core.compiler.LuaBuildCache;
+import org.keplerproject.ldt.core.luadoc.LuadocCache;
+import org.keplerproject.ldt.core.luadoc.LuadocIndexFile;
+import org.keplerproject.ldt.core.luadoc.LuaReferenceManual;
+import org.keplerproject.ldt.core.luadoc.LuaSymbolIndex;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
@@ -68,26 +70,69 @@ import org.xml.sax.XMLReader;
  * @version $Id$
  */
 public class LuaProject implements IProjectNature, LuaElement {
+	/**
+	 * The file, at the root of the project, its load path is kept in.
+	 */
+	public static final String LOAD_PATH_FILE = ".loadpath";
+
 	private static final ISynchronizer synchronizer = ResourcesPlugin
 			.getWorkspace().getSynchronizer();
 	protected IProject project;
 	protected List<LoadPathEntry> loadPathEntries;
 	protected boolean scratched;
-	protected String luaRefManualDoc;
 
-	protected Map<String, Map<String, ILuaEntry>> luaEntries;
+	// where the entries of each file or module were last written; the
+	// entries themselves are read back into the LuadocCache when needed
+	private final Map<String, LuadocIndexFile.Location> locations = new HashMap<String, LuadocIndexFile.Location>();
+
+	// entries changed since they were last written, empty once removed
+	private final Map<String, Map<String, ILuaEntry>> unsaved = new HashMap<String, Map<String, ILuaEntry>>();
+
+	// held while writing the index or its journal
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	// guards the scheduling of loadJob
+	private final Object loadLock = new Object();
+
+	// held while loading the entries
+	private final Object indexLock = new Object();
+
+	private Job loadJob;
+
+	private volatile boolean indexReady;
 	
 	private static Map<String, LuaProject> luaProjects = new HashMap<String, LuaProject>();
 
+	// how long changes wait for more changes before being written
+	private static final long SAVE_DELAY = 2000;
+
+	// a journal longer than this, or than the index, is folded into it
+	private static final long JOURNAL_LIMIT = 256 * 1024;
+
+	private static final Job saveJob = new Job("Saving Lua documentation") {
+		protected IStatus run(IProgressMonitor monitor) {
+			flushAllIndexes();
+			return Status.OK_STATUS;
+		}
+	};
+
+	static {
+		saveJob.setSystem(true);
+		saveJob.setPriority(Job.DECORATE);
+	}
+
 	public static LuaProject getLuaProject(IProject prj) {
 		String projectName = prj.getName();
-		LuaProject p = luaProjects.get(projectName);
-		if(p==null) {
-			p = new LuaProject();
-			p.setProject(prj);
-			luaProjects.put(projectName, p);
+		synchronized (luaProjects) {
+			LuaProject p = luaProjects.get(projectName);
+			if(p==null) {
+				p = new LuaProject();
+				p.setProject(prj);
+				luaProjects.put(projectName, p);
+				p.scheduleLoad();
+			}
+			return p;
 		}
-		return p;
 	}
 	
 	public LuaProject() {
@@ -107,285 +152,329 @@ public class LuaProject implements IProjectNature, LuaElement {
 		return ResourcesPlugin.getWorkspace().getRoot().getProject(name);
 	}
 
+	/**
+	 * Sets the project. The LuaDoc entries are not loaded until they are
+	 * first asked for, see {@link #scheduleLoad()}.
+	 */
 	public void setProject(IProject aProject) {
 		project = aProject;
-		loadEntries(); 
+	}
 
+	/**
+	 * Tells if the LuaDoc entries of this project are loaded. Until they are,
+	 * lookups may miss entries saved by previous sessions.
+	 */
+	public boolean isIndexReady() {
+		return indexReady;
 	}
 
-	
 	/**
-	 * Returns moduleNames stored in workbench for this project 
-	 * @return set of strings representing the moduleNames stored
+	 * Loads the LuaDoc entries in a background job, unless they are loaded
+	 * or being loaded already.
 	 */
-	private Set<String> getModulesToSave()  {
-		QualifiedName qualifiedName = new QualifiedName("org.keplerproject.ldt.core", project.getName()
-				+ ".luadoc.projectdata.moduleNames" ); 
-		
-		synchronizer.add(qualifiedName);
-		
-		byte[] syncInfo;
-		String str = "";
-		try {
-			syncInfo = synchronizer.getSyncInfo(qualifiedName,
-					project);
-			if(syncInfo!=null)
-				str = new String(syncInfo);
-		} catch (CoreException e) {
-		}
-		
-		StringTokenizer st = new StringTokenizer(str, ",");
-		
-		Set<String> moduleNamesToSave = new HashSet<String>();
-		while(st.hasMoreTokens()) {
-			String name = st.nextToken();
-			moduleNamesToSave.add(name.equals("<null>") ? null : name);
+	public void scheduleLoad() {
+		synchronized (loadLock) {
+			if (indexReady || loadJob != null)
+				return;
+
+			loadJob = new Job("Loading Lua documentation for " + project.getName()) {
+				protected IStatus run(IProgressMonitor monitor) {
+					waitForIndex();
+					return Status.OK_STATUS;
+				}
+			};
+			loadJob.setPriority(Job.DECORATE);
+			loadJob.schedule();
 		}
-		
-		return moduleNamesToSave;
 	}
 
 	/**
-	 * Add a module name to the workbench storage for this project 
-	 * @param moduleName
+	 * Loads the LuaDoc entries on the calling thread, or waits for the
+	 * background job to finish loading them.
 	 */
-	private void addModule(String moduleName) {
-		Set<String> moduleNamesToSave = getModulesToSave();
-		
-		if( moduleNamesToSave.add(moduleName) )
-		 
-			saveModuleNames(moduleNamesToSave);
+	public void waitForIndex() {
+		if (indexReady)
+			return;
+
+		synchronized (indexLock) {
+			if (!indexReady) {
+				loadEntries();
+				indexReady = true;
+			}
+		}
 	}
 
 	/**
-	 * Remove a module name from the workbench storage for this project
-	 * @param moduleName
+	 * Starts loading the LuaDoc entries of every open Lua project of the
+	 * workspace in the background.
 	 */
-	private void removeModule(String moduleName) {
-		Set<String> moduleNamesToSave = getModulesToSave();
-		if (moduleNamesToSave.remove(moduleName) ) 
-		
-			saveModuleNames(moduleNamesToSave);	
+	public static void scheduleLoadAll() {
+		for (IProject prj : LuaCorePlugin.getLuaProjects())
+			if (prj.isOpen())
+				getLuaProject(prj).scheduleLoad();
 	}
 
-	/** Stores modulenames into the workbench for this project
-	 * @param moduleNamesToSave set of strings containing the module names to be saved
+	/**
+	 * @return false while the LuaDoc entries of some Lua project queried so
+	 *         far are still being loaded
 	 */
-	private void saveModuleNames(Set<String> moduleNamesToSave) {
-		QualifiedName qualifiedName = new QualifiedName("org.keplerproject.ldt.core", project.getName()
-				+ ".luadoc.projectdata.moduleNames" );
-		
-		StringBuilder renderedModuleNames = new StringBuilder();
-		
-		for(String name: moduleNamesToSave) {
-			renderedModuleNames.append(name != null ? name : "<null>");
-			renderedModuleNames.append(",");
-		}
-		
-		try {
-			synchronizer.setSyncInfo(qualifiedName, project, renderedModuleNames.toString().getBytes());
-		} catch (CoreException e) {
+	public static boolean areIndexesReady() {
+		synchronized (luaProjects) {
+			for (LuaProject lp : luaProjects.values())
+				if (!lp.isIndexReady())
+					return false;
 		}
+		return true;
 	}
-	
+
+
 	/**
-	 * Loads from SynchInfo all LuaDoc entries
-	 * additionally, loads Lua Reference Manual from the control file 
+	 * Loads the LuaDoc entries saved for this project
+	 * additionally, makes sure the shared Lua Reference Manual is loaded
 	 */
 	private void loadEntries() {
-		
-		try {
-			if (luaEntries == null)
-				luaEntries = new HashMap<String, Map<String, ILuaEntry>>();
-
-			loadLuaRefManualEntries();
-			
-			Set<String> moduleNames = getModulesToSave();
-			
-			// for each moduleName registered in the Workbench, load the entries
-			for(String moduleName : moduleNames)
-				loadModuleEntries(moduleName);
-
-			if (luaEntries.size() > 0) {
-				LuadocGenerator lg = LuadocGenerator.getInstance();
-
-				for (Map<String, ILuaEntry> e : luaEntries.values()) {
-					lg.generateIndexes(e);
-				}
-			}
+		LuaReferenceManual.getDefault();
+
+		Map<String, LuadocIndexFile.Location> saved = new HashMap<String, LuadocIndexFile.Location>();
+		Map<String, Map<String, ILuaEntry>> entries = LuadocIndexFile.load(
+				getIndexFile(), getJournalFile(), saved);
+
+		if (entries == null) {
+			// nothing to restore the entries from, have the next build
+			// store them again and index the project meanwhile
+			getJournalFile().delete();
+			LuaBuildCache.getCache(project).forgetCurrent();
+			discardLegacyEntries();
+			LuaIndexManager.getDefault().indexProject(project);
+			return;
+		}
 
-		} catch (CoreException e) {
-			System.out.println(e.getMessage());
-			e.printStackTrace();
+		synchronized (this) {
+			locations.putAll(saved);
 		}
+
+		// only the symbols stay, the entries are read again when asked for
+		LuaSymbolIndex index = LuaSymbolIndex.getDefault();
+		for (Map.Entry<String, Map<String, ILuaEntry>> e : entries.entrySet())
+			index.replaceFile(project.getName(), e.getKey(), e.getValue());
 	}
 
-	/** Load the LuaDoc entries for one given module
-	 * @param moduleName
-	 * @throws CoreException
+	/**
+	 * Drops the LuaDoc entries older versions kept as workspace sync info.
 	 */
-	private void loadModuleEntries(String moduleName) throws CoreException {
-		QualifiedName qualifiedName = new QualifiedName("org.keplerproject.ldt.core", project.getName()
-				+ ".luadoc.projectdata." + moduleName ); 
-		synchronizer.add(qualifiedName);
-		{
-			byte[] syncInfo = synchronizer.getSyncInfo(qualifiedName,
-					project);
-			if (syncInfo != null) {
-				BufferedReader in
-				   = new BufferedReader(new InputStreamReader(
-						new ByteArrayInputStream(syncInfo)));
-				
-				Scanner docs = new Scanner(in);
-				
-				loadEntries(docs);
-				
+	private void discardLegacyEntries() {
+		QualifiedName namesKey = new QualifiedName("org.keplerproject.ldt.core", project.getName()
+				+ ".luadoc.projectdata.moduleNames" );
+
+		try {
+			synchronizer.add(namesKey);
+			byte[] syncInfo = synchronizer.getSyncInfo(namesKey, project);
+			if (syncInfo == null)
+				return;
+
+			StringTokenizer st = new StringTokenizer(new String(syncInfo), ",");
+			while (st.hasMoreTokens()) {
+				QualifiedName moduleKey = new QualifiedName("org.keplerproject.ldt.core", project.getName()
+						+ ".luadoc.projectdata." + st.nextToken());
+				synchronizer.add(moduleKey);
+				synchronizer.flushSyncInfo(moduleKey, project, IResource.DEPTH_ZERO);
+				synchronizer.remove(moduleKey);
 			}
+			synchronizer.flushSyncInfo(namesKey, project, IResource.DEPTH_ZERO);
+		} catch (CoreException e) {
 		}
+		synchronizer.remove(namesKey);
 	}
 
-	/** Loads the LuaDoc entries for Lua Reference Manual
+	/**
+	 * @return the file holding the LuaDoc entries of this project
 	 */
-	private void loadLuaRefManualEntries() {
-		if(luaRefManualDoc == null) {
-			URL u = ResourceUtils.findfile("doc/org.lua.www.manual", "org.keplerproject.ldt.core");
-			if(u!=null)
-				try {
-					luaRefManualDoc = ResourceUtils.getFileContents(u);
-				} catch (IOException e) {
-					luaRefManualDoc = "";
-				}
-		}
-
-		Scanner docs = new Scanner(luaRefManualDoc);
-		
-		loadEntries(docs);
+	protected File getIndexFile() {
+		return LuaCorePlugin.getDefault().getStateLocation().append("luadoc")
+				.append(project.getName() + ".index").toFile();
 	}
 
-	/** Loads LuaDoc Entries from a Scanner
-	 * @param docs Scanner from which to load the Entries
+	/**
+	 * @return the file holding the LuaDoc entries changed since the index
+	 *         file was last written
 	 */
-	private void loadEntries(Scanner docs) {
-		String moduleName;
-		String functionName;
-		String htmlDoc;
-		
-		LuadocGenerator gen = LuadocGenerator.getInstance();
-		
-		while (null!=docs.findWithinHorizon("\\s*([a-zA-Z0-9_]+?[.])*?(\\w+?)\\s*?=\\s*?.====.(.*?).====.", 0)) {
-			
-			MatchResult res = docs.match();
-			
-			moduleName = res.group(1);
-			functionName = res.group(2);
-			htmlDoc = res.group(3);
-			
-			if(moduleName!=null)
-				moduleName = moduleName.replaceAll("[.]$", "");
-			
-			// get the entry for this particular module...
-			Map<String, ILuaEntry> entries = luaEntries.get(moduleName);
-			// .. or create an entry if there's none
-			if(entries==null) {
-				entries = new HashMap<String, ILuaEntry>();
-				luaEntries.put(moduleName, entries);
-			}
-			
-			ILuaEntry entry = gen.createLuaEntry(moduleName, functionName, "function", null, null, null,  htmlDoc.replaceAll("\\\\n", "\n").replaceAll("\\\\r", "\r").replaceAll("\\\\\\\\", "\\\\")); 
-			
-			entries.put(functionName, entry);
-			
-		}
+	protected File getJournalFile() {
+		return LuaCorePlugin.getDefault().getStateLocation().append("luadoc")
+				.append(project.getName() + ".journal").toFile();
 	}
 
+	/**
+	 * Marks the entries of a file or module to be saved. They are written in
+	 * the background once no other entry changed for a while, see
+	 * {@link #flushIndex()}.
+	 * 
+	 * @param moduleName
+	 *            the key the entries are stored under
+	 */
 	public void saveLuaDocEntries(String moduleName) {
-		try {
-			Map<String, ILuaEntry> theModuleEntries = luaEntries.get(moduleName);
-		
-			saveModuleEntries(moduleName, theModuleEntries);
-			
-		} catch (CoreException e) {
-			e.printStackTrace();
+		Map<String, ILuaEntry> entries = getLuaEntries(moduleName);
+		synchronized (this) {
+			if (!unsaved.containsKey(moduleName))
+				unsaved.put(moduleName, entries);
 		}
+		scheduleSave();
 	}
 
-	
-	
 	public void saveAllLuaDocEntries() {
+		saveIndex();
+	}
+
+	/**
+	 * Schedules the background job writing the changed LuaDoc entries of
+	 * every project, followed by their build caches. Builders call this
+	 * instead of writing anything themselves, so a build never waits on the
+	 * index.
+	 */
+	public static void scheduleSave() {
+		// restart the delay, so a burst of changes is written at once
+		saveJob.cancel();
+		saveJob.schedule(SAVE_DELAY);
+	}
+
+	/**
+	 * Appends the LuaDoc entries changed since the last write to the journal
+	 * of the project, or rewrites the whole index if the journal grew too
+	 * long. The build cache of the project is saved along, once every entry
+	 * it tells is stored is on disk. This is what the save job runs, see
+	 * {@link #scheduleSave()}.
+	 */
+	public void flushIndex() {
+		if (write(false))
+			LuaBuildCache.getCache(project).save();
+	}
+
+	/**
+	 * Writes every LuaDoc entry of the project to the index file and drops
+	 * the journal. The Lua Reference Manual entries are not saved. The
+	 * entries written are read back from the previous index one group at a
+	 * time; if one cannot be, nothing is written and its file is indexed
+	 * again before the next try.
+	 */
+	public void saveIndex() {
+		if (write(true))
+			LuaBuildCache.getCache(project).save();
+	}
+
+	/**
+	 * @return true if every entry is on disk, nothing having changed while
+	 *         writing
+	 */
+	private boolean write(boolean full) {
+		writeLock.lock();
 		try {
-			for(Map.Entry<String, Map<String, ILuaEntry>> moduleEntries : luaEntries.entrySet()) {
-				String moduleName = moduleEntries.getKey();
-				Map<String, ILuaEntry> theModuleEntries = moduleEntries.getValue();
-				
-				saveModuleEntries(moduleName, theModuleEntries);
-			
+			File index = getIndexFile();
+			File journal = getJournalFile();
+
+			Map<String, Map<String, ILuaEntry>> changed;
+			Map<String, LuadocIndexFile.Location> written;
+
+			synchronized (this) {
+				// never overwrite entries that were not even loaded
+				if (!indexReady)
+					return false;
+				if (unsaved.isEmpty() && (!full || !journal.exists()))
+					return true;
+
+				if (journal.length() > Math.max(JOURNAL_LIMIT, index.length()))
+					full = true;
+
+				changed = new HashMap<String, Map<String, ILuaEntry>>(unsaved);
+				written = new HashMap<String, LuadocIndexFile.Location>(
+						locations);
 			}
 
-		} catch (CoreException e) {
-			e.printStackTrace();
+			try {
+				if (full) {
+					Map<String, Map<String, ILuaEntry>> toSave = new HashMap<String, Map<String, ILuaEntry>>();
+					List<String> unreadable = new ArrayList<String>();
+					for (Map.Entry<String, LuadocIndexFile.Location> e : written
+							.entrySet())
+						if (!changed.containsKey(e.getKey())) {
+							Map<String, ILuaEntry> entries = LuadocIndexFile
+									.readGroup(e.getValue());
+							if (entries != null)
+								toSave.put(e.getKey(), entries);
+							else
+								unreadable.add(e.getKey());
+						}
+
+					// the old index and journal are all that is left of them
+					if (!unreadable.isEmpty()) {
+						for (String key : unreadable)
+							forgetUnreadable(key);
+						return false;
+					}
+					for (Map.Entry<String, Map<String, ILuaEntry>> e : changed
+							.entrySet())
+						if (!e.getValue().isEmpty())
+							toSave.put(e.getKey(), e.getValue());
+
+					written = LuadocIndexFile.write(index, toSave);
+					journal.delete();
+				} else {
+					written = LuadocIndexFile.append(journal, changed);
+				}
+			} catch (IOException e) {
+				// the changes stay unsaved and are tried again next time
+				e.printStackTrace();
+				return false;
+			}
+
+			LuadocCache cache = LuadocCache.getDefault();
+			synchronized (this) {
+				if (full)
+					locations.clear();
+				for (String key : changed.keySet())
+					locations.remove(key);
+				locations.putAll(written);
+
+				// the entries written can now be dropped and read back
+				for (Map.Entry<String, Map<String, ILuaEntry>> e : changed
+						.entrySet())
+					if (unsaved.get(e.getKey()) == e.getValue()) {
+						unsaved.remove(e.getKey());
+						cache.put(project.getName(), e.getKey(), e.getValue());
+					}
+				return unsaved.isEmpty();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private static LuaProject[] getLoadedProjects() {
+		synchronized (luaProjects) {
+			return luaProjects.values().toArray(new LuaProject[luaProjects.size()]);
 		}
 	}
 
 	/**
-	 * @param moduleName
-	 * @param theModuleEntries
-	 * @throws CoreException
+	 * Writes the LuaDoc entries changed in every project loaded so far.
 	 */
-	private void saveModuleEntries(String moduleName,
-			Map<String, ILuaEntry> theModuleEntries) throws CoreException {
-		if(theModuleEntries.size() > 0) {
-			addModule(moduleName);
-			
-			QualifiedName qualifiedName = new QualifiedName("org.keplerproject.ldt.core", project.getName()
-					+ ".luadoc.projectdata." + moduleName ); 
-
-			String renderedModuleEntries = renderLuaDocEntries( moduleName, theModuleEntries);
-			synchronizer.add(qualifiedName);
-			synchronizer.setSyncInfo(qualifiedName, project, renderedModuleEntries.getBytes());
-		} else {
-			removeModule(moduleName);
-		}
+	public static void flushAllIndexes() {
+		for (LuaProject lp : getLoadedProjects())
+			lp.flushIndex();
 	}
-	
-	
 
-	/** Renders luaDoc entries for a specific module or file 
-	 * @param docEntries StringBuilder to append entries to 
-	 * @param moduleName string with the name of the module 
-	 * @param moduleEntries Map of all entries generated for this module
-	 * @return string representing all LuaDoc Entries for the given Module 
+	/**
+	 * Saves the LuaDoc entries of every project loaded so far, folding their
+	 * journals into the index files.
 	 */
-	private String renderLuaDocEntries(
-			String moduleName, Map<String, ILuaEntry> moduleEntries) {
-		
-		StringBuilder docEntries = new StringBuilder();
-		
-		for(Map.Entry<String, ILuaEntry> entry : moduleEntries.entrySet()) {
-			
-			String functionName = entry.getKey();
-			
-			LuadocEntry l = (LuadocEntry) entry.getValue();
-			
-			if(l!=null) {
-				if(moduleName != null) 
-					docEntries.append(moduleName).append('.');
-				
-				docEntries.append(functionName).append("=");	
-				
-				docEntries.append("[====[");
-				String html = l.getHtml();
-				if(html!=null)
-					docEntries.append(html.replaceAll("\\\\", "\\\\").replaceAll("\n", "\\n").replaceAll("\r", "\\r"));
-				docEntries.append("]====]\n");
-			}
-		}
-		
-		return docEntries.toString();
+	public static void saveAllIndexes() {
+		saveJob.cancel();
+		for (LuaProject lp : getLoadedProjects())
+			lp.saveIndex();
 	}
 
 	public void addLoadPathEntry(IProject anotherLuaProject) {
 		scratched = true;
 		getLoadPathEntries().add(new LoadPathEntry(anotherLuaProject));
+		LuaLoadPathResolver.getDefault().invalidate();
 	}
 
 	public void removeLoadPathEntry(IProject anotherLuaProject) {
@@ -397,13 +486,14 @@ public class LuaProject implements IProjectNature, LuaElement {
 							anotherLuaProject.getName())) {
 				getLoadPathEntries().remove(entry);
 				scratched = true;
+				LuaLoadPathResolver.getDefault().invalidate();
 				break;
 			}
 		}
 
 	}
 
-	public List<LoadPathEntry> getLoadPathEntries() {
+	public synchronized List<LoadPathEntry> getLoadPathEntries() {
 		if (loadPathEntries == null)
 			loadLoadPathEntries();
 		return loadPathEntries;
@@ -423,6 +513,15 @@ public class LuaProject implements IProjectNature, LuaElement {
 		return referencedProjects;
 	}
 
+	/**
+	 * Drops the load path read so far, so that it is read again from its file
+	 * when next needed. Changes not saved yet are kept.
+	 */
+	synchronized void forgetLoadPathEntries() {
+		if (!scratched)
+			loadPathEntries = null;
+	}
+
 	protected void loadLoadPathEntries() {
 		loadPathEntries = new ArrayList<LoadPathEntry>();
 		IFile loadPathsFile = getLoadPathEntriesFile();
@@ -489,7 +588,7 @@ public class LuaProject implements IProjectNature, LuaElement {
 	}
 
 	protected IFile getLoadPathEntriesFile() {
-		return project.getFile(".loadpath");
+		return project.getFile(LOAD_PATH_FILE);
 	}
 
 	public void save() throws CoreException {
@@ -523,19 +622,151 @@ public class LuaProject implements IProjectNature, LuaElement {
 	}
 
 	/**
-	 * Returns all entries collected from a lua resource.
+	 * Returns all entries collected from a lua resource. Entries that were
+	 * not used lately are read back from the index file, see
+	 * {@link LuadocCache}.
 	 * 
 	 * @param luaFileFullPath
 	 *            the full pathname of the resource
-	 * @return a collection of all entries found within that resource
+	 * @return a read-only collection of all entries found within that
+	 *         resource, empty if there are none
 	 */
 	public Map<String, ILuaEntry> getLuaEntries(String luaFileFullPath) {
-		Map<String, ILuaEntry> m = luaEntries.get(luaFileFullPath);
+		waitForIndex();
+
+		synchronized (this) {
+			Map<String, ILuaEntry> m = unsaved.get(luaFileFullPath);
+			if (m != null)
+				return m;
+			if (!locations.containsKey(luaFileFullPath))
+				return Collections.emptyMap();
+		}
+
+		Map<String, ILuaEntry> m = LuadocCache.getDefault().get(
+				project.getName(), luaFileFullPath);
+		return m != null ? m : readLuaEntries(luaFileFullPath);
+	}
+
+	/**
+	 * Returns the entries of a file or module like
+	 * {@link #getLuaEntries(String)}, unless that means waiting: for the
+	 * entries to be loaded, or for the index to be written before reading
+	 * them back. Meant for the UI, which rather shows less than freezes.
+	 * 
+	 * @param luaFileFullPath
+	 *            the full pathname of the resource
+	 * @return the entries found within that resource, or null if they are
+	 *         not at hand yet
+	 */
+	public Map<String, ILuaEntry> peekLuaEntries(String luaFileFullPath) {
+		if (!indexReady) {
+			scheduleLoad();
+			return null;
+		}
+
+		synchronized (this) {
+			Map<String, ILuaEntry> m = unsaved.get(luaFileFullPath);
+			if (m != null)
+				return m;
+			if (!locations.containsKey(luaFileFullPath))
+				return Collections.emptyMap();
+		}
+
+		Map<String, ILuaEntry> m = LuadocCache.getDefault().get(
+				project.getName(), luaFileFullPath);
+		if (m != null || !writeLock.tryLock())
+			return m;
+		try {
+			return readLocked(luaFileFullPath);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the entries of a file or module back from the index file into
+	 * the cache.
+	 */
+	private Map<String, ILuaEntry> readLuaEntries(String luaFileFullPath) {
+		// writing moves the entries, wait for it to be over
+		writeLock.lock();
+		try {
+			return readLocked(luaFileFullPath);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private Map<String, ILuaEntry> readLocked(String luaFileFullPath) {
+		LuadocIndexFile.Location location;
+		synchronized (this) {
+			Map<String, ILuaEntry> m = unsaved.get(luaFileFullPath);
+			if (m != null)
+				return m;
+			location = locations.get(luaFileFullPath);
+		}
+
+		if (location == null)
+			return Collections.emptyMap();
+
+		Map<String, ILuaEntry> m = LuadocIndexFile.readGroup(location);
 		if (m == null) {
-			m = new HashMap<String, ILuaEntry>();
-			luaEntries.put(luaFileFullPath, m);
+			forgetUnreadable(luaFileFullPath);
+			return Collections.emptyMap();
 		}
+
+		m = Collections.unmodifiableMap(m);
+		LuadocCache.getDefault().put(project.getName(), luaFileFullPath, m);
 		return m;
 	}
 
+	/**
+	 * Forgets where the entries of a file or module were written, once they
+	 * cannot be read back from there, and has the file indexed again so that
+	 * its entries are generated anew. Called with the write lock held.
+	 */
+	private void forgetUnreadable(String luaFileFullPath) {
+		synchronized (this) {
+			locations.remove(luaFileFullPath);
+		}
+
+		IFile file = ResourcesPlugin.getWorkspace().getRoot()
+				.getFileForLocation(new Path(luaFileFullPath));
+		if (file == null || !project.equals(file.getProject()))
+			return;
+
+		// the build cache would otherwise tell the entries are stored
+		LuaBuildCache.getCache(project).remove(
+				file.getProjectRelativePath().toString());
+		LuaIndexManager.getDefault().schedule(file,
+				LuaIndexManager.PRIORITY_BACKGROUND);
+	}
+
+	/**
+	 * Replaces the LuaDoc entries of a file or module and marks them to be
+	 * saved. The map given is copied, so the entries being written are never
+	 * changed underneath.
+	 * 
+	 * @param luaFileFullPath
+	 *            the key the entries are stored under
+	 * @param entries
+	 *            the new entries, null or empty to remove them
+	 */
+	public void setLuaEntries(String luaFileFullPath,
+			Map<String, ILuaEntry> entries) {
+		waitForIndex();
+
+		synchronized (this) {
+			if (entries == null || entries.isEmpty())
+				unsaved.put(luaFileFullPath, Collections
+						.<String, ILuaEntry> emptyMap());
+			else
+				unsaved.put(luaFileFullPath, Collections
+						.unmodifiableMap(new HashMap<String, ILuaEntry>(
+								entries)));
+		}
+		LuadocCache.getDefault().put(project.getName(), luaFileFullPath, null);
+		saveLuaDocEntries(luaFileFullPath);
+	}
+
 }
\ No newline at end of file
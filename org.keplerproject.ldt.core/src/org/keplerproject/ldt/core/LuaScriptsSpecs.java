@@ -9,6 +9,7 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.keplerproject.ldt.core.luadoc.LuadocCache;
 import org.keplerproject.luajava.LuaState;
 import org.keplerproject.luajava.LuaStateFactory;
 
@@ -21,6 +22,14 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 	public static final String PREF_LUASCRIPT_NAMES = PREF_DEFAULT_SCOPE + ".luascripts.pattern";
 	public static final String PREF_LUADOC_AUTOGENERATION = PREF_DEFAULT_SCOPE + ".luadoc.autogeneration";
 	public static final String PREF_LUASTATEINITSCRIPT = PREF_DEFAULT_SCOPE + ".lua.initscript";
+	public static final String PREF_PARALLEL_BUILD = PREF_DEFAULT_SCOPE + ".builder.parallel";
+	public static final String PREF_LUADOC_NATIVE = PREF_DEFAULT_SCOPE + ".luadoc.native";
+	public static final String PREF_LUADOC_CACHE_SIZE = PREF_DEFAULT_SCOPE + ".luadoc.cacheSize";
+
+	/**
+	 * Megabytes the luadoc entries may take in memory when none is set.
+	 */
+	public static final int DEFAULT_LUADOC_CACHE_SIZE = (int) (LuadocCache.DEFAULT_BUDGET / (1024 * 1024));
 
 	private LuaState L = null;
 	private boolean luaStateIsDirty = true;
@@ -31,6 +40,9 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 	
 	private Set<String> luaScriptPatterns;
 	private boolean luaDocAutoGeneration = true;
+	private boolean parallelBuild = true;
+	private boolean nativeLuadoc = true;
+	private int luadocCacheSize = DEFAULT_LUADOC_CACHE_SIZE;
 
 	private String initialScript;
 
@@ -66,6 +78,12 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 		preferenceStore.setValue(PREF_LUADOC_AUTOGENERATION, new Boolean(luaDocAutoGeneration).toString());
 
 		preferenceStore.setValue(PREF_LUASTATEINITSCRIPT, getInitialScript());
+
+		preferenceStore.setValue(PREF_PARALLEL_BUILD, new Boolean(parallelBuild).toString());
+
+		preferenceStore.setValue(PREF_LUADOC_NATIVE, new Boolean(nativeLuadoc).toString());
+
+		preferenceStore.setValue(PREF_LUADOC_CACHE_SIZE, String.valueOf(luadocCacheSize));
 	}
 	
 	//TODO: check if this signature is really right
@@ -92,6 +110,24 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 			
 			if (read != null)
 				initialScript = read;
+
+			read = preferenceStore.getString(PREF_PARALLEL_BUILD);
+			
+			if (read != null && read.length() > 0)
+				parallelBuild = Boolean.parseBoolean(read);
+
+			read = preferenceStore.getString(PREF_LUADOC_NATIVE);
+			
+			if (read != null && read.length() > 0)
+				nativeLuadoc = Boolean.parseBoolean(read);
+
+			read = preferenceStore.getString(PREF_LUADOC_CACHE_SIZE);
+			
+			if (read != null && read.length() > 0)
+				try {
+					setLuadocCacheSize(Integer.parseInt(read));
+				} catch (NumberFormatException e) {
+				}
 		
 		}
 		
@@ -116,6 +152,39 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 
 	}
 	
+	public boolean isParallelBuildActive() {
+		return parallelBuild;
+	}
+	
+	public void setParallelBuild(boolean active) {
+		parallelBuild = active;
+	}
+	
+	/**
+	 * @return true if luadoc entries are extracted by the built-in parser,
+	 *         false if luadoc itself is run
+	 */
+	public boolean isNativeLuadocActive() {
+		return nativeLuadoc;
+	}
+	
+	public void setNativeLuadoc(boolean active) {
+		nativeLuadoc = active;
+	}
+	
+	/**
+	 * @return how many megabytes the luadoc entries may take in memory, see
+	 *         {@link LuadocCache}
+	 */
+	public int getLuadocCacheSize() {
+		return luadocCacheSize;
+	}
+	
+	public void setLuadocCacheSize(int megabytes) {
+		luadocCacheSize = Math.max(1, megabytes);
+		LuadocCache.getDefault().setBudget(luadocCacheSize * 1024L * 1024L);
+	}
+	
 	public boolean isValidLuaScriptFileName(IResource resource) {
 		if(resource instanceof IFile && 
 				isIncluded(resource.getProjectRelativePath(), resource, getLuaScriptPatterns()))
@@ -129,6 +198,12 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 		
 		setLuaDocAutoGeneration(true);
 		
+		setParallelBuild(true);
+		
+		setNativeLuadoc(true);
+		
+		setLuadocCacheSize(DEFAULT_LUADOC_CACHE_SIZE);
+		
 		setInitialScript("");
 	}
 	
@@ -177,32 +252,59 @@ public class LuaScriptsSpecs extends AbstractPreferenceInitializer {
 	}
 
 	public void setInitialScript(String initialScript) {
+		boolean changed = this.initialScript == null ? initialScript != null
+				: !this.initialScript.equals(initialScript);
+
 		luaStateIsDirty = true;
 		this.initialScript = initialScript;
+
+		if (changed)
+			LuaStatePool.getDefault().invalidate();
 	}
 
+	/**
+	 * @return a LuaState shared by every caller
+	 * @deprecated the returned state is not safe to use from more than one
+	 *             thread; borrow a state from {@link LuaStatePool} instead
+	 */
 	public LuaState getLuaState() {
 		if (L == null || luaStateIsDirty) { 
-			try {
-				L = LuaStateFactory.newLuaState();
-				L.openLibs();
-				
-				int result = L.LdoString(getInitialScript());
-				if (result != 0) {
-					String s = L.toString(-1);
-					System.out.println(s);
-				}	
+			L = createLuaState();
+			if (L != null)
 				luaStateIsDirty = false;
-			}  catch (Exception e) {
-				System.out.println("Could not initialize LuaState:"
-						+ e.getMessage());
-			} catch (Error e) {
-				System.out.println("Could not initialize LuaState:"
-						+ e.getMessage());
-			}
 		}
 		
 		return L;
 	}
 
+	/**
+	 * Creates a new LuaState with the standard libraries opened and the
+	 * initial script already run. The caller owns the returned state and is
+	 * responsible for closing it.
+	 * 
+	 * @return a ready to use LuaState or null if it could not be created
+	 */
+	public LuaState createLuaState() {
+		try {
+			LuaState state = LuaStateFactory.newLuaState();
+			state.openLibs();
+			
+			String script = getInitialScript();
+			int result = script != null ? state.LdoString(script) : 0;
+			if (result != 0) {
+				String s = state.toString(-1);
+				System.out.println(s);
+			}
+			state.setTop(0);
+			return state;
+		}  catch (Exception e) {
+			System.out.println("Could not initialize LuaState:"
+					+ e.getMessage());
+		} catch (Error e) {
+			System.out.println("Could not initialize LuaState:"
+					+ e.getMessage());
+		}
+		return null;
+	}
+
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.keplerproject.luajava.LuaState;
+
+/**
+ * A pool of LuaStates ready to be used by the builder and by code completion.
+ * Every state has its standard libraries opened and the initial script from
+ * {@link LuaScriptsSpecs} already run. States are handed out by
+ * {@link #borrow()} and must be given back through {@link #release(LuaState)}
+ * so that no two threads ever share the same state.
+ * <p>
+ * When the initial script changes the pool is invalidated: idle states are
+ * closed, borrowed ones are closed when released, and a new set of states is
+ * prepared in the background.
+ *
+ * @version $Id$
+ */
+public class LuaStatePool {
+
+	public static final int DEFAULT_SIZE = Runtime.getRuntime()
+			.availableProcessors() + 1;
+
+	private static LuaStatePool pool;
+
+	private final int size;
+
+	private final Object lock = new Object();
+
+	private final LinkedList<LuaState> idle = new LinkedList<LuaState>();
+
+	// generation each state was created for; only states of the current
+	// generation may go back to the idle list
+	private final Map<LuaState, Integer> generations = new IdentityHashMap<LuaState, Integer>();
+
+	// states of the current generation, idle, borrowed or being created
+	private int live;
+
+	private int generation;
+
+	private boolean started;
+
+	private boolean disposed;
+
+	private final Job warmUpJob = new Job("Initializing Lua states") {
+		protected IStatus run(IProgressMonitor monitor) {
+			warmUp(monitor);
+			return Status.OK_STATUS;
+		}
+	};
+
+	public LuaStatePool(int size) {
+		this.size = Math.max(1, size);
+		warmUpJob.setSystem(true);
+		warmUpJob.setPriority(Job.SHORT);
+	}
+
+	public static synchronized LuaStatePool getDefault() {
+		if (pool == null)
+			pool = new LuaStatePool(DEFAULT_SIZE);
+		return pool;
+	}
+
+	/**
+	 * @return the maximum number of states kept by this pool
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Borrows a state from the pool, waiting as long as needed for one to be
+	 * released.
+	 *
+	 * @return a ready to use state or null if no state could be created
+	 */
+	public LuaState borrow() {
+		return borrow(0);
+	}
+
+	/**
+	 * Borrows a state from the pool.
+	 *
+	 * @param timeout
+	 *            milliseconds to wait for a state to be released, 0 waits
+	 *            forever
+	 * @return a ready to use state or null if none became available in time
+	 */
+	public LuaState borrow(long timeout) {
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		int gen;
+
+		synchronized (lock) {
+			if (disposed)
+				return null;
+
+			if (!started) {
+				started = true;
+				warmUpJob.schedule();
+			}
+
+			while (true) {
+				LuaState L = idle.poll();
+				if (L != null)
+					return L;
+
+				if (live < size) {
+					live++;
+					gen = generation;
+					break;
+				}
+
+				try {
+					if (deadline == 0) {
+						lock.wait();
+					} else {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0)
+							return null;
+						lock.wait(remaining);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+
+		// the state is created outside the lock, it may take a while
+		LuaState L = LuaScriptsSpecs.getDefault().createLuaState();
+
+		synchronized (lock) {
+			if (L == null) {
+				if (gen == generation)
+					live--;
+				lock.notifyAll();
+				return null;
+			}
+			generations.put(L, new Integer(gen));
+		}
+		return L;
+	}
+
+	/**
+	 * Gives a state back to the pool. Any value left on its stack is
+	 * discarded. Stale or closed states are dropped from the pool.
+	 *
+	 * @param L
+	 *            a state obtained from {@link #borrow()}
+	 */
+	public void release(LuaState L) {
+		if (L == null)
+			return;
+
+		synchronized (lock) {
+			Integer gen = generations.get(L);
+			if (gen == null)
+				return;
+
+			boolean current = !disposed && gen.intValue() == generation;
+
+			if (current && !L.isClosed()) {
+				if (L.getTop() != 0)
+					L.setTop(0);
+				idle.add(L);
+				lock.notifyAll();
+				return;
+			}
+
+			generations.remove(L);
+			if (current) {
+				live--;
+				lock.notifyAll();
+			}
+		}
+
+		if (!L.isClosed())
+			L.close();
+	}
+
+	/**
+	 * Marks every state of the pool as dirty. Idle states are closed right
+	 * away and a new set is prepared in the background.
+	 */
+	public void invalidate() {
+		LuaState[] stale;
+
+		synchronized (lock) {
+			generation++;
+			live = 0;
+			stale = closeIdle();
+			lock.notifyAll();
+
+			if (started && !disposed)
+				warmUpJob.schedule();
+		}
+
+		close(stale);
+	}
+
+	/**
+	 * Closes every idle state. States still borrowed are closed when released.
+	 */
+	public void dispose() {
+		LuaState[] stale;
+
+		synchronized (lock) {
+			disposed = true;
+			stale = closeIdle();
+			lock.notifyAll();
+		}
+		warmUpJob.cancel();
+
+		close(stale);
+	}
+
+	/**
+	 * Fills the pool up to its size with fresh states.
+	 */
+	protected void warmUp(IProgressMonitor monitor) {
+		while (!monitor.isCanceled()) {
+			int gen;
+
+			synchronized (lock) {
+				if (disposed || live >= size)
+					return;
+				live++;
+				gen = generation;
+			}
+
+			LuaState L = LuaScriptsSpecs.getDefault().createLuaState();
+
+			synchronized (lock) {
+				if (L != null && gen == generation && !disposed) {
+					generations.put(L, new Integer(gen));
+					idle.add(L);
+					lock.notifyAll();
+					continue;
+				}
+
+				if (gen == generation)
+					live--;
+			}
+
+			if (L == null)
+				return;
+			L.close();
+		}
+	}
+
+	private LuaState[] closeIdle() {
+		LuaState[] stale = idle.toArray(new LuaState[idle.size()]);
+		for (LuaState L : stale)
+			generations.remove(L);
+		idle.clear();
+		return stale;
+	}
+
+	private void close(LuaState[] states) {
+		for (LuaState L : states)
+			if (!L.isClosed())
+				L.close();
+	}
+}
@@ -22,6 +22,7 @@
 */
 package org.keplerproject.ldt.core.compiler;
 
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,9 +58,7 @@ public class LuaAlert
 			if(m.matches()) {
 				int line = Integer.parseInt(m.group(1));
 				String errorMsg = m.group(2);
-	            marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-	            marker.setAttribute(IMarker.MESSAGE, errorMsg);
-	            marker.setAttribute(IMarker.LINE_NUMBER, (int)line);				
+	            marker.setAttributes(ATTRIBUTE_NAMES, attributeValues(line, errorMsg));
 			} else {
 				 // assert false : "Invalid format for lua error message ";
 			}
@@ -68,4 +67,49 @@ public class LuaAlert
         catch(CoreException coreexception) { }
         return 0;
     }
+
+    public int reportLuaError(LuaSyntaxError error)
+    {
+        try
+        {
+            IMarker marker = resource.createMarker(IMarker.PROBLEM);
+            marker.setAttributes(ATTRIBUTE_NAMES, attributeValues(error.getLine(), error.getMessage()));
+        }
+        catch(CoreException coreexception) { }
+        return 0;
+    }
+
+    /**
+     * Tells if the problem markers of the resource already match an error,
+     * so they need not be recreated.
+     * 
+     * @param error the error to compare with, null if there should be no
+     *        problem markers
+     */
+    public boolean isReported(LuaSyntaxError error)
+    {
+        try
+        {
+            IMarker[] markers = resource.findMarkers(IMarker.PROBLEM, true, IResource.DEPTH_INFINITE);
+
+            if (error == null)
+                return markers.length == 0;
+
+            if (markers.length != 1)
+                return false;
+
+            Object[] values = markers[0].getAttributes(ATTRIBUTE_NAMES);
+            return Arrays.equals(values, attributeValues(error.getLine(), error.getMessage()));
+        }
+        catch(CoreException coreexception) { }
+        return false;
+    }
+
+    private static final String[] ATTRIBUTE_NAMES = new String[] {
+        IMarker.SEVERITY, IMarker.MESSAGE, IMarker.LINE_NUMBER };
+
+    private static Object[] attributeValues(int line, String message)
+    {
+        return new Object[] { new Integer(IMarker.SEVERITY_ERROR), message, new Integer(line) };
+    }
 }
\ No newline at end of file
@@ -0,0 +1,333 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.LuaCorePlugin;
+
+/**
+ * Remembers the build results of the Lua scripts of a project, indexed by the
+ * hash of their contents. A script whose contents hash to a value already seen
+ * does not need to be compiled nor run through luadoc again.
+ * <p>
+ * A few versions are kept for every script, so switching back and forth
+ * between branches still hits the cache. The cache is kept in the plugin
+ * state location, one file per project.
+ *
+ * @version $Id$
+ */
+public class LuaBuildCache {
+
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * How many different contents are remembered for each script.
+	 */
+	private static final int VERSIONS_PER_FILE = 4;
+
+	private static final Map<String, LuaBuildCache> caches = new HashMap<String, LuaBuildCache>();
+
+	private final String projectName;
+
+	private HashMap<String, FileRecord> records;
+
+	private boolean dirty;
+
+	public static synchronized LuaBuildCache getCache(IProject project) {
+		LuaBuildCache cache = caches.get(project.getName());
+		if (cache == null) {
+			cache = new LuaBuildCache(project.getName());
+			caches.put(project.getName(), cache);
+		}
+		return cache;
+	}
+
+	protected LuaBuildCache(String projectName) {
+		this.projectName = projectName;
+	}
+
+	/**
+	 * Hashes the contents of a script.
+	 *
+	 * @param contents
+	 *            the script contents
+	 * @return the hexadecimal MD5 of the contents
+	 */
+	public static String hash(byte[] contents) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(contents);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JRE must provide MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Looks up the results of a previous build of the same contents.
+	 *
+	 * @param path
+	 *            the project relative path of the script
+	 * @param hash
+	 *            the hash of the current contents
+	 * @return the previous results or null if these contents were never built
+	 */
+	public synchronized Snapshot lookup(String path, String hash) {
+		FileRecord record = getRecords().get(path);
+		return record != null ? record.snapshots.get(hash) : null;
+	}
+
+	/**
+	 * Tells if the luadoc entries stored on the project for a script were
+	 * generated from the given contents.
+	 */
+	public synchronized boolean isCurrent(String path, String hash) {
+		FileRecord record = getRecords().get(path);
+		return record != null && hash.equals(record.current);
+	}
+
+	/**
+	 * Marks the given contents as the ones the project currently holds the
+	 * results for.
+	 */
+	public synchronized void setCurrent(String path, String hash) {
+		FileRecord record = getRecords().get(path);
+		if (record != null && !hash.equals(record.current)) {
+			record.current = hash;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Records the results of building a script and marks them as current.
+	 *
+	 * @param path
+	 *            the project relative path of the script
+	 * @param hash
+	 *            the hash of the contents that were built
+	 * @param error
+	 *            the syntax error found, if any
+	 * @param entries
+	 *            the luadoc entries generated, null if luadoc was not run
+	 */
+	public synchronized void record(String path, String hash,
+			LuaSyntaxError error, Map<String, ILuaEntry> entries) {
+		FileRecord record = getRecords().get(path);
+		if (record == null) {
+			record = new FileRecord();
+			getRecords().put(path, record);
+		}
+
+		Snapshot snapshot = new Snapshot();
+		snapshot.error = error;
+		if (entries != null)
+			snapshot.entries = new HashMap<String, ILuaEntry>(entries);
+
+		record.snapshots.remove(hash);
+		record.snapshots.put(hash, snapshot);
+		record.current = hash;
+		dirty = true;
+	}
+
+	/**
+	 * Forgets which contents the project holds the results for, so the next
+	 * build hands the cached luadoc entries to the project again.
+	 */
+	public synchronized void forgetCurrent() {
+		for (FileRecord record : getRecords().values()) {
+			if (record.current != null) {
+				record.current = null;
+				dirty = true;
+			}
+		}
+	}
+
+	public synchronized void remove(String path) {
+		if (getRecords().remove(path) != null)
+			dirty = true;
+	}
+
+	/**
+	 * Forgets every script not in the given collection.
+	 *
+	 * @param paths
+	 *            the project relative paths of the scripts to keep
+	 */
+	public synchronized void retain(Collection<String> paths) {
+		if (getRecords().keySet().retainAll(paths))
+			dirty = true;
+	}
+
+	public synchronized void clear() {
+		getRecords().clear();
+		dirty = true;
+	}
+
+	/**
+	 * Writes the cache to the plugin state location if it has changed since
+	 * it was loaded. A failed write leaves the previous file as it was.
+	 */
+	public synchronized void save() {
+		if (!dirty || records == null)
+			return;
+
+		File file = getCacheFile();
+		if (file == null)
+			return;
+
+		// the previous file is only replaced once the new one is complete
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			FileOutputStream fos = new FileOutputStream(temp);
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(fos));
+			try {
+				out.writeInt(FORMAT_VERSION);
+				out.writeObject(records);
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					throw new IOException("Could not replace " + file);
+			}
+			dirty = false;
+		} catch (IOException e) {
+			temp.delete();
+			e.printStackTrace();
+		}
+	}
+
+	private Map<String, FileRecord> getRecords() {
+		if (records == null)
+			records = load();
+		return records;
+	}
+
+	@SuppressWarnings("unchecked")
+	private HashMap<String, FileRecord> load() {
+		File file = getCacheFile();
+
+		if (file != null && file.exists()) {
+			try {
+				ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(file)));
+				try {
+					if (in.readInt() == FORMAT_VERSION)
+						return (HashMap<String, FileRecord>) in.readObject();
+				} finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				// a stale or broken cache only costs a rebuild
+			}
+		}
+
+		return new HashMap<String, FileRecord>();
+	}
+
+	private File getCacheFile() {
+		LuaCorePlugin plugin = LuaCorePlugin.getDefault();
+		if (plugin == null)
+			return null;
+
+		return plugin.getStateLocation().append("buildcache").append(
+				projectName + ".cache").toFile();
+	}
+
+	/**
+	 * The results of building one version of a script.
+	 */
+	public static class Snapshot implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		LuaSyntaxError error;
+
+		HashMap<String, ILuaEntry> entries;
+
+		public LuaSyntaxError getError() {
+			return error;
+		}
+
+		/**
+		 * @return the luadoc entries or null if luadoc was not run
+		 */
+		public Map<String, ILuaEntry> getEntries() {
+			return entries;
+		}
+
+		public boolean hasLuadoc() {
+			return entries != null;
+		}
+	}
+
+	/**
+	 * The versions remembered for one script.
+	 */
+	private static class FileRecord implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String current;
+
+		SnapshotMap snapshots = new SnapshotMap();
+	}
+
+	/**
+	 * Snapshots indexed by hash, oldest first, holding at most
+	 * VERSIONS_PER_FILE of them.
+	 */
+	private static class SnapshotMap extends LinkedHashMap<String, Snapshot> {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+			return size() > VERSIONS_PER_FILE;
+		}
+	}
+}
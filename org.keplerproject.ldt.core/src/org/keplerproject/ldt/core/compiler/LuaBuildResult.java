@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * The outcome of building one Lua script.
+ *
+ * @version $Id$
+ */
+class LuaBuildResult {
+
+	final IResource resource;
+
+	/**
+	 * The syntax error found, null if the script compiled cleanly.
+	 */
+	LuaSyntaxError error;
+
+	/**
+	 * The luadoc entries to store on the project, null if the project
+	 * already holds the right ones.
+	 */
+	Map<String, ILuaEntry> entries;
+
+	boolean updateEntries;
+
+	/**
+	 * The hash of the contents that were built.
+	 */
+	String hash;
+
+	/**
+	 * True when luadoc is left for the caller to run on a batch of files.
+	 */
+	boolean luadocPending;
+
+	/**
+	 * False when the contents are the ones already built last time.
+	 */
+	boolean changed = true;
+
+	/**
+	 * The modules the script requires.
+	 */
+	final Set<String> requires = new HashSet<String>();
+
+	/**
+	 * The modules the script declares with <code>module</code>.
+	 */
+	final Set<String> declared = new HashSet<String>();
+
+	LuaBuildResult(IResource resource) {
+		this.resource = resource;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time spent by one build of a Lua project, split by phase. Workers of a
+ * parallel build add to the same instance, so the phase times are the sum of
+ * the time spent by every thread and may exceed the elapsed time.
+ * <p>
+ * The statistics of the last build of every project are kept, and listeners
+ * are told when a build finishes.
+ *
+ * @version $Id$
+ */
+public class LuaBuildStatistics {
+
+	/** Reading, hashing and scanning the scripts for requires. */
+	public static final int READ = 0;
+
+	/** Compiling the scripts to check their syntax. */
+	public static final int COMPILE = 1;
+
+	/** Generating and storing luadoc entries. */
+	public static final int LUADOC = 2;
+
+	/** Updating the problem markers. */
+	public static final int MARKERS = 3;
+
+	public static final String[] PHASE_NAMES = { "Read", "Compile", "Luadoc",
+			"Markers" };
+
+	private static final Map<String, LuaBuildStatistics> latest = new LinkedHashMap<String, LuaBuildStatistics>();
+
+	private static final List<Listener> listeners = new ArrayList<Listener>();
+
+	private final String projectName;
+
+	private final boolean fullBuild;
+
+	private final long startTime = System.currentTimeMillis();
+
+	private long elapsed;
+
+	private final long[] times = new long[PHASE_NAMES.length];
+
+	private final int[] counts = new int[PHASE_NAMES.length];
+
+	private int files;
+
+	private int cacheHits;
+
+	private boolean canceled;
+
+	public LuaBuildStatistics(String projectName, boolean fullBuild) {
+		this.projectName = projectName;
+		this.fullBuild = fullBuild;
+	}
+
+	/**
+	 * Adds time to a phase.
+	 *
+	 * @param phase
+	 *            one of the phase constants
+	 * @param nanos
+	 *            the time spent, in nanoseconds
+	 * @param count
+	 *            how many files the time was spent on
+	 */
+	public synchronized void add(int phase, long nanos, int count) {
+		times[phase] += nanos;
+		counts[phase] += count;
+	}
+
+	public synchronized void fileBuilt(boolean cached) {
+		files++;
+		if (cached)
+			cacheHits++;
+	}
+
+	public synchronized void setCanceled(boolean canceled) {
+		this.canceled = canceled;
+	}
+
+	/**
+	 * Ends the build, makes these the latest statistics of the project and
+	 * notifies the listeners.
+	 */
+	public void finish() {
+		Listener[] toNotify;
+
+		synchronized (this) {
+			elapsed = System.currentTimeMillis() - startTime;
+		}
+
+		synchronized (latest) {
+			latest.remove(projectName);
+			latest.put(projectName, this);
+			toNotify = listeners.toArray(new Listener[listeners.size()]);
+		}
+
+		for (Listener listener : toNotify)
+			listener.buildFinished(this);
+	}
+
+	public String getProjectName() {
+		return projectName;
+	}
+
+	public boolean isFullBuild() {
+		return fullBuild;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the wall clock time of the build, in milliseconds
+	 */
+	public synchronized long getElapsedTime() {
+		return elapsed;
+	}
+
+	/**
+	 * @return the time spent in a phase, in milliseconds
+	 */
+	public synchronized long getTime(int phase) {
+		return times[phase] / 1000000;
+	}
+
+	/**
+	 * @return how many files went through a phase
+	 */
+	public synchronized int getCount(int phase) {
+		return counts[phase];
+	}
+
+	public synchronized int getFileCount() {
+		return files;
+	}
+
+	public synchronized int getCacheHits() {
+		return cacheHits;
+	}
+
+	public synchronized boolean isCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * @return the statistics of the last build of every project, the most
+	 *         recent last
+	 */
+	public static LuaBuildStatistics[] getLatest() {
+		synchronized (latest) {
+			return latest.values().toArray(
+					new LuaBuildStatistics[latest.size()]);
+		}
+	}
+
+	public static void addListener(Listener listener) {
+		synchronized (latest) {
+			if (!listeners.contains(listener))
+				listeners.add(listener);
+		}
+	}
+
+	public static void removeListener(Listener listener) {
+		synchronized (latest) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Told about every finished build, on the builder thread.
+	 */
+	public interface Listener {
+		void buildFinished(LuaBuildStatistics statistics);
+	}
+}
@@ -0,0 +1,326 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.keplerproject.ldt.core.LuaCorePlugin;
+
+/**
+ * The modules each Lua script of a project requires and provides, as found by
+ * the {@link LuaRequireScanner} while building. It answers which scripts must
+ * be analyzed again when a module changes, following <code>require</code>
+ * chains transitively.
+ * <p>
+ * A script provides the module name <code>require</code> finds it by through
+ * the load path, plus those it declares with <code>module</code>. The roots of
+ * the load path are the project and the projects it references, so the name
+ * is the project relative path: <code>a/b.lua</code> provides
+ * <code>a.b</code>, and never <code>b</code>. The graph is kept in the plugin
+ * state location, one file per project.
+ *
+ * @version $Id$
+ */
+public class LuaDependencyGraph {
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<String, LuaDependencyGraph> graphs = new HashMap<String, LuaDependencyGraph>();
+
+	private final String projectName;
+
+	private HashMap<String, FileNode> nodes;
+
+	// module name -> paths of the scripts requiring it, rebuilt on load
+	private Map<String, Set<String>> dependents;
+
+	private boolean dirty;
+
+	public static synchronized LuaDependencyGraph getGraph(IProject project) {
+		LuaDependencyGraph graph = graphs.get(project.getName());
+		if (graph == null) {
+			graph = new LuaDependencyGraph(project.getName());
+			graphs.put(project.getName(), graph);
+		}
+		return graph;
+	}
+
+	protected LuaDependencyGraph(String projectName) {
+		this.projectName = projectName;
+	}
+
+	/**
+	 * Derives the module names a script may be required by from its path,
+	 * relative to the root of the load path holding it.
+	 *
+	 * @param path
+	 *            the project relative path of the script
+	 * @return the path without extension, dotted; an <code>init</code>
+	 *         script also provides its directory
+	 */
+	public static Set<String> moduleNamesFor(String path) {
+		Set<String> names = new HashSet<String>();
+
+		String name = path;
+		int dot = name.lastIndexOf('.');
+		if (dot > name.lastIndexOf('/'))
+			name = name.substring(0, dot);
+		name = name.replace('/', '.');
+
+		names.add(name);
+		if (name.endsWith(".init"))
+			names.add(name.substring(0, name.length() - 5));
+
+		return names;
+	}
+
+	/**
+	 * Replaces what is known about a script.
+	 *
+	 * @param path
+	 *            the project relative path of the script
+	 * @param requires
+	 *            the modules it requires
+	 * @param declared
+	 *            the modules it declares with <code>module</code>
+	 */
+	public synchronized void update(String path, Set<String> requires,
+			Set<String> declared) {
+		FileNode node = getNodes().get(path);
+		if (node != null && node.requires.equals(requires)
+				&& node.declared.equals(declared))
+			return;
+
+		if (node != null)
+			unindex(path, node);
+
+		node = new FileNode();
+		node.requires.addAll(requires);
+		node.declared.addAll(declared);
+		getNodes().put(path, node);
+		index(path, node);
+		dirty = true;
+	}
+
+	/**
+	 * @param path
+	 *            the project relative path of a script
+	 * @return the modules the script provides
+	 */
+	public synchronized Set<String> getModules(String path) {
+		Set<String> modules = moduleNamesFor(path);
+		FileNode node = getNodes().get(path);
+		if (node != null)
+			modules.addAll(node.declared);
+		return modules;
+	}
+
+	/**
+	 * Finds the scripts depending, directly or not, on any of the given
+	 * modules.
+	 *
+	 * @param modules
+	 *            the modules that changed
+	 * @return the project relative paths of the dependent scripts
+	 */
+	public synchronized Set<String> getDependents(Collection<String> modules) {
+		getNodes();
+
+		Set<String> result = new HashSet<String>();
+		Set<String> visited = new HashSet<String>(modules);
+		LinkedList<String> pending = new LinkedList<String>(modules);
+
+		while (!pending.isEmpty()) {
+			Set<String> paths = dependents.get(pending.removeFirst());
+			if (paths == null)
+				continue;
+
+			for (String path : paths) {
+				if (!result.add(path))
+					continue;
+
+				for (String module : getModules(path))
+					if (visited.add(module))
+						pending.add(module);
+			}
+		}
+
+		return result;
+	}
+
+	public synchronized void remove(String path) {
+		FileNode node = getNodes().remove(path);
+		if (node != null) {
+			unindex(path, node);
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Forgets every script not in the given collection.
+	 *
+	 * @param paths
+	 *            the project relative paths of the scripts to keep
+	 */
+	public synchronized void retain(Collection<String> paths) {
+		Set<String> stale = new HashSet<String>(getNodes().keySet());
+		stale.removeAll(paths);
+		for (String path : stale)
+			remove(path);
+	}
+
+	public synchronized void clear() {
+		getNodes().clear();
+		dependents.clear();
+		dirty = true;
+	}
+
+	/**
+	 * Writes the graph to the plugin state location if it has changed since
+	 * it was loaded. A failed write leaves the previous file as it was.
+	 */
+	public synchronized void save() {
+		if (!dirty || nodes == null)
+			return;
+
+		File file = getGraphFile();
+		if (file == null)
+			return;
+
+		// the previous file is only replaced once the new one is complete
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			FileOutputStream fos = new FileOutputStream(temp);
+			ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(fos));
+			try {
+				out.writeInt(FORMAT_VERSION);
+				out.writeObject(nodes);
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					throw new IOException("Could not replace " + file);
+			}
+			dirty = false;
+		} catch (IOException e) {
+			temp.delete();
+			e.printStackTrace();
+		}
+	}
+
+	private void index(String path, FileNode node) {
+		for (String module : node.requires) {
+			Set<String> paths = dependents.get(module);
+			if (paths == null) {
+				paths = new HashSet<String>();
+				dependents.put(module, paths);
+			}
+			paths.add(path);
+		}
+	}
+
+	private void unindex(String path, FileNode node) {
+		for (String module : node.requires) {
+			Set<String> paths = dependents.get(module);
+			if (paths != null) {
+				paths.remove(path);
+				if (paths.isEmpty())
+					dependents.remove(module);
+			}
+		}
+	}
+
+	private Map<String, FileNode> getNodes() {
+		if (nodes == null) {
+			nodes = load();
+			dependents = new HashMap<String, Set<String>>();
+			for (Map.Entry<String, FileNode> entry : nodes.entrySet())
+				index(entry.getKey(), entry.getValue());
+		}
+		return nodes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private HashMap<String, FileNode> load() {
+		File file = getGraphFile();
+
+		if (file != null && file.exists()) {
+			try {
+				ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(file)));
+				try {
+					if (in.readInt() == FORMAT_VERSION)
+						return (HashMap<String, FileNode>) in.readObject();
+				} finally {
+					in.close();
+				}
+			} catch (Exception e) {
+				// a stale or broken graph only costs a full build
+			}
+		}
+
+		return new HashMap<String, FileNode>();
+	}
+
+	private File getGraphFile() {
+		LuaCorePlugin plugin = LuaCorePlugin.getDefault();
+		if (plugin == null)
+			return null;
+
+		return plugin.getStateLocation().append("depgraph").append(
+				projectName + ".graph").toFile();
+	}
+
+	/**
+	 * What a script requires and declares.
+	 */
+	private static class FileNode implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		HashSet<String> requires = new HashSet<String>();
+
+		HashSet<String> declared = new HashSet<String>();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * Diagnostics collected during a build, applied to the problem markers in a
+ * single workspace operation so that listeners get one resource change event
+ * instead of one per marker operation. Files whose markers already match
+ * their diagnostics are left alone.
+ *
+ * @version $Id$
+ */
+public class LuaMarkerBatch {
+
+	// the last diagnostic of each resource, null when it compiled cleanly
+	private final Map<IResource, LuaSyntaxError> diagnostics = new LinkedHashMap<IResource, LuaSyntaxError>();
+
+	/**
+	 * Records the diagnostic of a resource, replacing any previous one.
+	 *
+	 * @param resource
+	 *            the resource that was built
+	 * @param error
+	 *            the syntax error found or null if there is none
+	 */
+	public void add(IResource resource, LuaSyntaxError error) {
+		diagnostics.remove(resource);
+		diagnostics.put(resource, error);
+	}
+
+	public int size() {
+		return diagnostics.size();
+	}
+
+	/**
+	 * Updates the markers of every resource recorded so far and empties the
+	 * batch.
+	 *
+	 * @param monitor
+	 *            the progress monitor, may be null
+	 * @throws CoreException
+	 *             if the markers could not be updated
+	 */
+	public void apply(IProgressMonitor monitor) throws CoreException {
+		if (diagnostics.isEmpty())
+			return;
+
+		final Map<IResource, LuaSyntaxError> pending = new LinkedHashMap<IResource, LuaSyntaxError>(
+				diagnostics);
+		diagnostics.clear();
+
+		IWorkspaceRunnable runnable = new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) throws CoreException {
+				monitor.beginTask("Updating problem markers", pending.size());
+				try {
+					for (Map.Entry<IResource, LuaSyntaxError> entry : pending
+							.entrySet()) {
+						IResource resource = entry.getKey();
+						if (resource.exists()) {
+							LuaAlert alert = new LuaAlert(resource);
+							if (!alert.isReported(entry.getValue())) {
+								resource.deleteMarkers(IMarker.PROBLEM, true,
+										IResource.DEPTH_INFINITE);
+								if (entry.getValue() != null)
+									alert.reportLuaError(entry.getValue());
+							}
+						}
+						monitor.worked(1);
+					}
+				} finally {
+					monitor.done();
+				}
+			}
+		};
+
+		IResource first = pending.keySet().iterator().next();
+		first.getWorkspace().run(runnable, getRule(pending),
+				IWorkspace.AVOID_UPDATE, monitor);
+	}
+
+	/**
+	 * @return the project of the resources if they all belong to the same
+	 *         one, the workspace root otherwise
+	 */
+	private static ISchedulingRule getRule(
+			Map<IResource, LuaSyntaxError> resources) {
+		IResource rule = null;
+		for (IResource resource : resources.keySet()) {
+			if (rule == null)
+				rule = resource.getProject();
+			else if (!rule.equals(resource.getProject()))
+				return resource.getWorkspace().getRoot();
+		}
+		return rule;
+	}
+}
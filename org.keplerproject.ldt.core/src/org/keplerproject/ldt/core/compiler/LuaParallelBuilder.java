@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project. Permission is hereby granted, free of
+ * charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions: The above copyright notice and this permission
+ * notice shall be included in all copies or substantial portions of the
+ * Software. THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO
+ * EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES
+ * OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.LuaScriptsSpecs;
+import org.keplerproject.ldt.core.LuaStatePool;
+import org.keplerproject.ldt.core.luadoc.LuadocGenerator;
+import org.keplerproject.luajava.LuaState;
+
+/**
+ * Full build of a Lua project spread over a pool of workers. The candidate
+ * files are collected first, then each worker takes files from a shared queue
+ * and compiles them on a LuaState borrowed from the {@link LuaStatePool} for
+ * as long as it runs. The luadoc entries and the problem markers are applied
+ * on the calling thread once every worker is done, the markers through a
+ * {@link LuaMarkerBatch}. When luadoc itself generates the entries, it runs
+ * there too, on batches of files.
+ * <p>
+ * Workers hand their results back one by one, so the calling thread reports
+ * progress and checks for cancelation while they run.
+ *
+ * @version $Id$
+ */
+public class LuaParallelBuilder {
+
+	// files handed to one luadoc run, cancelation is checked between runs
+	private static final int LUADOC_BATCH_SIZE = 50;
+
+	private final IProject project;
+
+	private final int poolSize;
+
+	public LuaParallelBuilder(IProject project) {
+		this(project, Math.min(Runtime.getRuntime().availableProcessors(),
+				LuaStatePool.getDefault().getSize()));
+	}
+
+	public LuaParallelBuilder(IProject project, int poolSize) {
+		this.project = project;
+		this.poolSize = Math.max(1, poolSize);
+	}
+
+	/**
+	 * Builds every Lua script of the project.
+	 *
+	 * @param monitor
+	 *            the progress monitor, checked for cancelation between files
+	 * @param statistics
+	 *            receives the time spent in each phase
+	 * @throws CoreException
+	 *             if the project could not be visited or the markers could
+	 *             not be updated
+	 * @throws OperationCanceledException
+	 *             if the monitor is canceled; the files built so far keep
+	 *             their results
+	 */
+	public void build(IProgressMonitor monitor, LuaBuildStatistics statistics)
+			throws CoreException {
+		List<IFile> files = collectFiles();
+
+		List<String> paths = new ArrayList<String>(files.size());
+		for (IFile file : files)
+			paths.add(file.getProjectRelativePath().toString());
+		LuaBuildCache.getCache(project).retain(paths);
+		LuaDependencyGraph.getGraph(project).retain(paths);
+
+		if (files.isEmpty())
+			return;
+
+		boolean luadoc = LuaScriptsSpecs.getDefault()
+				.isLuaDocAutoGenerationActive();
+		boolean batchLuadoc = luadoc
+				&& !LuaScriptsSpecs.getDefault().isNativeLuadocActive();
+
+		// compiling takes most of the time, storing the results the rest
+		monitor.beginTask("Building Lua scripts", files.size()
+				* (batchLuadoc ? 5 : 4));
+		try {
+			List<LuaBuildResult> results = compileFiles(files, luadoc,
+					batchLuadoc, new SubProgressMonitor(monitor,
+							files.size() * 3), statistics);
+
+			if (batchLuadoc)
+				runLuadoc(results, new SubProgressMonitor(monitor, files
+						.size()), statistics);
+
+			long start = System.nanoTime();
+			for (LuaBuildResult result : results)
+				if (result.updateEntries)
+					LuaResourceDeltaVisitor.storeLuadocEntries(
+							result.resource, result.entries);
+			statistics.add(LuaBuildStatistics.LUADOC, System.nanoTime()
+					- start, 0);
+
+			LuaMarkerBatch markers = new LuaMarkerBatch();
+			for (LuaBuildResult result : results)
+				markers.add(result.resource, result.error);
+
+			start = System.nanoTime();
+			markers.apply(new SubProgressMonitor(monitor, files.size()));
+			statistics.add(LuaBuildStatistics.MARKERS, System.nanoTime()
+					- start, results.size());
+
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Collects all the Lua scripts of the project.
+	 *
+	 * @return the files to be built
+	 * @throws CoreException
+	 */
+	protected List<IFile> collectFiles() throws CoreException {
+		final List<IFile> files = new ArrayList<IFile>();
+
+		project.accept(new IResourceVisitor() {
+			public boolean visit(IResource res) throws CoreException {
+				if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
+					files.add((IFile) res);
+					return false;
+				}
+				return true;
+			}
+		});
+
+		return files;
+	}
+
+	/**
+	 * Runs luadoc over the results left pending by the workers, a batch of
+	 * files at a time. On cancelation the remaining files keep no entries and
+	 * are not cached as documented, so the next build runs luadoc on them.
+	 */
+	private void runLuadoc(List<LuaBuildResult> results,
+			IProgressMonitor monitor, LuaBuildStatistics statistics) {
+		List<LuaBuildResult> pending = new ArrayList<LuaBuildResult>();
+		for (LuaBuildResult result : results)
+			if (result.luadocPending)
+				pending.add(result);
+
+		monitor.beginTask("Running luadoc", pending.size());
+		try {
+			for (int i = 0; i < pending.size(); i += LUADOC_BATCH_SIZE) {
+				if (monitor.isCanceled())
+					return;
+
+				List<LuaBuildResult> batch = pending.subList(i, Math.min(
+						pending.size(), i + LUADOC_BATCH_SIZE));
+				List<String> fileNames = new ArrayList<String>(batch.size());
+				for (LuaBuildResult result : batch)
+					fileNames.add(result.resource.getLocation().toOSString());
+
+				long start = System.nanoTime();
+				Map<String, Map<String, ILuaEntry>> entries = LuadocGenerator
+						.getInstance().generateWithLuadoc(fileNames);
+				statistics.add(LuaBuildStatistics.LUADOC, System.nanoTime()
+						- start, batch.size());
+				if (entries == null)
+					return;
+
+				for (int j = 0; j < batch.size(); j++)
+					LuaResourceDeltaVisitor.recordLuadocEntries(batch.get(j),
+							entries.get(fileNames.get(j)));
+				monitor.worked(batch.size());
+			}
+		} finally {
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Compiles the files on the workers. On cancelation the files left in the
+	 * queue are dropped and only the results already computed are returned.
+	 */
+	private List<LuaBuildResult> compileFiles(List<IFile> files,
+			boolean luadoc, boolean deferLuadoc, IProgressMonitor monitor,
+			LuaBuildStatistics statistics) {
+		Queue<IFile> pending = new ConcurrentLinkedQueue<IFile>(files);
+		BlockingQueue<LuaBuildResult> done = new LinkedBlockingQueue<LuaBuildResult>();
+		int workers = Math.min(poolSize, files.size());
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		List<LuaBuildResult> results = new ArrayList<LuaBuildResult>(files.size());
+
+		monitor.beginTask("Compiling Lua scripts", files.size());
+		try {
+			for (int i = 0; i < workers; i++)
+				pool.execute(new Worker(pending, done, luadoc, deferLuadoc,
+						statistics));
+			pool.shutdown();
+
+			while (results.size() < files.size()) {
+				if (monitor.isCanceled()) {
+					pending.clear();
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+					done.drainTo(results);
+					break;
+				}
+
+				LuaBuildResult result = done.poll(100, TimeUnit.MILLISECONDS);
+				if (result != null) {
+					results.add(result);
+					monitor.subTask(result.resource.getFullPath().toString());
+					monitor.worked(1);
+				} else if (pool.isTerminated() && done.isEmpty()) {
+					// a worker died, do not wait for its files
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pool.shutdownNow();
+		} finally {
+			monitor.done();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Takes files from the shared queue until it is empty. Each worker keeps
+	 * the same pooled LuaState until it is done.
+	 */
+	private static class Worker implements Runnable {
+		private final Queue<IFile> pending;
+
+		private final Queue<LuaBuildResult> done;
+
+		private final boolean luadoc;
+
+		private final boolean deferLuadoc;
+
+		private final LuaBuildStatistics statistics;
+
+		Worker(Queue<IFile> pending, Queue<LuaBuildResult> done,
+				boolean luadoc, boolean deferLuadoc,
+				LuaBuildStatistics statistics) {
+			this.pending = pending;
+			this.done = done;
+			this.luadoc = luadoc;
+			this.deferLuadoc = deferLuadoc;
+			this.statistics = statistics;
+		}
+
+		public void run() {
+			LuaStatePool pool = LuaStatePool.getDefault();
+			LuaState L = pool.borrow();
+
+			try {
+				IFile file;
+				while ((file = pending.poll()) != null) {
+					LuaBuildResult result;
+					try {
+						result = LuaResourceDeltaVisitor.buildResource(file,
+								L, luadoc, deferLuadoc, false, statistics);
+					} catch (RuntimeException e) {
+						// keep the count right so the builder does not wait
+						e.printStackTrace();
+						result = new LuaBuildResult(file);
+					}
+					done.add(result);
+				}
+			} finally {
+				pool.release(L);
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import java.util.Set;
+
+/**
+ * Finds the modules a Lua chunk requires and the modules it declares. Only
+ * calls with a literal string argument are recognized, as in
+ * <code>require "a.b"</code>, <code>require('a.b')</code> or
+ * <code>module [[a.b]]</code>. Comments and strings are skipped.
+ *
+ * @version $Id$
+ */
+public class LuaRequireScanner {
+
+	private final byte[] code;
+
+	private final Set<String> requires;
+
+	private final Set<String> modules;
+
+	private int pos;
+
+	private LuaRequireScanner(byte[] code, Set<String> requires,
+			Set<String> modules) {
+		this.code = code;
+		this.requires = requires;
+		this.modules = modules;
+	}
+
+	/**
+	 * Scans a chunk.
+	 *
+	 * @param code
+	 *            the chunk source
+	 * @param requires
+	 *            receives the names given to <code>require</code>
+	 * @param modules
+	 *            receives the names given to <code>module</code>
+	 */
+	public static void scan(byte[] code, Set<String> requires,
+			Set<String> modules) {
+		new LuaRequireScanner(code, requires, modules).scan();
+	}
+
+	private void scan() {
+		while (pos < code.length) {
+			byte c = code[pos];
+
+			if (c == '-' && peek(1) == '-') {
+				pos += 2;
+				int level = longBracketLevel();
+				if (level >= 0)
+					skipLongBracket(level);
+				else
+					skipLine();
+			} else if (c == '"' || c == '\'') {
+				skipShortString(c);
+			} else if (c == '[' && longBracketLevel() >= 0) {
+				skipLongBracket(longBracketLevel());
+			} else if (isIdentifierStart(c)) {
+				int start = pos;
+				while (pos < code.length && isIdentifierPart(code[pos]))
+					pos++;
+
+				boolean field = start > 0
+						&& (code[start - 1] == '.' || code[start - 1] == ':');
+
+				if (!field) {
+					if (matches(start, "require"))
+						addArgument(requires);
+					else if (matches(start, "module"))
+						addArgument(modules);
+				}
+			} else {
+				pos++;
+			}
+		}
+	}
+
+	/**
+	 * Reads the literal string argument following a call name, leaving the
+	 * scanner position untouched.
+	 */
+	private void addArgument(Set<String> names) {
+		int saved = pos;
+
+		skipBlanks();
+		if (pos < code.length && code[pos] == '(') {
+			pos++;
+			skipBlanks();
+		}
+
+		if (pos < code.length) {
+			byte c = code[pos];
+			int start = -1;
+			int end = -1;
+
+			if (c == '"' || c == '\'') {
+				start = pos + 1;
+				skipShortString(c);
+				end = pos - 1;
+			} else if (c == '[') {
+				int level = longBracketLevel();
+				if (level >= 0) {
+					start = pos + level + 2;
+					skipLongBracket(level);
+					end = pos - level - 2;
+				}
+			}
+
+			if (start >= 0 && end > start)
+				names.add(new String(code, start, end - start).trim());
+		}
+
+		pos = saved;
+	}
+
+	/**
+	 * @return the level of the long bracket opening at the current position,
+	 *         or -1 if there is none
+	 */
+	private int longBracketLevel() {
+		if (pos >= code.length || code[pos] != '[')
+			return -1;
+
+		int level = 0;
+		while (peek(level + 1) == '=')
+			level++;
+
+		return peek(level + 1) == '[' ? level : -1;
+	}
+
+	private void skipLongBracket(int level) {
+		pos += level + 2;
+
+		while (pos < code.length) {
+			if (code[pos] == ']') {
+				int i = 1;
+				while (i <= level && peek(i) == '=')
+					i++;
+				if (i == level + 1 && peek(i) == ']') {
+					pos += level + 2;
+					return;
+				}
+			}
+			pos++;
+		}
+	}
+
+	private void skipShortString(byte quote) {
+		pos++;
+		while (pos < code.length) {
+			byte c = code[pos++];
+			if (c == '\\')
+				pos++;
+			else if (c == quote || c == '\n')
+				return;
+		}
+	}
+
+	private void skipLine() {
+		while (pos < code.length && code[pos] != '\n')
+			pos++;
+	}
+
+	private void skipBlanks() {
+		while (pos < code.length
+				&& (code[pos] == ' ' || code[pos] == '\t' || code[pos] == '\r' || code[pos] == '\n'))
+			pos++;
+	}
+
+	private int peek(int offset) {
+		int i = pos + offset;
+		return i < code.length ? code[i] : -1;
+	}
+
+	private boolean matches(int start, String word) {
+		if (pos - start != word.length())
+			return false;
+		for (int i = 0; i < word.length(); i++)
+			if (code[start + i] != word.charAt(i))
+				return false;
+		return true;
+	}
+
+	private static boolean isIdentifierStart(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentifierPart(byte c) {
+		return isIdentifierStart(c) || (c >= '0' && c <= '9');
+	}
+}
@@ -18,21 +18,36 @@
 
 package org.keplerproject.ldt.core.compiler;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.LuaIndexManager;
 import org.keplerproject.ldt.core.LuaProject;
 import org.keplerproject.ldt.core.LuaScriptsSpecs;
+import org.keplerproject.ldt.core.LuaStatePool;
+import org.keplerproject.ldt.core.luadoc.LuaSymbolIndex;
 import org.keplerproject.ldt.core.luadoc.LuadocGenerator;
 import org.keplerproject.luajava.LuaState;
 
@@ -46,136 +61,612 @@ import org.keplerproject.luajava.LuaState;
  */
 public class LuaResourceDeltaVisitor implements IResourceDeltaVisitor, IResourceVisitor {
 
+	// how many times the entries of each script were stored, by location;
+	// storing is done holding this map, see storeLuadocEntries
+	private static final Map<String, Long> storeStamps = new HashMap<String, Long>();
+
+	// project relative paths of the scripts built by this visitor
+	private final Set<String> builtPaths = new HashSet<String>();
+
+	// modules provided by scripts that changed or went away
+	private final Set<String> changedModules = new HashSet<String>();
+
+	// diagnostics waiting for applyMarkers
+	private final LuaMarkerBatch markers = new LuaMarkerBatch();
+
+	private final IProgressMonitor monitor;
+
+	private final LuaBuildStatistics statistics;
+
 	public LuaResourceDeltaVisitor() {
-		return;
+		this(null, null);
+	}
+
+	/**
+	 * @param monitor
+	 *            told about every file built and checked for cancelation
+	 *            before each one; the caller begins the task, see
+	 *            {@link #countFiles(IResourceDelta)}
+	 * @param statistics
+	 *            receives the time spent in each phase
+	 */
+	public LuaResourceDeltaVisitor(IProgressMonitor monitor,
+			LuaBuildStatistics statistics) {
+		this.monitor = monitor != null ? monitor : new NullProgressMonitor();
+		this.statistics = statistics != null ? statistics
+				: new LuaBuildStatistics("", false);
+	}
+
+	/**
+	 * Updates the problem markers of every script built so far, in a single
+	 * workspace operation. Must be called once the visit is done.
+	 * 
+	 * @param markersMonitor
+	 *            the progress monitor, may be null
+	 * @throws CoreException
+	 *             if the markers could not be updated
+	 */
+	public void applyMarkers(IProgressMonitor markersMonitor)
+			throws CoreException {
+		int count = markers.size();
+		long start = System.nanoTime();
+		markers.apply(markersMonitor);
+		statistics.add(LuaBuildStatistics.MARKERS, System.nanoTime() - start,
+				count);
+	}
+
+	/**
+	 * Counts the Lua scripts a delta visit will build.
+	 */
+	public static int countFiles(IResourceDelta delta) throws CoreException {
+		final int[] count = new int[1];
+		delta.accept(new IResourceDeltaVisitor() {
+			public boolean visit(IResourceDelta child) {
+				IResource res = child.getResource();
+				if (!res.exists())
+					return false;
+				if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
+					count[0]++;
+					return false;
+				}
+				return true;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * Counts the Lua scripts a resource visit will build.
+	 */
+	public static int countFiles(IResource resource) throws CoreException {
+		final int[] count = new int[1];
+		resource.accept(new IResourceVisitor() {
+			public boolean visit(IResource res) {
+				if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
+					count[0]++;
+					return false;
+				}
+				return true;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * @return the modules provided by the scripts this visitor found changed
+	 *         or removed
+	 */
+	public Set<String> getChangedModules() {
+		return changedModules;
+	}
+
+	/**
+	 * Forgets, in the {@link LuaBuildCache} and the
+	 * {@link LuaDependencyGraph}, every script this visitor did not build,
+	 * such as those deleted while the workbench was closed. Only meant after
+	 * a whole project was visited.
+	 * 
+	 * @param project
+	 *            the project visited
+	 */
+	public void retainBuilt(IProject project) {
+		LuaBuildCache.getCache(project).retain(builtPaths);
+		LuaDependencyGraph.getGraph(project).retain(builtPaths);
+	}
+
+	/**
+	 * Analyzes again the scripts of a project depending on the given modules,
+	 * directly or through other scripts. Scripts already built by this
+	 * visitor are skipped, and those whose contents were built before are
+	 * taken from the {@link LuaBuildCache}.
+	 * 
+	 * @param project
+	 *            the project whose scripts must be analyzed
+	 * @param modules
+	 *            the modules that changed
+	 * @param dependentsMonitor
+	 *            the monitor to report the dependents built to
+	 * @throws OperationCanceledException
+	 *             if the monitor is canceled
+	 */
+	public void buildDependents(IProject project, Set<String> modules,
+			IProgressMonitor dependentsMonitor) {
+		Set<String> paths = modules.isEmpty() ? new HashSet<String>()
+				: LuaDependencyGraph.getGraph(project).getDependents(modules);
+		paths.removeAll(builtPaths);
+
+		dependentsMonitor.beginTask("Building dependent Lua scripts", paths
+				.size());
+		try {
+			for (String path : paths) {
+				checkCanceled(dependentsMonitor);
+
+				IResource res = project.findMember(path);
+				if (res != null
+						&& res.exists()
+						&& LuaScriptsSpecs.getDefault()
+								.isValidLuaScriptFileName(res)) {
+					dependentsMonitor.subTask(res.getFullPath().toString());
+					buildFile(res);
+				}
+				dependentsMonitor.worked(1);
+			}
+		} finally {
+			dependentsMonitor.done();
+		}
+	}
+
+	private static void checkCanceled(IProgressMonitor monitor) {
+		if (monitor.isCanceled())
+			throw new OperationCanceledException();
+	}
+
+	/**
+	 * Collects the modules provided by the scripts changed or removed in a
+	 * delta, without building anything. Used on the deltas of the projects
+	 * referenced through the load path.
+	 * 
+	 * @param delta
+	 *            the delta of a referenced project
+	 * @param modules
+	 *            receives the changed modules
+	 * @throws CoreException
+	 */
+	public static void collectChangedModules(IResourceDelta delta,
+			final Set<String> modules) throws CoreException {
+		final LuaDependencyGraph graph = LuaDependencyGraph.getGraph(delta
+				.getResource().getProject());
+
+		delta.accept(new IResourceDeltaVisitor() {
+			public boolean visit(IResourceDelta child) throws CoreException {
+				IResource res = child.getResource();
+				if (res.getType() != IResource.FILE)
+					return true;
+
+				if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res))
+					modules.addAll(graph.getModules(res
+							.getProjectRelativePath().toString()));
+				return false;
+			}
+		});
 	}
 
 	public boolean visit(IResourceDelta delta) throws CoreException {
-		
+		checkCanceled(monitor);
+
 		final IResource res = delta.getResource();
 		//We may be reporting on resources that have been deleted.
 		//Too much of the code called from here expects getLocation() 
 		//to be valid, so if the resource is deleted, bail out.
 		if(res == null || !res.exists()) {
+			if (res != null && delta.getKind() == IResourceDelta.REMOVED
+					&& res.getType() == IResource.FILE) {
+				String path = res.getProjectRelativePath().toString();
+				LuaDependencyGraph graph = LuaDependencyGraph.getGraph(res
+						.getProject());
+
+				changedModules.addAll(graph.getModules(path));
+				graph.remove(path);
+				LuaBuildCache.getCache(res.getProject()).remove(path);
+			}
 			return false;
 		}
 		
 		if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
-			if (LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive())
-				updateLuadocEntries(res);
-			LuaState L = LuaScriptsSpecs.getDefault().getLuaState();
-			compileFile(res, L);
+			monitor.subTask(res.getFullPath().toString());
+			buildFile(res);
+			monitor.worked(1);
+			return false;
+		} else {
+			return true;
+		}
+	}
+
+	public boolean visit(final IResource res) throws CoreException {
+		checkCanceled(monitor);
 
+		if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
+			monitor.subTask(res.getFullPath().toString());
+			buildFile(res);
+			monitor.worked(1);
 			return false;
 		} else {
 			return true;
 		}
 	}
 
-	private void compileFile(IResource res, LuaState L) {
+	private void buildFile(IResource res) {
+		boolean luadoc = LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive();
+		String path = res.getProjectRelativePath().toString();
+		LuaDependencyGraph graph = LuaDependencyGraph.getGraph(res.getProject());
+		Set<String> modules = graph.getModules(path);
 
+		LuaStatePool pool = LuaStatePool.getDefault();
+		LuaState L = pool.borrow();
+		LuaBuildResult result;
 		try {
-			try {
-				res.deleteMarkers("org.eclipse.core.resources.problemmarker", true, 2);
-			} catch (CoreException coreexception) {
-	
-			}
-	
-			String code = readFile(res);
+			result = buildResource(res, L, luadoc, false, statistics);
+		} finally {
+			pool.release(L);
+		}
 
-			// Comment out the 'shabang' (#!) from the beginning of file if found
-			if(code != null) {
-				code = code.replaceAll("^(\\s*)#!", "$1--#!");
-			}
-		
-			// enclose code in a function to avoid error
-			// -- extra line break before 'end' avoids error when last line of code
-			// is a -- comment
-			code = "return function(...) " + code + " \nend";
-	
-			LuaAlert alert = new LuaAlert(res);
-	
-			if (L != null) {
-	
-				int result = L.LdoString(code);
-	
-				if (result != 0) {
-					String s = L.toString(-1);
-					alert.reportLuaError(s);
-				}
-			} else {
-				alert
-						.reportLuaError("*:1:Could not compile file (LuaState not loaded)");
+		builtPaths.add(path);
+		if (result.changed) {
+			// a script that stops declaring a module affects its users too
+			changedModules.addAll(modules);
+			changedModules.addAll(graph.getModules(path));
+		}
+
+		if (result.updateEntries) {
+			long start = System.nanoTime();
+			storeLuadocEntries(res, result.entries);
+			statistics.add(LuaBuildStatistics.LUADOC, System.nanoTime() - start, 0);
+		}
+
+		markers.add(res, result.error);
+	}
+
+	/**
+	 * Compiles a Lua resource and runs luadoc over it, unless the same
+	 * contents were already built and the results are found in the
+	 * {@link LuaBuildCache}. The modules it requires and declares are always
+	 * recorded in the {@link LuaDependencyGraph}. Neither the markers nor the
+	 * project are touched, so it can be called from any thread as long as the
+	 * LuaState is not shared.
+	 * 
+	 * @param res
+	 *            the resource to build
+	 * @param L
+	 *            the LuaState used to compile the code
+	 * @param luadoc
+	 *            whether luadoc entries must be generated
+	 * @param force
+	 *            whether to analyze the resource even if the cache holds
+	 *            results for its contents
+	 * @param statistics
+	 *            receives the time spent reading, compiling and running
+	 *            luadoc
+	 * @return the build results
+	 */
+	static LuaBuildResult buildResource(IResource res, LuaState L,
+			boolean luadoc, boolean force, LuaBuildStatistics statistics) {
+		return buildResource(res, L, luadoc, false, force, statistics);
+	}
+
+	/**
+	 * Same as {@link #buildResource(IResource, LuaState, boolean, boolean,
+	 * LuaBuildStatistics)}, optionally leaving luadoc for the caller.
+	 * 
+	 * @param deferLuadoc
+	 *            if true and luadoc must run, the result is flagged as
+	 *            {@link LuaBuildResult#luadocPending} instead and the caller
+	 *            records the entries with {@link #recordLuadocEntries}
+	 */
+	static LuaBuildResult buildResource(IResource res, LuaState L,
+			boolean luadoc, boolean deferLuadoc, boolean force,
+			LuaBuildStatistics statistics) {
+		LuaBuildResult result = new LuaBuildResult(res);
+
+		long start = System.nanoTime();
+		byte[] code = readFile(res);
+		if (code == null)
+			return result;
+
+		LuaBuildCache cache = LuaBuildCache.getCache(res.getProject());
+		String path = res.getProjectRelativePath().toString();
+		String hash = LuaBuildCache.hash(code);
+		result.hash = hash;
+
+		LuaRequireScanner.scan(code, result.requires, result.declared);
+		LuaDependencyGraph.getGraph(res.getProject()).update(path,
+				result.requires, result.declared);
+
+		result.changed = !cache.isCurrent(path, hash);
+		statistics.add(LuaBuildStatistics.READ, System.nanoTime() - start, 1);
+
+		LuaBuildCache.Snapshot snapshot = force ? null : cache.lookup(path,
+				hash);
+
+		if (snapshot != null && (!luadoc || snapshot.hasLuadoc())) {
+			result.error = snapshot.getError();
+
+			if (luadoc && result.changed) {
+				result.entries = snapshot.getEntries();
+				result.updateEntries = true;
 			}
+
+			cache.setCurrent(path, hash);
+			statistics.fileBuilt(true);
+			return result;
+		}
+
+		if (luadoc && deferLuadoc) {
+			result.luadocPending = true;
+		} else if (luadoc) {
+			start = System.nanoTime();
+			result.entries = generateLuadocEntries(res, code);
+			result.updateEntries = true;
+			statistics.add(LuaBuildStatistics.LUADOC, System.nanoTime() - start, 1);
+		}
+
+		start = System.nanoTime();
+		result.error = checkSyntax(code, L);
+		statistics.add(LuaBuildStatistics.COMPILE, System.nanoTime() - start, 1);
+		statistics.fileBuilt(false);
+
+		cache.record(path, hash, result.error, result.entries);
+
+		return result;
+	}
+
+	/**
+	 * Checks the syntax of Lua code on the given LuaState. The code is only
+	 * compiled, never run.
+	 * 
+	 * @param code
+	 *            the code to compile, a leading shebang line is blanked in
+	 *            place
+	 * @param L
+	 *            the LuaState used to compile the code
+	 * @return the syntax error found or null if the code compiled cleanly
+	 */
+	static LuaSyntaxError checkSyntax(byte[] code, LuaState L) {
+
+		try {
+			if (L == null)
+				return new LuaSyntaxError(1,
+						"Could not compile file (LuaState not loaded)");
+
+			LuaSyntaxChecker.blankShebang(code);
+
+			return LuaSyntaxChecker.check(L, code);
 		} catch (Exception e) {
 			// buggy code catch-all
 			e.printStackTrace();
 		}
+		return null;
 	}
 
-	private String readFile(IResource res) {
+	/**
+	 * Reads the raw bytes of a resource. Lua compiles bytes, so the contents
+	 * are never decoded.
+	 * 
+	 * @param res
+	 *            the resource to read
+	 * @return the resource contents or null if it could not be read
+	 */
+	private static byte[] readFile(IResource res) {
+		IPath location = res.getLocation();
 
-		File f = new File(res.getLocation().toOSString());
 		try {
-			FileInputStream fis = new FileInputStream(f);
-			byte b[] = new byte[(int) f.length()];
-			fis.read(b);
-			String content = new String(b);
-			b = null;
-			fis.close();
-			return content;
-		} catch (FileNotFoundException filenotfoundexception) {
-		} catch (IOException ioexception) {
+			if (location != null)
+				return readFile(location.toFile());
+
+			if (res instanceof IFile)
+				return readStream(((IFile) res).getContents(true));
+		} catch (IOException e) {
+		} catch (CoreException e) {
 		}
 		return null;
 	}
 
-	public boolean visit(final IResource res) throws CoreException {
-		
-		if (LuaScriptsSpecs.getDefault().isValidLuaScriptFileName(res)) {
-			if (LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive())
-				updateLuadocEntries(res);
-			LuaState L = LuaScriptsSpecs.getDefault().getLuaState();
-			compileFile(res, L);
+	private static byte[] readFile(File f) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + f);
+
+			byte[] contents = new byte[(int) size];
+			ByteBuffer buffer = ByteBuffer.wrap(contents);
+
+			// a single read may return less than asked for
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					// the file shrank while being read
+					byte[] shorter = new byte[buffer.position()];
+					System.arraycopy(contents, 0, shorter, 0, shorter.length);
+					return shorter;
+				}
+			}
+			return contents;
+		} finally {
+			fis.close();
+		}
+	}
+
+	private static byte[] readStream(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = in.read(chunk)) > 0)
+				out.write(chunk, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Stores the entries generated by a batch luadoc run on a result that
+	 * was left {@link LuaBuildResult#luadocPending}, and records them in the
+	 * build cache.
+	 */
+	static void recordLuadocEntries(LuaBuildResult result,
+			Map<String, ILuaEntry> entries) {
+		result.entries = entries;
+		result.updateEntries = true;
+		result.luadocPending = false;
+
+		LuaBuildCache.getCache(result.resource.getProject()).record(
+				result.resource.getProjectRelativePath().toString(),
+				result.hash, result.error, entries);
+	}
+
+	/**
+	 * Extracts the luadoc entries of a resource, with the built-in parser
+	 * or by running luadoc as set in {@link LuaScriptsSpecs}. Both are safe
+	 * to call concurrently.
+	 * 
+	 * @param res
+	 *            the resource where to run luadoc
+	 * @param code
+	 *            the contents of the resource
+	 * @return the generated entries, indexed by name
+	 */
+	static Map<String, ILuaEntry> generateLuadocEntries(final IResource res,
+			byte[] code) {
+		String resourceFileName = res.getLocation().toOSString();
+
+		if (!LuaScriptsSpecs.getDefault().isNativeLuadocActive())
+			return LuadocGenerator.getInstance().generateWithLuadoc(
+					resourceFileName);
+
+		return LuadocGenerator.getInstance().generate(resourceFileName,
+				decode(res, code));
+	}
+
+	private static String decode(IResource res, byte[] code) {
+		String charset = null;
+		if (res instanceof IFile)
+			try {
+				charset = ((IFile) res).getCharset();
+			} catch (CoreException e) {
+			}
+
+		if (charset != null)
+			try {
+				return new String(code, charset);
+			} catch (UnsupportedEncodingException e) {
+			}
+		return new String(code);
+	}
+
+	/**
+	 * Extracts and stores the luadoc entries of a resource without building
+	 * it, for indexing outside of builds. Nothing is done if the last build
+	 * already saw the same contents; the build cache is read but not written,
+	 * the syntax of the resource being unknown. The entries are dropped if
+	 * a build stored entries for the resource while they were generated;
+	 * the resource is queued again if the build saw other contents.
+	 * 
+	 * @param res
+	 *            the resource to index
+	 * @return false if the resource could not be read
+	 */
+	public static boolean indexLuadoc(IResource res) {
+		if (res.getLocation() == null)
 			return false;
-		} else {
+
+		long stamp = getStoreStamp(res);
+		byte[] code = readFile(res);
+		if (code == null)
+			return false;
+
+		LuaBuildCache cache = LuaBuildCache.getCache(res.getProject());
+		String path = res.getProjectRelativePath().toString();
+		String hash = LuaBuildCache.hash(code);
+		if (cache.isCurrent(path, hash))
 			return true;
+
+		LuaBuildCache.Snapshot snapshot = cache.lookup(path, hash);
+		Map<String, ILuaEntry> entries = snapshot != null
+				&& snapshot.hasLuadoc() ? snapshot.getEntries()
+				: generateLuadocEntries(res, code);
+
+		synchronized (storeStamps) {
+			if (getStoreStamp(res) == stamp) {
+				replaceLuadocEntries(res, entries);
+				return true;
+			}
 		}
+
+		// the build may have read the contents before these, look again
+		if (!cache.isCurrent(path, hash) && res instanceof IFile)
+			LuaIndexManager.getDefault().schedule((IFile) res,
+					LuaIndexManager.PRIORITY_RECENT);
+		return true;
 	}
 
 	/**
-	 * Updates all luadocs entries for a resource. All entries already stored on
-	 * the project file will be replaced by the new entries found through the
-	 * execution of luadoc.
+	 * Forgets the luadoc entries of a resource that went away, unless it is
+	 * back already.
+	 */
+	public static void removeLuadoc(IResource res) {
+		if (res.getLocation() == null)
+			return;
+
+		synchronized (storeStamps) {
+			if (!res.exists())
+				replaceLuadocEntries(res, null);
+		}
+	}
+
+	/**
+	 * Replaces the luadoc entries stored on the project for a resource.
+	 * Builders must have marked the contents the entries come from as
+	 * current in the {@link LuaBuildCache} beforehand, so that indexing
+	 * never overwrites them with older ones.
 	 * 
 	 * @param res
-	 *            the resource where to run luadoc
+	 *            the resource the entries were generated from
+	 * @param generatedEntries
+	 *            the new entries for the resource
 	 */
-	private void updateLuadocEntries(final IResource res) {
+	static void storeLuadocEntries(final IResource res,
+			Map<String, ILuaEntry> generatedEntries) {
+		synchronized (storeStamps) {
+			replaceLuadocEntries(res, generatedEntries);
+		}
+	}
+
+	private static long getStoreStamp(IResource res) {
+		synchronized (storeStamps) {
+			Long stamp = storeStamps.get(res.getLocation().toOSString());
+			return stamp != null ? stamp.longValue() : 0;
+		}
+	}
+
+	// called holding storeStamps
+	private static void replaceLuadocEntries(IResource res,
+			Map<String, ILuaEntry> generatedEntries) {
 		IProject prj = res.getProject();
 
 		LuaProject lp = LuaProject.getLuaProject(prj);
 
 		String resourceFileName = res.getLocation().toOSString();
-		// TODO: create a wrapper class for this map to better illustrate
-		// semantics
-		Map<String, ILuaEntry> resourceStoredEntries = lp
-				.getLuaEntries(resourceFileName);
-
-		resourceStoredEntries.clear();
-
-		LuadocGenerator lg = LuadocGenerator.getInstance();
-
-		Map<String, ILuaEntry> generatedEntries = lg.generate(resourceFileName);
 
-		resourceStoredEntries.putAll(generatedEntries); // puts the
-		// documentation
-		// information into the
-		// resource storage
+		// puts the documentation information into the resource storage,
+		// it is written to disk in the background
+		lp.setLuaEntries(resourceFileName, generatedEntries);
 
-		lg.generateIndexes(generatedEntries);
+		LuaSymbolIndex.getDefault().replaceFile(prj.getName(),
+				resourceFileName, generatedEntries);
 
-		lp.saveLuaDocEntries(resourceFileName);
+		Long stamp = storeStamps.get(resourceFileName);
+		storeStamps.put(resourceFileName, stamp != null ? stamp + 1 : 1);
 	}
 
 }
\ No newline at end of file
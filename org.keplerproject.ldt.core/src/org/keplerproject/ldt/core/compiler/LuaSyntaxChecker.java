@@ -0,0 +1,130 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.core.compiler;
+
+import org.keplerproject.luajava.LuaState;
+
+/**
+ * Checks the syntax of Lua chunks. Chunks are only loaded, never run, so
+ * checking a script leaves nothing behind on the LuaState except the garbage
+ * of the compiled function, which is collected a step at a time.
+ *
+ * @version $Id$
+ */
+public class LuaSyntaxChecker {
+
+	/**
+	 * Name given to every checked chunk. Lua reports errors as
+	 * <code>name:line: message</code> and truncates long chunk names, so a
+	 * short fixed name is used to find the line number.
+	 */
+	private static final String CHUNK_NAME = "=source";
+
+	private static final String ERROR_PREFIX = CHUNK_NAME.substring(1) + ":";
+
+	/**
+	 * Upper bound, in kilobytes, of the garbage collection step done after
+	 * each check.
+	 */
+	private static final int MAX_GC_STEP = 64;
+
+	private LuaSyntaxChecker() {
+	}
+
+	/**
+	 * Compiles a chunk without running it.
+	 *
+	 * @param L
+	 *            the LuaState used to compile the chunk
+	 * @param chunk
+	 *            the chunk source
+	 * @return the syntax error found or null if the chunk compiled cleanly
+	 */
+	public static LuaSyntaxError check(LuaState L, byte[] chunk) {
+		int top = L.getTop();
+		int result = L.LloadBuffer(chunk, CHUNK_NAME);
+
+		LuaSyntaxError error = null;
+		if (result != 0)
+			error = parseError(L.toString(-1));
+
+		// either the compiled function or the error message
+		L.setTop(top);
+
+		L.gc(LuaState.LUA_GCSTEP.intValue(), Math.min(MAX_GC_STEP,
+				chunk.length / 1024 + 1));
+
+		return error;
+	}
+
+	/**
+	 * Blanks out a shebang (#!) line at the start of a chunk, the same way the
+	 * standalone interpreter skips it. The line is overwritten with spaces in
+	 * place, so line numbers are kept and nothing is copied.
+	 *
+	 * @param chunk
+	 *            the chunk source
+	 */
+	public static void blankShebang(byte[] chunk) {
+		int i = 0;
+		while (i < chunk.length && Character.isWhitespace((char) chunk[i]))
+			i++;
+
+		if (i + 1 < chunk.length && chunk[i] == '#' && chunk[i + 1] == '!') {
+			while (i < chunk.length && chunk[i] != '\n' && chunk[i] != '\r')
+				chunk[i++] = ' ';
+		}
+	}
+
+	/**
+	 * Splits a Lua error message in the form <code>source:line: message</code>
+	 * into its line and message.
+	 *
+	 * @param luaError
+	 *            the message left on the stack by the Lua compiler
+	 * @return the error, on line 1 if the message carries no line number
+	 */
+	static LuaSyntaxError parseError(String luaError) {
+		if (luaError == null)
+			return new LuaSyntaxError(1, "Unknown error");
+
+		if (luaError.startsWith(ERROR_PREFIX)) {
+			int start = ERROR_PREFIX.length();
+			int end = start;
+			int line = 0;
+
+			while (end < luaError.length()
+					&& Character.isDigit(luaError.charAt(end))) {
+				line = line * 10 + (luaError.charAt(end) - '0');
+				end++;
+			}
+
+			if (end > start && end < luaError.length()
+					&& luaError.charAt(end) == ':')
+				return new LuaSyntaxError(line, luaError.substring(end + 1)
+						.trim());
+		}
+
+		return new LuaSyntaxError(1, luaError);
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The distinct short names of the {@link LuaSymbolIndex}, indexed for the
+ * searches its sorted maps cannot answer:
+ * <ul>
+ * <li>substring, through the postings of every trigram of the lower cased
+ * names;</li>
+ * <li>camel hump, through a sorted map of the initials of the humps of each
+ * name, <code>gfb</code> for <code>getFooBar</code> or
+ * <code>get_foo_bar</code>;</li>
+ * <li>fuzzy, by a scan where a bit mask of the characters of each name
+ * rules out most of them before the subsequence is checked.</li>
+ * </ul>
+ * Names are numbered and the postings hold those numbers, which keeps them
+ * small. The names are also copied to one array, which scans go through. A
+ * removed name leaves its number in the postings, every candidate being
+ * checked anyway, and the postings are rebuilt once there are more removed
+ * names than live ones.
+ * <p>
+ * LuaSymbolSearchBenchmark, in the tools folder of this plug-in, measures
+ * the searches.
+ * <p>
+ * Each name carries a value, given back by the searches. This class is not
+ * thread safe, the symbol index guards it with its lock.
+ *
+ * @version $Id$
+ */
+class LuaNameIndex<V> {
+
+	// below this many removed names the postings are never rebuilt
+	private static final int MIN_REBUILD = 1024;
+
+	// lower cased name -> its data
+	private final Map<String, Name<V>> names = new HashMap<String, Name<V>>();
+
+	// number -> name, null once removed
+	private final List<Name<V>> byId = new ArrayList<Name<V>>();
+
+	// number -> the character mask of the name, 0 once removed
+	private long[] masks = new long[256];
+
+	// the names one after the other, name n from starts[n] to starts[n + 1];
+	// scans read these arrays instead of following every name
+	private char[] chars = new char[4096];
+
+	private int[] starts = new int[257];
+
+	// trigram -> numbers of the names containing it
+	private final Map<String, IntList> trigrams = new HashMap<String, IntList>();
+
+	// hump initials -> numbers of the names having them
+	private final TreeMap<String, IntList> byInitials = new TreeMap<String, IntList>();
+
+	private int removed;
+
+	/**
+	 * Indexes a name, or only changes its value if another case of it is
+	 * indexed already.
+	 */
+	void add(String name, V value) {
+		String key = name.toLowerCase();
+		Name<V> n = names.get(key);
+		if (n != null) {
+			n.value = value;
+			return;
+		}
+
+		n = new Name<V>(name, key, value);
+		names.put(key, n);
+		post(n);
+	}
+
+	/**
+	 * Forgets a lower cased name.
+	 */
+	void remove(String key) {
+		Name<V> n = names.remove(key);
+		if (n == null)
+			return;
+
+		byId.set(n.id, null);
+		masks[n.id] = 0;
+		if (++removed > MIN_REBUILD && removed > names.size())
+			rebuild();
+	}
+
+	/**
+	 * Numbers a name and posts it.
+	 */
+	private void post(Name<V> n) {
+		n.id = byId.size();
+		byId.add(n);
+		if (n.id == masks.length) {
+			long[] grownMasks = new long[masks.length * 2];
+			System.arraycopy(masks, 0, grownMasks, 0, n.id);
+			masks = grownMasks;
+
+			int[] grownStarts = new int[masks.length + 1];
+			System.arraycopy(starts, 0, grownStarts, 0, n.id + 1);
+			starts = grownStarts;
+		}
+		masks[n.id] = mask(n.key);
+
+		int start = starts[n.id];
+		int end = start + n.key.length();
+		if (end > chars.length) {
+			char[] grown = new char[Math.max(end, chars.length * 2)];
+			System.arraycopy(chars, 0, grown, 0, start);
+			chars = grown;
+		}
+		n.key.getChars(0, n.key.length(), chars, start);
+		starts[n.id + 1] = end;
+
+		for (int i = 0; i + 3 <= n.key.length(); i++)
+			postings(trigrams, n.key.substring(i, i + 3)).addUnique(n.id);
+		postings(byInitials, n.initials).add(n.id);
+	}
+
+	/**
+	 * Renumbers the live names and posts them again.
+	 */
+	private void rebuild() {
+		byId.clear();
+		starts[0] = 0;
+		trigrams.clear();
+		byInitials.clear();
+		for (Name<V> n : names.values())
+			post(n);
+		removed = 0;
+	}
+
+	/**
+	 * @param pattern
+	 *            humps such as <code>gFB</code>, <code>get_b</code> or, with
+	 *            no upper case letter nor underscore, <code>gfb</code> where
+	 *            every letter starts a hump
+	 * @param max
+	 *            the number of names past which the search stops
+	 * @return the values of the names whose first humps start with those of
+	 *         the pattern
+	 */
+	List<V> findByCamelHumps(String pattern, int max) {
+		List<String> segments = splitHumps(pattern);
+		List<V> result = new ArrayList<V>();
+		if (segments.size() < 2)
+			return result;
+
+		StringBuilder initials = new StringBuilder(segments.size());
+		for (String segment : segments)
+			initials.append(segment.charAt(0));
+
+		String from = initials.toString();
+		SortedMap<String, IntList> range = byInitials.subMap(from, from
+				+ Character.MAX_VALUE);
+		for (IntList ids : range.values())
+			for (int i = 0; i < ids.size(); i++) {
+				Name<V> n = byId.get(ids.get(i));
+				if (n != null && n.matchesHumps(segments)) {
+					result.add(n.value);
+					if (result.size() >= max)
+						return result;
+				}
+			}
+		return result;
+	}
+
+	/**
+	 * @param max
+	 *            the number of names past which the search stops
+	 * @return the values of the names that contain a lower cased pattern
+	 */
+	List<V> findBySubstring(String pattern, int max) {
+		List<V> result = new ArrayList<V>();
+		if (pattern.length() < 3) {
+			int count = byId.size();
+			for (int id = 0; id < count && result.size() < max; id++)
+				if (contains(pattern, starts[id], starts[id + 1])) {
+					Name<V> n = byId.get(id);
+					if (n != null)
+						result.add(n.value);
+				}
+			return result;
+		}
+
+		// every candidate has each trigram, so checking those of the
+		// shortest postings is enough
+		IntList shortest = null;
+		for (int i = 0; i + 3 <= pattern.length(); i++) {
+			IntList ids = trigrams.get(pattern.substring(i, i + 3));
+			if (ids == null)
+				return result;
+			if (shortest == null || ids.size() < shortest.size())
+				shortest = ids;
+		}
+
+		for (int i = 0; i < shortest.size() && result.size() < max; i++) {
+			Name<V> n = byId.get(shortest.get(i));
+			if (n != null && n.key.indexOf(pattern) >= 0)
+				result.add(n.value);
+		}
+		return result;
+	}
+
+	/**
+	 * @param max
+	 *            the number of names past which the search stops
+	 * @return the values of the names that contain the characters of a lower
+	 *         cased pattern in order
+	 */
+	List<V> findBySubsequence(String pattern, int max) {
+		List<V> result = new ArrayList<V>();
+		long mask = mask(pattern);
+		int count = byId.size();
+		for (int id = 0; id < count && result.size() < max; id++)
+			if ((masks[id] & mask) == mask
+					&& isSubsequence(pattern, starts[id], starts[id + 1])) {
+				Name<V> n = byId.get(id);
+				if (n != null)
+					result.add(n.value);
+			}
+		return result;
+	}
+
+	int size() {
+		return names.size();
+	}
+
+	private boolean contains(String pattern, int start, int end) {
+		int last = end - pattern.length();
+		for (int i = start; i <= last; i++) {
+			int j = 0;
+			while (j < pattern.length() && chars[i + j] == pattern.charAt(j))
+				j++;
+			if (j == pattern.length())
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isSubsequence(String pattern, int start, int end) {
+		int j = 0;
+		for (int i = start; i < end && j < pattern.length(); i++)
+			if (chars[i] == pattern.charAt(j))
+				j++;
+		return j == pattern.length();
+	}
+
+	/**
+	 * @return one bit for each letter, digit and underscore in a lower cased
+	 *         text
+	 */
+	private static long mask(String text) {
+		long mask = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 'a' && c <= 'z')
+				mask |= 1L << (c - 'a');
+			else if (c >= '0' && c <= '9')
+				mask |= 1L << (26 + c - '0');
+			else if (c == '_')
+				mask |= 1L << 36;
+		}
+		return mask;
+	}
+
+	/**
+	 * Splits a camel hump pattern, the segments lower cased.
+	 */
+	private static List<String> splitHumps(String pattern) {
+		List<String> segments = new ArrayList<String>();
+		boolean explicit = pattern.indexOf('_') >= 0;
+		for (int i = 1; i < pattern.length() && !explicit; i++)
+			explicit = Character.isUpperCase(pattern.charAt(i));
+
+		int start = -1;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '_') {
+				if (start >= 0)
+					segments.add(pattern.substring(start, i).toLowerCase());
+				start = -1;
+			} else if (start < 0) {
+				start = i;
+			} else if (!explicit || Character.isUpperCase(c)) {
+				segments.add(pattern.substring(start, i).toLowerCase());
+				start = i;
+			}
+		}
+		if (start >= 0)
+			segments.add(pattern.substring(start).toLowerCase());
+		return segments;
+	}
+
+	private static <K> IntList postings(Map<K, IntList> map, K key) {
+		IntList ids = map.get(key);
+		if (ids == null) {
+			ids = new IntList();
+			map.put(key, ids);
+		}
+		return ids;
+	}
+
+	/**
+	 * A name and what its searches need.
+	 */
+	private static class Name<V> {
+		final String key;
+
+		int id;
+
+		V value;
+
+		// where each hump starts in the name
+		final int[] humps;
+
+		final String initials;
+
+		Name(String name, String key, V value) {
+			this.key = key;
+			this.value = value;
+
+			int[] starts = new int[name.length()];
+			int count = 0;
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (c == '_')
+					continue;
+				if (i == 0 || name.charAt(i - 1) == '_'
+						|| (Character.isUpperCase(c) && !Character
+								.isUpperCase(name.charAt(i - 1))))
+					starts[count++] = i;
+			}
+			humps = new int[count];
+			System.arraycopy(starts, 0, humps, 0, count);
+
+			StringBuilder s = new StringBuilder(count);
+			for (int start : humps)
+				s.append(key.charAt(start));
+			initials = s.toString();
+		}
+
+		/**
+		 * @return true if each segment starts the hump of the same rank
+		 */
+		boolean matchesHumps(List<String> segments) {
+			if (segments.size() > humps.length)
+				return false;
+			for (int i = 0; i < segments.size(); i++) {
+				String segment = segments.get(i);
+				int end = i + 1 < humps.length ? humps[i + 1] : key.length();
+				if (segment.length() > end - humps[i]
+						|| !key.startsWith(segment, humps[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static class IntList {
+		private int[] values = new int[2];
+
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		void add(int value) {
+			if (size == values.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = value;
+		}
+
+		/**
+		 * Adds a value unless it was the last one added, which is enough to
+		 * keep the trigrams repeated in a name from being posted twice.
+		 */
+		void addUnique(int value) {
+			if (size == 0 || values[size - 1] != value)
+				add(value);
+		}
+
+	}
+}
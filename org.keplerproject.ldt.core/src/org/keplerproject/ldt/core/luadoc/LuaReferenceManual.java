@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.utils.ResourceUtils;
+
+/**
+ * The entries of the Lua Reference Manual, read from
+ * <code>doc/org.lua.www.manual</code> once per session and shared by every
+ * project. The manual holds one <code>name=[====[html]====]</code> block
+ * per function, the name optionally prefixed by its module.
+ *
+ * @version $Id$
+ */
+public final class LuaReferenceManual {
+
+	private static final String OPEN = "=[====[";
+
+	private static final String CLOSE = "]====]";
+
+	private static LuaReferenceManual instance;
+
+	// entries by module (null for the base library) and by name
+	private final Map<String, Map<String, ILuaEntry>> entries;
+
+	private LuaReferenceManual(String manual) {
+		entries = Collections.unmodifiableMap(parse(manual));
+	}
+
+	/**
+	 * @return the manual, parsed and added to the {@link LuaSymbolIndex} on
+	 *         first use
+	 */
+	public static synchronized LuaReferenceManual getDefault() {
+		if (instance == null) {
+			String manual = "";
+			URL u = ResourceUtils.findfile("doc/org.lua.www.manual",
+					"org.keplerproject.ldt.core");
+			if (u != null)
+				try {
+					manual = ResourceUtils.getFileContents(u);
+				} catch (IOException e) {
+				}
+
+			instance = new LuaReferenceManual(manual);
+
+			LuaSymbolIndex index = LuaSymbolIndex.getDefault();
+			for (Map.Entry<String, Map<String, ILuaEntry>> e : instance.entries
+					.entrySet())
+				index.replaceFile(null, e.getKey(), e.getValue());
+		}
+		return instance;
+	}
+
+	/**
+	 * @return the read-only entries by module, null for the base library,
+	 *         and by name
+	 */
+	public Map<String, Map<String, ILuaEntry>> getEntries() {
+		return entries;
+	}
+
+	private static Map<String, Map<String, ILuaEntry>> parse(String manual) {
+		Map<String, Map<String, ILuaEntry>> modules = new HashMap<String, Map<String, ILuaEntry>>();
+		LuadocGenerator gen = LuadocGenerator.getInstance();
+
+		int pos = 0;
+		int open;
+		while ((open = manual.indexOf(OPEN, pos)) >= 0) {
+			int close = manual.indexOf(CLOSE, open + OPEN.length());
+			if (close < 0)
+				break;
+
+			String qualifiedName = manual.substring(pos, open).trim();
+			String html = manual.substring(open + OPEN.length(), close);
+			pos = close + CLOSE.length();
+
+			int dot = qualifiedName.lastIndexOf('.');
+			String moduleName = dot > 0 ? qualifiedName.substring(0, dot)
+					: null;
+			String functionName = qualifiedName.substring(dot + 1);
+			if (functionName.length() == 0)
+				continue;
+
+			Map<String, ILuaEntry> moduleEntries = modules.get(moduleName);
+			if (moduleEntries == null) {
+				moduleEntries = new HashMap<String, ILuaEntry>();
+				modules.put(moduleName, moduleEntries);
+			}
+
+			ILuaEntry entry = gen.createLuaEntry(moduleName, functionName,
+					"function", null, null, null, unescape(html));
+			moduleEntries.put(functionName, entry);
+		}
+
+		for (Map.Entry<String, Map<String, ILuaEntry>> e : modules.entrySet())
+			e.setValue(Collections.unmodifiableMap(e.getValue()));
+
+		return modules;
+	}
+
+	private static String unescape(String html) {
+		StringBuilder result = new StringBuilder(html.length());
+		for (int i = 0; i < html.length(); i++) {
+			char c = html.charAt(i);
+			if (c == '\\' && i + 1 < html.length()) {
+				char next = html.charAt(i + 1);
+				if (next == 'n' || next == 'r' || next == '\\') {
+					result.append(next == 'n' ? '\n' : next == 'r' ? '\r'
+							: '\\');
+					i++;
+					continue;
+				}
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+}
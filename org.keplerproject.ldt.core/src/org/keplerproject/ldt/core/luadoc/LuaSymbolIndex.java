@@ -0,0 +1,698 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.LuaProject;
+
+/**
+ * The luadoc symbols of the workspace, scoped by project and file. Every
+ * symbol is known by its qualified name, <code>module.name</code> or just
+ * <code>name</code> for globals, and by its short name.
+ * <p>
+ * Both names are kept in sorted maps, so exact and prefix lookups cost a
+ * logarithmic search plus the matches. The symbols of a file are replaced
+ * as a whole whenever the file is built again. The Lua Reference Manual
+ * lives in the <code>null</code> scope. Lookups either prefer one scope over
+ * the others or, given the scopes a project sees, look only in those.
+ * <p>
+ * {@link #search(List, String, int, int)} also finds short names by
+ * substring, camel humps or subsequence, through a {@link LuaNameIndex}.
+ * <p>
+ * Only the symbols of the reference manual hold their entries. Those of the
+ * projects find them through their project when asked for, so that the
+ * entries can leave memory, see {@link LuadocCache}. The type and summary
+ * of every symbol stay at hand, enough to propose it without the entry.
+ *
+ * @version $Id$
+ */
+public class LuaSymbolIndex {
+
+	/**
+	 * Matches names that start with the pattern.
+	 */
+	public static final int PREFIX_MATCH = 1;
+
+	/**
+	 * Matches names whose first humps start with those of the pattern, as
+	 * <code>gFB</code> or <code>gfb</code> match <code>getFooBar</code> and
+	 * <code>get_foo_bar</code>.
+	 */
+	public static final int CAMEL_HUMP_MATCH = 2;
+
+	/**
+	 * Matches names that contain the pattern, if it is at least two
+	 * characters long.
+	 */
+	public static final int SUBSTRING_MATCH = 4;
+
+	/**
+	 * Matches names that contain the characters of the pattern in order, if
+	 * it is at least two characters long.
+	 */
+	public static final int FUZZY_MATCH = 8;
+
+	public static final int ALL_MATCHES = PREFIX_MATCH | CAMEL_HUMP_MATCH
+			| SUBSTRING_MATCH | FUZZY_MATCH;
+
+	// how many candidates a search looks at for each symbol it may return;
+	// a pattern matching most names then costs no more than a precise one
+	private static final int CANDIDATES_PER_RESULT = 4;
+
+	private static LuaSymbolIndex instance;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// scope -> file -> the symbols defined there
+	private final Map<String, Map<String, List<Symbol>>> files = new HashMap<String, Map<String, List<Symbol>>>();
+
+	// lower cased qualified name -> symbols
+	private final TreeMap<String, List<Symbol>> byQualifiedName = new TreeMap<String, List<Symbol>>();
+
+	// lower cased short name -> symbols
+	private final TreeMap<String, List<Symbol>> byName = new TreeMap<String, List<Symbol>>();
+
+	// the distinct short names, for the searches of search()
+	private final LuaNameIndex<List<Symbol>> names = new LuaNameIndex<List<Symbol>>();
+
+	private int size;
+
+	public static synchronized LuaSymbolIndex getDefault() {
+		if (instance == null)
+			instance = new LuaSymbolIndex();
+		return instance;
+	}
+
+	/**
+	 * Replaces the symbols of a file.
+	 *
+	 * @param scope
+	 *            the name of the project, null for the reference manual
+	 * @param file
+	 *            the key the entries are stored under in the project
+	 * @param entries
+	 *            the new entries of the file by name, null or empty to
+	 *            remove it; only the names, modules, types and summaries
+	 *            are kept unless the scope is the reference manual
+	 */
+	public void replaceFile(String scope, String file,
+			Map<String, ILuaEntry> entries) {
+		List<Symbol> symbols = new ArrayList<Symbol>();
+		if (entries != null)
+			for (Map.Entry<String, ILuaEntry> e : entries.entrySet())
+				if (e.getKey() != null && e.getValue() != null)
+					symbols.add(new Symbol(scope, file, e.getKey(), e
+							.getValue()));
+
+		lock.writeLock().lock();
+		try {
+			Map<String, List<Symbol>> scopeFiles = files.get(scope);
+			if (scopeFiles == null) {
+				scopeFiles = new HashMap<String, List<Symbol>>();
+				files.put(scope, scopeFiles);
+			}
+
+			List<Symbol> old = scopeFiles.remove(file);
+			if (old != null)
+				unindex(old);
+
+			if (!symbols.isEmpty()) {
+				scopeFiles.put(file, symbols);
+				for (Symbol symbol : symbols) {
+					add(byQualifiedName, symbol.qualifiedName, symbol);
+					names.add(symbol.name, add(byName, symbol.name, symbol));
+				}
+				size += symbols.size();
+			}
+
+			// only now, so that names a file keeps are not indexed again
+			if (old != null)
+				dropNames(old);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void removeFile(String scope, String file) {
+		replaceFile(scope, file, null);
+	}
+
+	/**
+	 * Forgets every symbol of a project.
+	 */
+	public void removeScope(String scope) {
+		lock.writeLock().lock();
+		try {
+			Map<String, List<Symbol>> scopeFiles = files.remove(scope);
+			if (scopeFiles != null)
+				for (List<Symbol> symbols : scopeFiles.values()) {
+					unindex(symbols);
+					dropNames(symbols);
+				}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the entry that best matches a token such as <code>a.b.c</code>
+	 * or <code>a:c</code>. Qualified names are tried first, then the token is
+	 * stripped of its leading parts until something matches.
+	 *
+	 * @param scope
+	 *            the project the token is used in, its symbols win over the
+	 *            others; null if unknown
+	 * @param token
+	 *            the token to look up
+	 * @return the best entry or null if nothing matches
+	 */
+	public ILuaEntry lookup(String scope, String token) {
+		return lookup(scope, null, token);
+	}
+
+	/**
+	 * Finds the entry that best matches a token among the symbols of some
+	 * scopes, see {@link #lookup(String, String)}.
+	 *
+	 * @param scopes
+	 *            the scopes to look in, those listed first win; null to look
+	 *            everywhere
+	 * @param token
+	 *            the token to look up
+	 * @return the best entry or null if nothing matches
+	 */
+	public ILuaEntry lookup(List<String> scopes, String token) {
+		return lookup(null, scopes, token);
+	}
+
+	private ILuaEntry lookup(String scope, List<String> scopes, String token) {
+		// outside the lock, the entry may have to be read from disk
+		Symbol best = lookupSymbol(scope, scopes, token);
+		return best != null ? best.getEntry() : null;
+	}
+
+	/**
+	 * Finds the symbol that best matches a token, as
+	 * {@link #lookup(List, String)} finds its entry, without reading
+	 * anything from disk.
+	 *
+	 * @param scopes
+	 *            the scopes to look in, those listed first win; null to look
+	 *            everywhere
+	 * @param token
+	 *            the token to look up
+	 * @return the best symbol or null if nothing matches
+	 */
+	public Symbol lookupSymbol(List<String> scopes, String token) {
+		return lookupSymbol(null, scopes, token);
+	}
+
+	private Symbol lookupSymbol(String scope, List<String> scopes,
+			String token) {
+		token = token.replace(':', '.');
+
+		Symbol best = null;
+		lock.readLock().lock();
+		try {
+			while (best == null) {
+				String key = token.toLowerCase();
+
+				best = best(scope, scopes, byQualifiedName.get(key), token);
+				if (best == null)
+					best = best(scope, scopes, byName.get(key), token);
+
+				int dot = token.indexOf('.');
+				if (dot < 0 || dot == token.length() - 1)
+					break;
+				token = token.substring(dot + 1);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the symbols whose qualified name, or short name when the prefix
+	 * has no dot, starts with a prefix, ignoring case. Like
+	 * {@link #search(List, String, int, int)}, it stops after a few
+	 * candidates for each symbol it may return.
+	 *
+	 * @param scope
+	 *            the project the prefix is typed in, its symbols come first;
+	 *            null if unknown
+	 * @param prefix
+	 *            the prefix, <code>:</code> counts as <code>.</code>
+	 * @param limit
+	 *            the maximum number of symbols returned
+	 * @return the matching symbols, those of the scope first
+	 */
+	public List<Symbol> findByPrefix(String scope, String prefix, int limit) {
+		return findByPrefix(scope, null, prefix, limit);
+	}
+
+	/**
+	 * Finds the symbols of some scopes that start with a prefix, see
+	 * {@link #findByPrefix(String, String, int)}.
+	 *
+	 * @param scopes
+	 *            the scopes to look in; null to look everywhere
+	 * @param prefix
+	 *            the prefix, <code>:</code> counts as <code>.</code>
+	 * @param limit
+	 *            the maximum number of symbols returned
+	 * @return the matching symbols, in the order of their scopes
+	 */
+	public List<Symbol> findByPrefix(List<String> scopes, String prefix,
+			int limit) {
+		return findByPrefix(null, scopes, prefix, limit);
+	}
+
+	private List<Symbol> findByPrefix(String scope, List<String> scopes,
+			String prefix, int limit) {
+		prefix = prefix.replace(':', '.');
+		String key = prefix.toLowerCase();
+		TreeMap<String, List<Symbol>> map = prefix.indexOf('.') >= 0 ? byQualifiedName
+				: byName;
+
+		// the matches of each rank, at most limit of them
+		List<List<Symbol>> ranked = new ArrayList<List<Symbol>>();
+		int bestRank = scope == null && scopes == null ? 1 : 0;
+		int candidates = limit * CANDIDATES_PER_RESULT;
+
+		lock.readLock().lock();
+		try {
+			SortedMap<String, List<Symbol>> range = key.length() == 0 ? map
+					: map.subMap(key, key + Character.MAX_VALUE);
+
+			for (List<Symbol> symbols : range.values()) {
+				for (Symbol symbol : symbols) {
+					int rank = rank(scope, scopes, symbol);
+					if (rank < 0)
+						continue;
+					candidates--;
+					while (ranked.size() <= rank)
+						ranked.add(new ArrayList<Symbol>());
+					if (ranked.get(rank).size() < limit)
+						ranked.get(rank).add(symbol);
+				}
+				// nothing can beat a full list of the best rank
+				if (ranked.size() > bestRank
+						&& ranked.get(bestRank).size() >= limit
+						|| candidates <= 0)
+					break;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		List<Symbol> result = new ArrayList<Symbol>();
+		for (List<Symbol> symbols : ranked) {
+			result.addAll(symbols);
+			if (result.size() >= limit)
+				return result.subList(0, limit);
+		}
+		return result;
+	}
+
+	/**
+	 * Searches the symbols by short name. The match rules are tried from
+	 * the strictest, prefix, to the loosest, fuzzy, and the symbols matched
+	 * by a stricter rule come first; among those matched by the same rule
+	 * the symbols of the nearest scope come first, then the shortest names.
+	 * All cases are ignored. A rule stops looking after a few candidates for
+	 * each symbol it may return, so a pattern matching thousands of names
+	 * costs no more than a precise one, but may miss their best ones.
+	 *
+	 * @param scopes
+	 *            the scopes to look in, see
+	 *            {@link org.keplerproject.ldt.core.LuaLoadPathResolver}; null
+	 *            to look everywhere
+	 * @param pattern
+	 *            the pattern to match the names with, optionally preceded by
+	 *            a prefix of their module and a dot, as in
+	 *            <code>str.fmt</code>
+	 * @param matchRules
+	 *            the rules to match with, a combination of
+	 *            {@link #PREFIX_MATCH}, {@link #CAMEL_HUMP_MATCH},
+	 *            {@link #SUBSTRING_MATCH} and {@link #FUZZY_MATCH}
+	 * @param limit
+	 *            the maximum number of symbols returned
+	 * @return the matching symbols, best first
+	 */
+	public List<Symbol> search(final List<String> scopes, String pattern,
+			int matchRules, int limit) {
+		pattern = pattern.replace(':', '.');
+		int dot = pattern.lastIndexOf('.');
+		String qualifier = dot >= 0 ? pattern.substring(0, dot).toLowerCase()
+				: null;
+		String name = pattern.substring(dot + 1);
+		if (name.length() == 0)
+			return qualifier != null && (matchRules & PREFIX_MATCH) != 0 ? findByPrefix(
+					scopes, pattern, limit)
+					: new ArrayList<Symbol>();
+		String key = name.toLowerCase();
+
+		Comparator<Symbol> order = new Comparator<Symbol>() {
+			public int compare(Symbol s1, Symbol s2) {
+				int c = rank(null, scopes, s1) - rank(null, scopes, s2);
+				if (c == 0)
+					c = s1.name.length() - s2.name.length();
+				if (c == 0)
+					c = s1.qualifiedName.compareToIgnoreCase(s2.qualifiedName);
+				return c;
+			}
+		};
+
+		List<Symbol> result = new ArrayList<Symbol>();
+		Set<Symbol> found = new HashSet<Symbol>();
+
+		lock.readLock().lock();
+		try {
+			for (int rule = PREFIX_MATCH; rule <= FUZZY_MATCH
+					&& result.size() < limit; rule <<= 1) {
+				if ((matchRules & rule) == 0
+						|| (rule >= SUBSTRING_MATCH && key.length() < 2))
+					continue;
+
+				// the best matches of the rule, the worst at the head
+				int room = limit - result.size();
+				int candidates = room * CANDIDATES_PER_RESULT;
+				PriorityQueue<Symbol> best = new PriorityQueue<Symbol>(room,
+						Collections.reverseOrder(order));
+				for (List<Symbol> symbols : findNames(rule, name, key,
+						candidates)) {
+					for (Symbol symbol : symbols)
+						if (rank(null, scopes, symbol) >= 0
+								&& isInModule(symbol, qualifier)
+								&& !found.contains(symbol)) {
+							candidates--;
+							if (best.size() < room)
+								best.add(symbol);
+							else if (order.compare(symbol, best.peek()) < 0) {
+								best.poll();
+								best.add(symbol);
+							}
+						}
+					if (candidates <= 0)
+						break;
+				}
+
+				List<Symbol> matches = new ArrayList<Symbol>(best);
+				Collections.sort(matches, order);
+				result.addAll(matches);
+				found.addAll(matches);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * @param max
+	 *            the number of names past which the name index stops
+	 *            looking; the prefix map is walked lazily instead
+	 * @return the symbols of each name matched by a rule
+	 */
+	private Collection<List<Symbol>> findNames(int rule, String name,
+			String key, int max) {
+		switch (rule) {
+		case PREFIX_MATCH:
+			return byName.subMap(key, key + Character.MAX_VALUE).values();
+		case CAMEL_HUMP_MATCH:
+			return names.findByCamelHumps(name, max);
+		case SUBSTRING_MATCH:
+			return names.findBySubstring(key, max);
+		default:
+			return names.findBySubsequence(key, max);
+		}
+	}
+
+	/**
+	 * @return true if the qualifier is null or starts the module of the
+	 *         symbol
+	 */
+	private static boolean isInModule(Symbol symbol, String qualifier) {
+		if (qualifier == null)
+			return true;
+		int moduleLength = symbol.qualifiedName.length() - symbol.name.length()
+				- 1;
+		return moduleLength >= qualifier.length()
+				&& symbol.qualifiedName.regionMatches(true, 0, qualifier, 0,
+						qualifier.length());
+	}
+
+	/**
+	 * @return the number of symbols indexed
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Picks among same-named symbols: an exact case match in the best ranked
+	 * scope, then any symbol of that scope, and so on.
+	 */
+	private static Symbol best(String scope, List<String> scopes,
+			List<Symbol> candidates, String token) {
+		if (candidates == null || candidates.isEmpty())
+			return null;
+
+		Symbol best = null;
+		int bestRank = Integer.MAX_VALUE;
+		for (Symbol symbol : candidates) {
+			int rank = rank(scope, scopes, symbol);
+			if (rank < 0)
+				continue;
+			rank *= 2;
+			if (!token.equals(symbol.qualifiedName)
+					&& !token.equals(symbol.name))
+				rank++;
+
+			if (rank < bestRank) {
+				best = symbol;
+				bestRank = rank;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Ranks the scope of a symbol, lower is better. With a list of scopes it
+	 * is the position of the symbol's scope in the list, -1 if it is not
+	 * there. Otherwise the given scope comes first, then the reference manual,
+	 * then the rest.
+	 */
+	private static int rank(String scope, List<String> scopes, Symbol symbol) {
+		if (scopes != null)
+			return scopes.indexOf(symbol.scope);
+		if (scope != null && scope.equals(symbol.scope))
+			return 0;
+		return symbol.scope == null ? 1 : 2;
+	}
+
+	/**
+	 * Forgets the short names no symbol has anymore.
+	 */
+	private void dropNames(List<Symbol> symbols) {
+		for (Symbol symbol : symbols) {
+			String key = symbol.name.toLowerCase();
+			if (!byName.containsKey(key))
+				names.remove(key);
+		}
+	}
+
+	private void unindex(List<Symbol> symbols) {
+		for (Symbol symbol : symbols) {
+			remove(byQualifiedName, symbol.qualifiedName, symbol);
+			remove(byName, symbol.name, symbol);
+		}
+		size -= symbols.size();
+	}
+
+	/**
+	 * @return the symbols now known by the name
+	 */
+	private static List<Symbol> add(TreeMap<String, List<Symbol>> map,
+			String name, Symbol symbol) {
+		String key = name.toLowerCase();
+		List<Symbol> symbols = map.get(key);
+		if (symbols == null) {
+			// most names are defined once
+			symbols = new ArrayList<Symbol>(1);
+			map.put(key, symbols);
+		}
+		symbols.add(symbol);
+		return symbols;
+	}
+
+	private static void remove(TreeMap<String, List<Symbol>> map, String name,
+			Symbol symbol) {
+		String key = name.toLowerCase();
+		List<Symbol> symbols = map.get(key);
+		if (symbols != null) {
+			symbols.remove(symbol);
+			if (symbols.isEmpty())
+				map.remove(key);
+		}
+	}
+
+	/**
+	 * A luadoc entry and where it comes from.
+	 */
+	public static class Symbol {
+		final String scope;
+
+		final String file;
+
+		final String module;
+
+		final String name;
+
+		final String qualifiedName;
+
+		final String entryType;
+
+		final String summary;
+
+		// only kept for the reference manual
+		final ILuaEntry entry;
+
+		Symbol(String scope, String file, String name, ILuaEntry entry) {
+			LuadocEntry luadoc = entry instanceof LuadocEntry ? (LuadocEntry) entry
+					: null;
+
+			this.scope = scope;
+			this.file = file;
+			this.module = entry.getModule();
+			this.name = name;
+			this.entryType = luadoc != null ? luadoc.getEntryType() : null;
+			this.summary = luadoc != null ? luadoc.getSummary() : null;
+			this.entry = scope == null ? entry : null;
+
+			// entries of files without a module carry the file as module
+			this.qualifiedName = isModuleName(module) && !module.equals(file) ? module
+					+ "." + name
+					: name;
+		}
+
+		private static boolean isModuleName(String module) {
+			return module != null && module.length() > 0
+					&& module.indexOf('/') < 0 && module.indexOf('\\') < 0;
+		}
+
+		/**
+		 * @return the project name, null for the reference manual
+		 */
+		public String getScope() {
+			return scope;
+		}
+
+		public String getFile() {
+			return file;
+		}
+
+		public String getModule() {
+			return module;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getQualifiedName() {
+			return qualifiedName;
+		}
+
+		/**
+		 * @return the luadoc type of the entry, as <code>function</code>;
+		 *         null if unknown
+		 */
+		public String getEntryType() {
+			return entryType;
+		}
+
+		/**
+		 * @return the summary of the entry, null if it has none
+		 */
+		public String getSummary() {
+			return summary;
+		}
+
+		/**
+		 * @return the entry of the symbol, read back from the index of its
+		 *         project if it left memory; null if it is gone
+		 */
+		public ILuaEntry getEntry() {
+			if (entry != null || scope == null)
+				return entry;
+
+			return getProject().getLuaEntries(file).get(name);
+		}
+
+		/**
+		 * Returns the entry of the symbol if that can be done without
+		 * waiting, see {@link LuaProject#peekLuaEntries(String)}.
+		 *
+		 * @return the entry of the symbol, or null if it is gone or not at
+		 *         hand
+		 */
+		public ILuaEntry peekEntry() {
+			if (entry != null || scope == null)
+				return entry;
+
+			Map<String, ILuaEntry> entries = getProject().peekLuaEntries(file);
+			return entries != null ? entries.get(name) : null;
+		}
+
+		private LuaProject getProject() {
+			IProject project = ResourcesPlugin.getWorkspace().getRoot()
+					.getProject(scope);
+			return LuaProject.getLuaProject(project);
+		}
+	}
+}
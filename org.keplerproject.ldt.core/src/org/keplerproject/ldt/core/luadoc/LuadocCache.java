@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * The luadoc entries of the projects that were used lately, by file or
+ * module. Only the {@link LuaSymbolIndex} and the locations of the groups in
+ * the index files stay in memory for good; the entries themselves are kept
+ * here within a memory budget, the least recently used groups being dropped
+ * first, and are read again from the index file when needed.
+ * <p>
+ * Sizes are estimates, see {@link LuadocEntry}. The group used last always
+ * stays, even when it is larger than the budget alone. The entries of the
+ * Lua Reference Manual are not kept here, they never leave memory.
+ *
+ * @version $Id$
+ */
+public class LuadocCache {
+
+	/**
+	 * The budget when none is set, in bytes.
+	 */
+	public static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+
+	// estimated size of an entry that is not a LuadocEntry
+	private static final int ENTRY_FOOTPRINT = 64;
+
+	private static LuadocCache instance;
+
+	// the groups, least recently used first
+	private final LinkedHashMap<Key, Group> groups = new LinkedHashMap<Key, Group>(
+			16, 0.75f, true);
+
+	private long budget = DEFAULT_BUDGET;
+
+	private long size;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	public static synchronized LuadocCache getDefault() {
+		if (instance == null)
+			instance = new LuadocCache();
+		return instance;
+	}
+
+	/**
+	 * @param scope
+	 *            the project the group belongs to
+	 * @param key
+	 *            the file or module the entries are stored under
+	 * @return the read-only entries of the group, or null if they have to be
+	 *         read again; either way counts for the hit rate
+	 */
+	public synchronized Map<String, ILuaEntry> get(String scope, String key) {
+		Group group = groups.get(new Key(scope, key));
+		if (group == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return group.entries;
+	}
+
+	/**
+	 * Keeps the entries of a group, replacing any kept before, and drops
+	 * the least recently used groups if this goes over the budget.
+	 *
+	 * @param entries
+	 *            the read-only entries by name, null or empty to forget the
+	 *            group
+	 */
+	public synchronized void put(String scope, String key,
+			Map<String, ILuaEntry> entries) {
+		Key k = new Key(scope, key);
+		Group old = groups.remove(k);
+		if (old != null)
+			size -= old.footprint;
+
+		if (entries == null || entries.isEmpty())
+			return;
+
+		Group group = new Group(entries);
+		groups.put(k, group);
+		size += group.footprint;
+		evict();
+	}
+
+	/**
+	 * @param budget
+	 *            how many bytes the entries may take, roughly
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the estimated size of the entries kept, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of groups kept
+	 */
+	public synchronized int getGroupCount() {
+		return groups.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of groups dropped to stay within the budget
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the share of lookups that found their group, from 0 to 1; 1 if
+	 *         nothing was looked up yet
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 1 : (double) hits / lookups;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private void evict() {
+		Iterator<Group> it = groups.values().iterator();
+		while (size > budget && groups.size() > 1) {
+			size -= it.next().footprint;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static int getFootprint(Map<String, ILuaEntry> entries) {
+		int footprint = 0;
+		for (ILuaEntry entry : entries.values())
+			footprint += entry instanceof LuadocEntry ? ((LuadocEntry) entry)
+					.getFootprint() : ENTRY_FOOTPRINT;
+		return footprint;
+	}
+
+	/**
+	 * A project and a file or module.
+	 */
+	private static class Key {
+		final String scope;
+
+		final String key;
+
+		Key(String scope, String key) {
+			this.scope = scope;
+			this.key = key;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return key.equals(other.key)
+					&& (scope == null ? other.scope == null : scope
+							.equals(other.scope));
+		}
+
+		public int hashCode() {
+			return key.hashCode() * 31
+					+ (scope != null ? scope.hashCode() : 0);
+		}
+	}
+
+	private static class Group {
+		final Map<String, ILuaEntry> entries;
+
+		final int footprint;
+
+		Group(Map<String, ILuaEntry> entries) {
+			this.entries = entries;
+			this.footprint = getFootprint(entries);
+		}
+	}
+}
@@ -23,15 +23,28 @@
 
 package org.keplerproject.ldt.core.luadoc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.keplerproject.ldt.core.ILuaEntry;
 
 /**
  * A Lua syntax element for using with Luadoc.
+ * <p>
+ * Entries are kept for every documented function of the workspace, so they
+ * are stored compactly: module and type names are interned, and the HTML is
+ * kept as UTF-8, deflated when it is long. The decoded HTML is cached until
+ * memory runs short.
  * 
  * @author jasonsantos
  * @since 1.2
@@ -40,21 +53,36 @@ import org.keplerproject.ldt.core.ILuaEntry;
 
 public class LuadocEntry implements ILuaEntry, Serializable {
 
+	private static final long serialVersionUID = 3L;
+
+	// shorter HTML is not worth deflating
+	private static final int COMPRESSION_THRESHOLD = 256;
+
+	private static final String ENCODING = "UTF-8";
+
 	String module;
 	String name;
 	String entryType;
 	String summary;
 	String description;
-	List<String> htmlLines;
-	List<String> commentLines;
+	String comment;
 	Map<String, String> params;
 
+	// the comment and HTML keep a line delimiter after every line, as the
+	// lines were given
+
+	// the HTML as UTF-8, deflated if htmlLength is not -1
+	private byte[] html;
+	private int htmlLength = -1;
+
+	private transient SoftReference<String> htmlCache;
+
 	public List<String> getHtmlLines() {
-		return htmlLines;
+		return html != null ? splitLines(getHtml()) : null;
 	}
 
 	public List<String> getCommentLines() {
-		return commentLines;
+		return comment != null ? splitLines(comment) : null;
 	}
 
 	public String getDescription() {
@@ -78,11 +106,12 @@ public class LuadocEntry implements ILuaEntry, Serializable {
 	}
 
 	public void setHtmlLines(List<String> htmlLines) {
-		this.htmlLines = htmlLines;
+		storeHtml(htmlLines != null ? getAsString(htmlLines) : null);
 	}
 
 	public void setCommentLines(List<String> commentLines) {
-		this.commentLines = commentLines;
+		this.comment = commentLines != null ? getAsString(commentLines)
+				: null;
 	}
 
 	public void setDescription(String description) {
@@ -90,7 +119,7 @@ public class LuadocEntry implements ILuaEntry, Serializable {
 	}
 
 	public void setEntryType(String entryType) {
-		this.entryType = entryType;
+		this.entryType = entryType != null ? entryType.intern() : null;
 	}
 
 	public void setName(String name) {
@@ -110,46 +139,180 @@ public class LuadocEntry implements ILuaEntry, Serializable {
 	}
 
 	public void setModule(String module) {
-		this.module = module;
+		this.module = module != null ? module.intern() : null;
 	}
 
+	/**
+	 * Sets the comment from its text, split into lines. A null text leaves
+	 * the comment as it is.
+	 */
 	public void setComment(String comment) {
-		if(comment!=null) 
-			this.commentLines = Arrays.asList(comment.split("\n"));
+		if (comment != null)
+			setCommentLines(Arrays.asList(comment.split("\n")));
 	}
 
+	/**
+	 * Sets the HTML from its text, split into lines. A null text leaves the
+	 * HTML as it is.
+	 */
 	public void setHTML(String string) {
-		if(string!=null) 
-			this.htmlLines = Arrays.asList(string.split("\n"));
+		if (string != null)
+			setHtmlLines(Arrays.asList(string.split("\n")));
+	}
+
+	/**
+	 * @return the comment as {@link #getComment()} returns it, or null if
+	 *         there is none
+	 */
+	String getStoredComment() {
+		return comment;
+	}
+
+	/**
+	 * @return the HTML as {@link #getHtml()} returns it, or null if there is
+	 *         none
+	 */
+	String getStoredHtml() {
+		return html != null ? getHtml() : null;
+	}
+
+	/**
+	 * Sets back the comment and HTML returned by {@link #getStoredComment()}
+	 * and {@link #getStoredHtml()}, without splitting them again.
+	 */
+	void setStored(String comment, String html) {
+		this.comment = comment;
+		storeHtml(html);
+	}
+
+	private void storeHtml(String string) {
+		htmlCache = null;
+		htmlLength = -1;
+		html = null;
+		if (string == null)
+			return;
+
+		byte[] bytes = encode(string);
+		if (bytes.length >= COMPRESSION_THRESHOLD) {
+			byte[] deflated = deflate(bytes);
+			if (deflated.length < bytes.length) {
+				html = deflated;
+				htmlLength = bytes.length;
+				return;
+			}
+		}
+		html = bytes;
 	}
 
+	/**
+	 * @return the comment lines, each followed by a line delimiter
+	 */
 	public String getComment() {
-		List<String> l = commentLines;
-		return getAsString(l, "\n");
+		return comment != null ? comment : "";
 	}
 
+	/**
+	 * @return the HTML lines, each followed by a line delimiter; decoded once
+	 *         and then cached
+	 */
 	public String getHtml() {
-		List<String> l = this.htmlLines;
-		return getAsString(l, "\n");
+		if (html == null)
+			return "";
+
+		SoftReference<String> cache = htmlCache;
+		String result = cache != null ? cache.get() : null;
+		if (result == null) {
+			result = decode(htmlLength != -1 ? inflate(html, htmlLength)
+					: html);
+			htmlCache = new SoftReference<String>(result);
+		}
+		return result;
 	}
 
 	/**
-	 * Return a string concatenating list of strings with a delimiter
-	 * 
-	 * @param l
-	 *            the list of strings
-	 * @param delimiter
-	 *            the string to be inserted after each line
-	 * @return a string containing all entries concatenated with delimiter
+	 * @return roughly how many bytes the entry takes, its decoded HTML aside
 	 */
-	private String getAsString(List<String> l, String delimiter) {
-		StringBuilder result = new StringBuilder();
+	int getFootprint() {
+		return 64 + 2 * (length(name) + length(summary) + length(description)
+				+ length(comment)) + (html != null ? html.length : 0);
+	}
 
-		if (l != null)
-			for (String s : l)
-				result.append(s + delimiter);
+	private static int length(String s) {
+		return s != null ? s.length() : 0;
+	}
 
+	/**
+	 * @return the lines concatenated, each followed by a line delimiter
+	 */
+	private static String getAsString(List<String> lines) {
+		StringBuilder result = new StringBuilder();
+		for (String line : lines)
+			result.append(line).append('\n');
 		return result.toString();
 	}
 
+	/**
+	 * @return the lines of a string built by {@link #getAsString(List)}
+	 */
+	private static List<String> splitLines(String s) {
+		String[] lines = s.split("\n", -1);
+		// the delimiter after the last line leaves an empty string
+		return Arrays.asList(lines).subList(0, lines.length - 1);
+	}
+
+	private static byte[] encode(String s) {
+		try {
+			return s.getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(byte[] bytes) {
+		try {
+			return new String(bytes, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					bytes.length / 2);
+			byte[] buffer = new byte[1024];
+			while (!deflater.finished())
+				out.write(buffer, 0, deflater.deflate(buffer));
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] bytes, int length) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			byte[] result = new byte[length];
+			int read = 0;
+			while (read < length && !inflater.finished())
+				read += inflater.inflate(result, read, length - read);
+			return result;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		setModule(module);
+		setEntryType(entryType);
+	}
 }
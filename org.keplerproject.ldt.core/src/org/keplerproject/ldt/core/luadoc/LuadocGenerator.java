@@ -18,11 +18,20 @@
 
 package org.keplerproject.ldt.core.luadoc;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import org.keplerproject.ldt.core.ILuaEntry;
+import org.keplerproject.ldt.core.LuaCorePlugin;
+import org.keplerproject.ldt.core.LuaLoadPathResolver;
 import org.keplerproject.ldt.core.lua.modules.LuaModuleLoader;
+import org.keplerproject.ldt.core.utils.ResourceUtils;
 import org.keplerproject.luajava.JavaFunction;
 import org.keplerproject.luajava.LuaException;
 import org.keplerproject.luajava.LuaObject;
@@ -39,157 +48,220 @@ import org.keplerproject.luajava.luafilesystem.JLuaFileSystem;
 
 public class LuadocGenerator {
 	private static LuadocGenerator		singleton;
-	protected Map<String, ILuaEntry>	luaEntryIndex;
+
+	// luadoc states kept loaded between runs
+	private static final int MAX_LUADOC_STATES = 2;
+
+	private final LinkedList<LuadocState> luadocStates = new LinkedList<LuadocState>();
+
+	private int liveLuadocStates;
+
+	// bumped by dispose(), states of older generations are closed when
+	// returned
+	private int generation;
 
 	public LuadocGenerator() {
 		super();
-		luaEntryIndex = new HashMap<String, ILuaEntry>();
 	}
 
-	public static LuadocGenerator getInstance() {
+	public static synchronized LuadocGenerator getInstance() {
 		if (singleton == null)
 			singleton = new LuadocGenerator();
 		return singleton;
 	}
 
-	// register the java functions to create the entries
+	/**
+	 * Generates the entries of a Lua file with {@link LuadocParser}.
+	 * 
+	 * @param fileName
+	 *            the path of the file
+	 * @return the entries indexed by name, or null if the file could not be
+	 *         read
+	 */
 	public Map<String, ILuaEntry> generate(String fileName) {
-		final Map<String, ILuaEntry> m = new HashMap<String, ILuaEntry>();
-
 		try {
-			LuaState L = loadLuadocLuaState(m);
-
-			final String CR = "\n";
-
-			String sfile = fileName.replaceAll("\\\\", "\\\\\\\\");
-			// System.out.println(sfile);
-
-			String code = "" + "require 'luadoc' " + CR + "" + CR
-					+ "local files = {'" + sfile + "'}" + CR
-					+ "local options = require 'luadoc.config'" + CR + "" + CR
-					+ "options.doclet = 'eclipse.doclet' " + CR + "" + CR
-					+ "luadoc.main(files, options)";
-
-			// L.LdoString("debug.sethook(function(...) __fdebug =
-			// io.open([[C:\\Documents and
-			// Settings\\jasonsantos\\Desktop\\out.log]], 'a')
-			// table.foreach(debug.getinfo(2), function(n, o) __fdebug:write(n,
-			// tostring(o) .. '\\n') end ) __fdebug:close() end,'cr')");
+			return generate(fileName, ResourceUtils.getFileContents(new File(
+					fileName).toURI().toURL()));
+		} catch (IOException e) {
+			return null;
+		}
+	}
 
-			int result = L.LloadString(code);
+	/**
+	 * Generates the entries of Lua source with {@link LuadocParser}.
+	 * 
+	 * @param fileName
+	 *            the path of the file the source comes from
+	 * @param source
+	 *            the contents of the file
+	 * @return the entries indexed by name
+	 */
+	public Map<String, ILuaEntry> generate(String fileName, CharSequence source) {
+		return new LuadocParser().parse(fileName, source);
+	}
 
-			if (result != 0) {
+	/**
+	 * Generates the entries of a Lua file by running luadoc and the eclipse
+	 * doclet. {@link #generate(String)} gives the same entries without
+	 * running Lua at all.
+	 * 
+	 * @param fileName
+	 *            the path of the file
+	 * @return the entries indexed by name, or null if luadoc could not be
+	 *         loaded
+	 */
+	public Map<String, ILuaEntry> generateWithLuadoc(String fileName) {
+		Map<String, Map<String, ILuaEntry>> entries = generateWithLuadoc(Collections
+				.singletonList(fileName));
+		return entries != null ? entries.get(fileName) : null;
+	}
 
-				String s = L.toString(-1);
-				// System.out.println(s);
-			}
+	/**
+	 * Generates the entries of several Lua files in a single luadoc run. If
+	 * the run fails the files are run again one by one, so one bad file does
+	 * not lose the entries of the others.
+	 * 
+	 * @param fileNames
+	 *            the paths of the files
+	 * @return the entries by file, then by name, or null if luadoc could not
+	 *         be loaded
+	 */
+	public Map<String, Map<String, ILuaEntry>> generateWithLuadoc(
+			Collection<String> fileNames) {
+		LuadocState state = borrowLuadocState();
+		if (state == null)
+			return null;
 
-			result = L.pcall(0, 0, 0);
+		try {
+			Map<String, Map<String, ILuaEntry>> entries = new HashMap<String, Map<String, ILuaEntry>>();
 
-			if (result != 0) {
-				String s = L.toString(-1);
-				// System.out.println(s);
+			if (!state.run(fileNames, entries) && fileNames.size() > 1) {
+				entries.clear();
+				for (String fileName : fileNames)
+					state.run(Collections.singletonList(fileName), entries);
 			}
 
-			L.close();
-
-			return m;
+			for (String fileName : fileNames)
+				if (!entries.containsKey(fileName))
+					entries.put(fileName, new HashMap<String, ILuaEntry>());
 
-		} catch (LuaException e) {
+			return entries;
+		} finally {
+			releaseLuadocState(state);
 		}
-
-		// collect the documentation blocks, indexed by name
-		// load the documentation blocks into the resulting map
-		return null;
 	}
 
-	public LuaState loadLuadocLuaState(final Map<String, ILuaEntry> m)
-			throws LuaException {
-		LuaState L = null;
-		try {
-			L = LuaStateFactory.newLuaState();
-
-			L.openLibs();
-
-			JLuaFileSystem.register(L);
-			LuaModuleLoader.register(L);
-
-			L.pushJavaFunction(new JavaFunction(L) {
-
-				@Override
-				public int execute() throws LuaException {
-					// String t = getParam(1).toString();
-					LuaObject fileOrModuleName = getParam(2);
-
-					LuaObject entryName = getParam(3);
-					LuaObject entryType = getParam(4);
+	/**
+	 * Takes an idle luadoc state, creating one if the pool is not full.
+	 * 
+	 * @return a ready state or null if none could be created
+	 */
+	private LuadocState borrowLuadocState() {
+		int stateGeneration;
+		synchronized (luadocStates) {
+			while (luadocStates.isEmpty() && liveLuadocStates >= MAX_LUADOC_STATES)
+				try {
+					luadocStates.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
 
-					LuaObject entrySummary = getParam(5);
-					LuaObject entryDescription = getParam(6);
-					LuaObject entryComment = getParam(7);
-					LuaObject entryHTML = getParam(8);
+			if (!luadocStates.isEmpty())
+				return luadocStates.removeFirst();
 
-					LuadocEntry e = (LuadocEntry) createLuaEntry(
-							fileOrModuleName.toString(), entryName.toString(),
-							entryType.toString(), entrySummary.toString(),
-							entryDescription.toString(), entryComment
-									.toString(), entryHTML.toString());
+			liveLuadocStates++;
+			stateGeneration = generation;
+		}
 
-					m.put(entryName.toString(), e);
-					return 0;
-				}
+		// loading luadoc takes a while, do it outside the lock
+		LuadocState state = null;
+		try {
+			state = new LuadocState(stateGeneration);
+		} catch (LuaException e) {
+			LuaCorePlugin.log("Could not load luadoc", e);
+		}
 
-			});
+		if (state == null)
+			synchronized (luadocStates) {
+				liveLuadocStates--;
+				luadocStates.notifyAll();
+			}
+		return state;
+	}
 
-			L.setGlobal("addDocumentationEntry");
-		} catch (Exception e) {
-			System.out.println("Could not initialize LuaState:"
-					+ e.getMessage());
+	private void releaseLuadocState(LuadocState state) {
+		synchronized (luadocStates) {
+			// borrowed before dispose(), it would never be closed
+			if (!state.L.isClosed() && state.generation != generation)
+				state.L.close();
+
+			if (state.L.isClosed()) {
+				liveLuadocStates--;
+			} else {
+				state.L.setTop(0);
+				luadocStates.addLast(state);
+			}
+			luadocStates.notifyAll();
 		}
-		return L;
 	}
 
-	public Map<String, ILuaEntry> getLuaEntryIndex() {
-		return luaEntryIndex;
+	/**
+	 * Closes the idle luadoc states, and the busy ones once they are
+	 * returned.
+	 */
+	public void dispose() {
+		synchronized (luadocStates) {
+			generation++;
+			for (LuadocState state : luadocStates)
+				state.L.close();
+			liveLuadocStates -= luadocStates.size();
+			luadocStates.clear();
+		}
 	}
 
+	/**
+	 * @return the entry that best matches a token, see
+	 *         {@link LuaSymbolIndex#lookup(String, String)}
+	 */
 	public ILuaEntry getBestEntryIndex(String token) {
-		Map<String, ILuaEntry> index = getLuaEntryIndex();
-		ILuaEntry entry;
-		token = token.replaceAll("[:]", ".");
-		while ((entry = index.get(token)) == null && token.indexOf('.') > 1)
-			token = token.substring(token.indexOf('.') + 1);
-
-		return entry;
-	}
-
-	public void generateIndexes(Map<String, ILuaEntry> generatedEntries) {
-		LuadocGenerator lg = LuadocGenerator.getInstance();
-		for (String s : generatedEntries.keySet()) {
-			// store every entry into the generator's flat index
-			// --- "by my hand ish ill done"
-
-			// TODO: create a way of navigating module dependencies to determine
-			// priority for selecting symbols
-
-			lg.getLuaEntryIndex().put(s, generatedEntries.get(s));
-		}
+		return LuaSymbolIndex.getDefault().lookup((String) null, token);
 	}
 
 	public String getDocumentationText(String token) {
-		LuadocEntry l = (LuadocEntry) getBestEntryIndex(token);
-		String doc = null;
-		if (l != null) {
-
-			doc = l.getHtml();
-
-			// TODO: enhance the non-summary value with module information
-			if (doc == null || doc.length() == 0)
-				doc = l.getComment();
+		return getDocumentationText(null, token);
+	}
 
-			if (doc == null || doc.length() == 0)
-				doc = l.getName();
-		}
+	/**
+	 * @param project
+	 *            the name of the project the token is used in, only its
+	 *            entries, those of the projects on its load path and the
+	 *            reference manual are looked at; null to look everywhere
+	 * @param token
+	 * @return the documentation of the best matching entry or null; only its
+	 *         summary or name while its entry cannot be read without waiting
+	 */
+	public String getDocumentationText(String project, String token) {
+		List<String> scopes = LuaLoadPathResolver.getDefault()
+				.getVisibleScopes(project);
+		LuaSymbolIndex.Symbol symbol = LuaSymbolIndex.getDefault()
+				.lookupSymbol(scopes, token);
+		if (symbol == null)
+			return null;
+
+		LuadocEntry l = (LuadocEntry) symbol.peekEntry();
+		if (l == null)
+			return symbol.getSummary() != null ? symbol.getSummary() : symbol
+					.getName();
+
+		String doc = l.getHtml();
+
+		// TODO: enhance the non-summary value with module information
+		if (doc == null || doc.length() == 0)
+			doc = l.getComment();
+
+		if (doc == null || doc.length() == 0)
+			doc = l.getName();
 		return doc;
 	}
 
@@ -217,4 +289,105 @@ public class LuadocGenerator {
 		e.setHTML(entryHTML);
 		return e;
 	}
+
+	/**
+	 * A LuaState with luadoc, its configuration, the standard taglet and the
+	 * eclipse doclet already loaded. Each run only parses the given files;
+	 * the doclet resets its own output when it starts.
+	 */
+	private class LuadocState {
+		final LuaState L;
+
+		// the generation of the generator it was created in
+		final int generation;
+
+		// where the entries of the current run go, by file
+		Map<String, Map<String, ILuaEntry>> output;
+
+		LuadocState(int generation) throws LuaException {
+			this.generation = generation;
+			L = LuaStateFactory.newLuaState();
+			try {
+				L.openLibs();
+
+				JLuaFileSystem.register(L);
+				LuaModuleLoader.register(L);
+
+				L.pushJavaFunction(new JavaFunction(L) {
+
+					@Override
+					public int execute() throws LuaException {
+						LuaObject fileOrModuleName = getParam(2);
+
+						LuaObject entryName = getParam(3);
+						LuaObject entryType = getParam(4);
+
+						LuaObject entrySummary = getParam(5);
+						LuaObject entryDescription = getParam(6);
+						LuaObject entryComment = getParam(7);
+						LuaObject entryHTML = getParam(8);
+
+						// the file the entry comes from, the module name
+						// stands in for it with older doclets
+						LuaObject fileName = getParam(9);
+						String file = fileName.isNil() ? fileOrModuleName
+								.toString() : fileName.toString();
+
+						LuadocEntry e = (LuadocEntry) createLuaEntry(
+								fileOrModuleName.toString(), entryName
+										.toString(), entryType.toString(),
+								entrySummary.toString(), entryDescription
+										.toString(), entryComment.toString(),
+								entryHTML.toString());
+
+						Map<String, ILuaEntry> m = output.get(file);
+						if (m == null) {
+							m = new HashMap<String, ILuaEntry>();
+							output.put(file, m);
+						}
+						m.put(entryName.toString(), e);
+						return 0;
+					}
+
+				});
+
+				L.setGlobal("addDocumentationEntry");
+
+				final String CR = "\n";
+				int result = L.LdoString("require 'luadoc'" + CR
+						+ "local options = require 'luadoc.config'" + CR
+						+ "options.doclet = 'eclipse.doclet'" + CR
+						+ "require(options.taglet)" + CR
+						+ "require(options.doclet)" + CR
+						+ "function runLuadoc(...)" + CR
+						+ "	luadoc.main({...}, options)" + CR + "end");
+				if (result != 0)
+					throw new LuaException(L.toString(-1));
+				L.setTop(0);
+			} catch (LuaException e) {
+				L.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Runs luadoc over files.
+		 * 
+		 * @return true if luadoc went through every file
+		 */
+		boolean run(Collection<String> fileNames,
+				Map<String, Map<String, ILuaEntry>> entries) {
+			output = entries;
+			try {
+				L.setTop(0);
+				L.getGlobal("runLuadoc");
+				for (String fileName : fileNames)
+					L.pushString(fileName);
+				return L.pcall(fileNames.size(), 0, 0) == 0;
+			} finally {
+				L.setTop(0);
+				output = null;
+			}
+		}
+	}
 }
@@ -0,0 +1,639 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * The luadoc entries of a project stored as a binary file. The layout is:
+ *
+ * <pre>
+ * int    MAGIC, int VERSION
+ * int    group count, then for each group its length and its block:
+ *        int    entry count
+ *        int    string count, then one int offset per string plus the end
+ *               offset
+ *        int    key, then for each entry:
+ *               int name, module, type, summary, description, comment, html
+ *        byte[] the strings, UTF-8 encoded, at the offsets above
+ * </pre>
+ *
+ * Groups are the keys of {@link org.keplerproject.ldt.core.LuaProject}
+ * entries, either a file or a module. Strings are referenced by their index
+ * in the string table of their group, -1 standing for null, and each
+ * distinct string is stored once per group. A group thus takes a single
+ * read.
+ * <p>
+ * Reading the file only decodes the directory and the short strings used
+ * for lookups. The text of each entry is decoded the first time it is asked
+ * for.
+ * <p>
+ * Changes made after the file was written can be appended to a journal,
+ * one record per flush, each record being an index of the changed groups
+ * only, preceded by its length. An empty group in a record stands for a
+ * group that was removed.
+ * <p>
+ * Reading or writing can also give the {@link Location} of each group, from
+ * which {@link #readGroup(Location)} reads that group alone, so that groups
+ * need not stay in memory once read.
+ *
+ * @version $Id$
+ */
+public class LuadocIndexFile {
+
+	private static final int MAGIC = 0x4C444F43; // "LDOC"
+
+	private static final int VERSION = 3;
+
+	private static final String ENCODING = "UTF-8";
+
+	// the string ids of an entry: name, module, type, summary, description,
+	// comment and html
+	private static final int ENTRY_SIZE = 7 * 4;
+
+	private final byte[] data;
+
+	private final int[] offsets;
+
+	private final int stringsStart;
+
+	private LuadocIndexFile(byte[] data, int[] offsets, int stringsStart) {
+		this.data = data;
+		this.offsets = offsets;
+		this.stringsStart = stringsStart;
+	}
+
+	/**
+	 * Reads an index file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the entries by group and by name, or null if the file does not
+	 *         exist or is not a valid index of this version
+	 */
+	public static Map<String, Map<String, ILuaEntry>> read(File file) {
+		if (!file.isFile())
+			return null;
+
+		try {
+			return decode(readFile(file), null, 0, null);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads an index file and replays its journal on it. A journal whose
+	 * last record was torn, by a crash while appending, is cut after the
+	 * last complete record so that the next records can be read.
+	 *
+	 * @param file
+	 *            the index file to read
+	 * @param journal
+	 *            the journal of the index
+	 * @param locations
+	 *            filled with the location of each group read
+	 * @return the entries by group and by name, or null if the index file
+	 *         does not exist or is not a valid index of this version, or if
+	 *         the journal could not be read or repaired
+	 */
+	public static Map<String, Map<String, ILuaEntry>> load(File file,
+			File journal, Map<String, Location> locations) {
+		if (!file.isFile())
+			return null;
+
+		Map<String, Map<String, ILuaEntry>> groups;
+		try {
+			groups = decode(readFile(file), file, 0, locations);
+			if (groups == null)
+				return null;
+		} catch (IOException e) {
+			return null;
+		}
+
+		if (!journal.isFile())
+			return groups;
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(readFile(journal));
+			// the end of the last complete record
+			int good = 0;
+			while (buffer.remaining() >= 4) {
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining())
+					break;
+
+				long base = buffer.position();
+				byte[] record = new byte[length];
+				buffer.get(record);
+				Map<String, Location> changedLocations = new HashMap<String, Location>();
+				Map<String, Map<String, ILuaEntry>> changes = decode(record,
+						journal, base, changedLocations);
+				if (changes == null)
+					break;
+
+				for (Map.Entry<String, Map<String, ILuaEntry>> e : changes
+						.entrySet())
+					if (e.getValue() == null || e.getValue().isEmpty()) {
+						groups.remove(e.getKey());
+						locations.remove(e.getKey());
+					} else {
+						groups.put(e.getKey(), e.getValue());
+						locations.put(e.getKey(), changedLocations.get(e
+								.getKey()));
+					}
+				good = buffer.position();
+			}
+
+			if (good < buffer.limit())
+				truncate(journal, good);
+		} catch (IOException e) {
+			return null;
+		}
+		return groups;
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(length);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the entries of one group, wherever they were written last.
+	 *
+	 * @param location
+	 *            where the group is, as given when it was read or written
+	 * @return the entries of the group by name, or null if they could not be
+	 *         read
+	 */
+	public static Map<String, ILuaEntry> readGroup(Location location) {
+		try {
+			ByteBuffer buffer;
+			RandomAccessFile file = new RandomAccessFile(location.file, "r");
+			try {
+				// the block and its length, at once
+				buffer = read(file.getChannel(), location.start - 4,
+						location.length + 4);
+			} finally {
+				file.close();
+			}
+
+			if (buffer.getInt() != location.length)
+				return null;
+
+			Map<String, ILuaEntry> entries = new HashMap<String, ILuaEntry>();
+			readGroup(buffer, entries, false);
+			return entries;
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// the file changed under the location
+			return null;
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position,
+			int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of index");
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @param file
+	 *            the file the index was read from
+	 * @param base
+	 *            where the index starts in the file
+	 * @param locations
+	 *            filled with the location of each group if not null
+	 * @return the groups held by an encoded index, or null if it is not a
+	 *         valid index of this version
+	 */
+	private static Map<String, Map<String, ILuaEntry>> decode(byte[] data,
+			File file, long base, Map<String, Location> locations) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			Map<String, Map<String, ILuaEntry>> groups = new HashMap<String, Map<String, ILuaEntry>>();
+			int groupCount = buffer.getInt();
+			for (int i = 0; i < groupCount; i++) {
+				int length = buffer.getInt();
+				int start = buffer.position();
+
+				Map<String, ILuaEntry> entries = new HashMap<String, ILuaEntry>();
+				String key = readGroup(buffer, entries, true);
+				if (buffer.position() != start + length)
+					return null;
+
+				groups.put(key, entries);
+				if (locations != null && !entries.isEmpty())
+					locations.put(key, new Location(file, base + start, length));
+			}
+			return groups;
+		} catch (RuntimeException e) {
+			// truncated or corrupt, the caller starts from scratch
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the block of a group, from the position of the buffer to the
+	 * end of the block.
+	 *
+	 * @param entries
+	 *            filled with the entries of the group by name
+	 * @param lazy
+	 *            if true the text of the entries is only decoded when asked
+	 *            for, and the buffer must stay untouched until then
+	 * @return the key of the group
+	 */
+	private static String readGroup(ByteBuffer buffer,
+			Map<String, ILuaEntry> entries, boolean lazy) {
+		int count = buffer.getInt();
+		int stringCount = buffer.getInt();
+		int[] offsets = new int[stringCount + 1];
+		for (int i = 0; i <= stringCount; i++)
+			offsets[i] = buffer.getInt();
+
+		// the strings follow the key and the entries
+		int stringsStart = buffer.position() + 4 + count * ENTRY_SIZE;
+		if (stringsStart + offsets[stringCount] > buffer.limit())
+			throw new IndexOutOfBoundsException();
+		LuadocIndexFile group = new LuadocIndexFile(buffer.array(), offsets,
+				stringsStart);
+
+		String key = group.getString(buffer.getInt());
+		for (int i = 0; i < count; i++) {
+			LuadocEntry entry;
+			if (lazy) {
+				IndexedEntry indexed = new IndexedEntry(group);
+				indexed.setName(group.getString(buffer.getInt()));
+				indexed.setModule(group.getString(buffer.getInt()));
+				indexed.setEntryType(group.getString(buffer.getInt()));
+				indexed.summaryId = buffer.getInt();
+				indexed.descriptionId = buffer.getInt();
+				indexed.commentId = buffer.getInt();
+				indexed.htmlId = buffer.getInt();
+				entry = indexed;
+			} else {
+				entry = new LuadocEntry();
+				entry.setName(group.getString(buffer.getInt()));
+				entry.setModule(group.getString(buffer.getInt()));
+				entry.setEntryType(group.getString(buffer.getInt()));
+				entry.summary = group.getString(buffer.getInt());
+				entry.description = group.getString(buffer.getInt());
+				String comment = group.getString(buffer.getInt());
+				entry.setStored(comment, group.getString(buffer.getInt()));
+			}
+			entries.put(entry.getName(), entry);
+		}
+
+		buffer.position(stringsStart + offsets[stringCount]);
+		return key;
+	}
+
+	String getString(int id) {
+		if (id < 0)
+			return null;
+
+		try {
+			return new String(data, stringsStart + offsets[id], offsets[id + 1]
+					- offsets[id], ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes an index file, replacing any previous one only once the new one
+	 * is complete.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param groups
+	 *            the entries by group and by name
+	 * @return the location of each group written
+	 * @throws IOException
+	 */
+	public static Map<String, Location> write(File file,
+			Map<String, Map<String, ILuaEntry>> groups) throws IOException {
+		Map<String, Location> locations = new HashMap<String, Location>();
+		byte[] data = encode(groups, false, file, 0, locations);
+
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+		}
+		return locations;
+	}
+
+	/**
+	 * Appends a record to a journal.
+	 * 
+	 * @param file
+	 *            the journal, created if needed
+	 * @param groups
+	 *            the groups that changed by key, an empty or null group for
+	 *            a group that was removed
+	 * @return the location of each group written, removed groups having none
+	 * @throws IOException
+	 */
+	public static Map<String, Location> append(File file,
+			Map<String, Map<String, ILuaEntry>> groups) throws IOException {
+		// the record starts after what is there and its length
+		long base = (file.isFile() ? file.length() : 0) + 4;
+		Map<String, Location> locations = new HashMap<String, Location>();
+		byte[] data = encode(groups, true, file, base, locations);
+
+		file.getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+		try {
+			out.writeInt(data.length);
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return locations;
+	}
+
+	private static byte[] encode(Map<String, Map<String, ILuaEntry>> groups,
+			boolean keepEmpty, File file, long base,
+			Map<String, Location> locations) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		int groupCount = 0;
+		for (Map<String, ILuaEntry> entries : groups.values())
+			if (keepEmpty || (entries != null && !entries.isEmpty()))
+				groupCount++;
+		out.writeInt(groupCount);
+
+		for (Map.Entry<String, Map<String, ILuaEntry>> group : groups
+				.entrySet()) {
+			Map<String, ILuaEntry> entries = group.getValue();
+			boolean empty = entries == null || entries.isEmpty();
+			if (empty && !keepEmpty)
+				continue;
+
+			byte[] block = encodeGroup(group.getKey(), empty ? null : entries);
+			out.writeInt(block.length);
+			if (!empty)
+				locations.put(group.getKey(), new Location(file, base
+						+ out.size(), block.length));
+			out.write(block);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encodeGroup(String key, Map<String, ILuaEntry> entries)
+			throws IOException {
+		StringTable strings = new StringTable();
+
+		ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+		DataOutputStream directory = new DataOutputStream(directoryBytes);
+
+		directory.writeInt(strings.add(key));
+		if (entries != null)
+			for (Map.Entry<String, ILuaEntry> e : entries.entrySet()) {
+				ILuaEntry entry = e.getValue();
+				LuadocEntry luadoc = entry instanceof LuadocEntry ? (LuadocEntry) entry
+						: null;
+
+				directory.writeInt(strings.add(e.getKey()));
+				directory.writeInt(strings.add(entry != null ? entry
+						.getModule() : null));
+				directory.writeInt(strings.add(luadoc != null ? luadoc
+						.getEntryType() : null));
+				directory.writeInt(strings.add(luadoc != null ? luadoc
+						.getSummary() : null));
+				directory.writeInt(strings.add(luadoc != null ? luadoc
+						.getDescription() : null));
+				directory.writeInt(strings.add(luadoc != null ? luadoc
+						.getStoredComment() : null));
+				directory.writeInt(strings.add(luadoc != null ? luadoc
+						.getStoredHtml() : null));
+			}
+		directory.flush();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(entries != null ? entries.size() : 0);
+		strings.writeOffsets(out);
+		directoryBytes.writeTo(out);
+		strings.writeData(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException("Unexpected end of " + file);
+			return buffer.array();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Distinct strings in the order they were first added.
+	 */
+	private static class StringTable {
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		private final DataOutputStream offsets;
+
+		private final ByteArrayOutputStream offsetBytes = new ByteArrayOutputStream();
+
+		StringTable() {
+			offsets = new DataOutputStream(offsetBytes);
+		}
+
+		int add(String s) throws IOException {
+			if (s == null)
+				return -1;
+
+			Integer id = ids.get(s);
+			if (id == null) {
+				id = new Integer(ids.size());
+				ids.put(s, id);
+				offsets.writeInt(data.size());
+				data.write(s.getBytes(ENCODING));
+			}
+			return id.intValue();
+		}
+
+		int size() {
+			return ids.size();
+		}
+
+		void writeOffsets(DataOutputStream out) throws IOException {
+			out.writeInt(ids.size());
+			offsets.flush();
+			offsetBytes.writeTo(out);
+			out.writeInt(data.size());
+		}
+
+		void writeData(DataOutputStream out) throws IOException {
+			data.writeTo(out);
+		}
+	}
+
+	/**
+	 * Where the block of a group was written, enough to read it back alone.
+	 * Writing the index file again moves every group.
+	 */
+	public static final class Location {
+		final File file;
+
+		// where the block starts in the file, after its length
+		final long start;
+
+		final int length;
+
+		Location(File file, long start, int length) {
+			this.file = file;
+			this.start = start;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * An entry whose text stays in the index until asked for.
+	 */
+	static class IndexedEntry extends LuadocEntry {
+		private static final long serialVersionUID = 1L;
+
+		private transient LuadocIndexFile index;
+
+		int summaryId;
+
+		int descriptionId;
+
+		int commentId;
+
+		int htmlId;
+
+		IndexedEntry(LuadocIndexFile index) {
+			this.index = index;
+		}
+
+		private synchronized void resolve() {
+			if (index == null)
+				return;
+
+			LuadocIndexFile source = index;
+			index = null;
+
+			summary = source.getString(summaryId);
+			description = source.getString(descriptionId);
+			setStored(source.getString(commentId), source.getString(htmlId));
+		}
+
+		public synchronized String getSummary() {
+			// alone, the symbols keep it without decoding the rest
+			return index != null ? index.getString(summaryId) : super
+					.getSummary();
+		}
+
+		public String getDescription() {
+			resolve();
+			return super.getDescription();
+		}
+
+		public String getComment() {
+			resolve();
+			return super.getComment();
+		}
+
+		public List<String> getCommentLines() {
+			resolve();
+			return super.getCommentLines();
+		}
+
+		public String getHtml() {
+			resolve();
+			return super.getHtml();
+		}
+
+		public List<String> getHtmlLines() {
+			resolve();
+			return super.getHtmlLines();
+		}
+
+		private void writeObject(ObjectOutputStream out)
+				throws IOException {
+			resolve();
+			out.defaultWriteObject();
+		}
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * Extracts luadoc entries from Lua source without running luadoc. It follows
+ * <code>luadoc/taglet/standard.lua</code> and its tag handlers, and renders
+ * the HTML of each function like the eclipse doclet does with
+ * <code>luadoc/doclet/html/function.lp</code>.
+ * <p>
+ * The source is read once, line by line. A block starts at a line beginning
+ * with <code>---</code>, takes every following <code>--</code> line as its
+ * comment and is described by the first non-empty line of code below it.
+ *
+ * @version $Id$
+ */
+public class LuadocParser {
+
+	private static final Pattern BLOCK_START = Pattern.compile("^[\t ]*---");
+
+	private static final Pattern COMMENT = Pattern.compile("^[\t ]*--");
+
+	private static final Pattern LOCAL = Pattern.compile("^\\s*local");
+
+	private static final Pattern MODULE = Pattern
+			.compile("^module\\s*[\\s\"'(\\[]+([^,\"')\\]]+)");
+
+	private static final String IDENTIFIER = "([^(\\s]+)";
+
+	private static final String PARAMETERS = "\\s*(.*?)\\s*";
+
+	private static final Pattern[] FUNCTIONS = {
+			Pattern.compile("^\\s*function\\s*" + IDENTIFIER + "\\s*\\("
+					+ PARAMETERS + "\\)"),
+			Pattern.compile("^\\s*local\\s\\s*function\\s*" + IDENTIFIER
+					+ "\\s*\\(" + PARAMETERS + "\\)"),
+			Pattern.compile("^\\s*" + IDENTIFIER + "\\s*=\\s*function\\s*\\("
+					+ PARAMETERS + "\\)") };
+
+	private static final Pattern TAG = Pattern.compile("@([\\w.]+)\\s+(.*)");
+
+	private static final Pattern COMMENT_TEXT = Pattern.compile("--+(.*)$");
+
+	private static final Pattern NAMED_TEXT = Pattern
+			.compile("^([\\w.]+)\\s+(.*)");
+
+	private static final Pattern SUMMARY = Pattern.compile("(.*?\\.)\\s");
+
+	private static final Pattern LIST_SEPARATOR = Pattern.compile("\\s*,\\s*");
+
+	/**
+	 * Parses a Lua file.
+	 *
+	 * @param fileName
+	 *            the path of the file, used as the module of its entries
+	 *            unless the file declares one
+	 * @param source
+	 *            the contents of the file
+	 * @return the entries of the documented functions, indexed by name
+	 */
+	public Map<String, ILuaEntry> parse(String fileName, CharSequence source) {
+		Map<String, ILuaEntry> entries = new HashMap<String, ILuaEntry>();
+		if (!fileName.endsWith(".lua") && !fileName.endsWith(".luadoc"))
+			return entries;
+
+		List<Block> blocks = new ArrayList<Block>();
+		String moduleName = null;
+
+		Block block = null;
+		boolean inComment = false;
+
+		int length = source.length();
+		int start = 0;
+		boolean firstLine = true;
+		while (start < length) {
+			int end = start;
+			while (end < length && source.charAt(end) != '\n')
+				end++;
+			int lineEnd = end > start && source.charAt(end - 1) == '\r' ? end - 1
+					: end;
+			String line = source.subSequence(start, lineEnd).toString();
+			start = end + 1;
+
+			if (inComment && COMMENT.matcher(line).find()) {
+				block.comment.add(line);
+			} else if (BLOCK_START.matcher(line).find()) {
+				if (block != null)
+					blocks.add(block.finish());
+				block = new Block(firstLine);
+				block.comment.add(line);
+				inComment = true;
+			} else {
+				inComment = false;
+				if (block != null && block.code == null
+						&& line.trim().length() > 0
+						&& !(block.first && LOCAL.matcher(line).find()))
+					block.code = line;
+				moduleName = checkModule(line, moduleName);
+			}
+			firstLine = false;
+		}
+		if (block != null)
+			blocks.add(block.finish());
+
+		String fileOrModuleName = fileName;
+		if ("...".equals(moduleName))
+			fileOrModuleName = fileName.replaceFirst("\\.lua$", "").replace(
+					'/', '.');
+		else if (moduleName != null)
+			fileOrModuleName = moduleName;
+
+		LuadocGenerator generator = LuadocGenerator.getInstance();
+		for (Block b : blocks) {
+			if (!"function".equals(b.cls) || b.name == null)
+				continue;
+
+			entries.put(b.name, generator.createLuaEntry(fileOrModuleName,
+					b.name, b.cls, b.summary, b.description, join(b.comment,
+							"\n"), b.toHtml()));
+		}
+		return entries;
+	}
+
+	private static String checkModule(String line, String currentModule) {
+		Matcher m = MODULE.matcher(line.trim());
+		return m.find() ? m.group(1) : currentModule;
+	}
+
+	/**
+	 * @return the trimmed text of a comment line, without its dashes
+	 */
+	private static String trimComment(String line) {
+		Matcher m = COMMENT_TEXT.matcher(line);
+		if (m.find())
+			line = line.substring(0, m.start()) + m.group(1);
+		return line.trim();
+	}
+
+	/**
+	 * Appends two strings with a space in between, like
+	 * <code>luadoc.util.concat</code>.
+	 */
+	private static String concat(String s1, String s2) {
+		return s1 == null || s1.length() == 0 ? s2 : s1 + " " + s2;
+	}
+
+	/**
+	 * Splits a comma separated list, an empty text giving an empty list.
+	 */
+	private static List<String> split(String text) {
+		List<String> list = new ArrayList<String>();
+		if (text.length() > 0)
+			list.addAll(Arrays.asList(LIST_SEPARATOR.split(text, -1)));
+		return list;
+	}
+
+	private static String join(List<String> lines, String separator) {
+		StringBuilder result = new StringBuilder();
+		for (String line : lines) {
+			if (result.length() > 0)
+				result.append(separator);
+			result.append(line);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * A comment block and the code it documents.
+	 */
+	private static class Block {
+		final boolean first;
+
+		final List<String> comment = new ArrayList<String>();
+
+		String code;
+
+		String cls;
+
+		String name;
+
+		String description;
+
+		String summary;
+
+		final List<String> params = new ArrayList<String>();
+
+		final Map<String, String> paramDescriptions = new HashMap<String, String>();
+
+		final List<String> returns = new ArrayList<String>();
+
+		final List<String> usages = new ArrayList<String>();
+
+		final List<String> see = new ArrayList<String>();
+
+		Block(boolean first) {
+			this.first = first;
+		}
+
+		Block finish() {
+			if (code != null) {
+				String trimmed = code.trim();
+				Matcher function = null;
+				for (Pattern p : FUNCTIONS) {
+					Matcher m = p.matcher(trimmed);
+					if (m.find()) {
+						function = m;
+						break;
+					}
+				}
+
+				if (function != null) {
+					cls = "function";
+					name = function.group(1);
+					params.addAll(split(function.group(2)));
+				} else {
+					String moduleName = checkModule(trimmed, null);
+					if (moduleName != null) {
+						cls = "module";
+						name = moduleName;
+					}
+				}
+			}
+
+			String currentTag = "description";
+			String currentText = null;
+			for (String line : comment) {
+				line = trimComment(line);
+
+				Matcher m = TAG.matcher(line);
+				if (m.find()) {
+					handle(currentTag, currentText);
+					currentTag = m.group(1);
+					currentText = m.group(2);
+				} else {
+					currentText = concat(currentText, line);
+				}
+			}
+			handle(currentTag, currentText);
+
+			if (description == null)
+				description = "";
+
+			Matcher m = SUMMARY.matcher(description + " ");
+			summary = m.find() ? m.group(1) : description + " ";
+
+			return this;
+		}
+
+		/**
+		 * Applies a tag the way <code>luadoc.taglet.standard.tags</code>
+		 * does, unknown tags are ignored.
+		 */
+		private void handle(String tag, String text) {
+			if ("description".equals(tag)) {
+				description = text;
+			} else if (text == null) {
+				return;
+			} else if ("class".equals(tag)) {
+				cls = text;
+			} else if ("name".equals(tag)) {
+				name = text;
+			} else if ("param".equals(tag)) {
+				Matcher m = NAMED_TEXT.matcher(text);
+				if (m.find()) {
+					if (!params.contains(m.group(1)))
+						params.add(m.group(1));
+					paramDescriptions.put(m.group(1), m.group(2));
+				}
+			} else if ("return".equals(tag)) {
+				returns.add(text);
+			} else if ("usage".equals(tag)) {
+				usages.add(text);
+			} else if ("see".equals(tag)) {
+				if (text.endsWith("."))
+					text = text.substring(0, text.length() - 1);
+				see.addAll(split(text));
+			}
+		}
+
+		/**
+		 * @return the HTML the eclipse doclet renders for a function
+		 */
+		String toHtml() {
+			StringBuilder html = new StringBuilder();
+
+			html.append("<dt><a name=\"").append(name).append(
+					"\"></a><strong>").append(name).append(
+					"</strong>&nbsp;(").append(join(params, ", ")).append(
+					")</dt>\n");
+			html.append("<dd>\n").append(description).append("\n");
+
+			if (!params.isEmpty()) {
+				html.append("<h3>Parameters</h3>\n<ul>\n");
+				for (String param : params) {
+					String desc = paramDescriptions.get(param);
+					html.append("\t<li>\n\t  ").append(param).append(": ")
+							.append(desc != null ? desc : "").append(
+									"\n\t</li>\n");
+				}
+				html.append("</ul>\n");
+			}
+
+			appendList(html, usages, "Usage:", "Usage", "ul");
+			appendList(html, returns, "Return value:", "Return values:", "ol");
+
+			if (!see.isEmpty()) {
+				html.append("<h3>See also:</h3>\n<ul>\n");
+				for (String s : see)
+					html.append("\t<li><a href=\"\">\n\t\t").append(s).append(
+							"\n\t</a>\n");
+				html.append("</ul>\n");
+			}
+
+			html.append("</dd>");
+			return html.toString();
+		}
+
+		private static void appendList(StringBuilder html, List<String> items,
+				String single, String multiple, String listTag) {
+			if (items.size() == 1) {
+				html.append("<h3>").append(single).append("</h3>\n").append(
+						items.get(0)).append("\n");
+			} else if (items.size() > 1) {
+				html.append("<h3>").append(multiple).append("</h3>\n<")
+						.append(listTag).append(">\n");
+				for (String item : items)
+					html.append("\t<li>").append(item).append("\n");
+				html.append("</").append(listTag).append(">\n");
+			}
+		}
+	}
+}
@@ -22,13 +22,26 @@
 */
 package org.keplerproject.ldt.core.project;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubProgressMonitor;
+import org.keplerproject.ldt.core.LuaProject;
+import org.keplerproject.ldt.core.LuaScriptsSpecs;
+import org.keplerproject.ldt.core.compiler.LuaBuildCache;
+import org.keplerproject.ldt.core.compiler.LuaBuildStatistics;
+import org.keplerproject.ldt.core.compiler.LuaDependencyGraph;
+import org.keplerproject.ldt.core.compiler.LuaParallelBuilder;
 import org.keplerproject.ldt.core.compiler.LuaResourceDeltaVisitor;
 /**
  * 
@@ -50,34 +63,127 @@ public class LuaProjectBuilder extends IncrementalProjectBuilder {
 	@SuppressWarnings("unchecked")
 	protected IProject[] build(int kind, Map args, IProgressMonitor monitor)
 			throws CoreException {
-		if (kind == FULL_BUILD) {
-			fullBuild(monitor);
-		} else {
-			IResourceDelta delta = getDelta(getProject());
+		if (monitor == null)
+			monitor = new NullProgressMonitor();
+
+		IResourceDelta delta = kind == FULL_BUILD ? null
+				: getDelta(getProject());
+		LuaBuildStatistics statistics = new LuaBuildStatistics(getProject()
+				.getName(), delta == null);
+
+		try {
 			if (delta == null) {
-				fullBuild(monitor);
+				fullBuild(monitor, statistics);
 			} else {
-				incrementalBuild(delta, monitor);
+				incrementalBuild(delta, monitor, statistics);
 			}
+		} catch (OperationCanceledException e) {
+			// what was built is kept, but the next build starts over
+			statistics.setCanceled(true);
+			forgetLastBuiltState();
+			throw e;
+		} finally {
+			// the save job writes the luadoc entries, then the build cache
+			// that vouches for them
+			LuaProject.scheduleSave();
+			LuaDependencyGraph.getGraph(getProject()).save();
+			statistics.finish();
 		}
-		return null;
+
+		// asks for the deltas of the projects in the load path next time
+		return getReferencedProjects().toArray(new IProject[0]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.core.resources.IncrementalProjectBuilder#clean(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	protected void clean(IProgressMonitor monitor) throws CoreException {
+		LuaBuildCache cache = LuaBuildCache.getCache(getProject());
+		cache.clear();
+		cache.save();
+
+		LuaDependencyGraph graph = LuaDependencyGraph.getGraph(getProject());
+		graph.clear();
+		graph.save();
 	}
 
 
 
-	protected void fullBuild(final IProgressMonitor monitor)
-			throws CoreException {
+	protected void fullBuild(final IProgressMonitor monitor,
+			LuaBuildStatistics statistics) throws CoreException {
 		try {
-			getProject().accept(new LuaResourceDeltaVisitor());
+			if (LuaScriptsSpecs.getDefault().isParallelBuildActive()) {
+				new LuaParallelBuilder(getProject()).build(monitor, statistics);
+			} else {
+				monitor.beginTask("Building Lua scripts",
+						LuaResourceDeltaVisitor.countFiles(getProject()) + 1);
+				LuaResourceDeltaVisitor visitor = new LuaResourceDeltaVisitor(
+						monitor, statistics);
+				try {
+					getProject().accept(visitor);
+					visitor.retainBuilt(getProject());
+				} finally {
+					visitor.applyMarkers(new SubProgressMonitor(monitor, 1));
+				}
+			}
 		} catch (CoreException e) {
+		} finally {
+			monitor.done();
 		}
 	}
 
 
 
 	protected void incrementalBuild(IResourceDelta delta,
-			IProgressMonitor monitor) throws CoreException {
+			IProgressMonitor monitor, LuaBuildStatistics statistics)
+			throws CoreException {
+		monitor.beginTask("Building Lua scripts", 10);
+
 		// the visitor does the work.
-		delta.accept(new LuaResourceDeltaVisitor());
+		IProgressMonitor deltaMonitor = new SubProgressMonitor(monitor, 6);
+		LuaResourceDeltaVisitor visitor = new LuaResourceDeltaVisitor(
+				deltaMonitor, statistics);
+		try {
+			deltaMonitor.beginTask("Building changed Lua scripts",
+					LuaResourceDeltaVisitor.countFiles(delta));
+			try {
+				delta.accept(visitor);
+			} finally {
+				deltaMonitor.done();
+			}
+
+			Set<String> changedModules = new HashSet<String>(visitor
+					.getChangedModules());
+
+			for (IProject referenced : getReferencedProjects()) {
+				IResourceDelta referencedDelta = getDelta(referenced);
+				if (referencedDelta != null)
+					LuaResourceDeltaVisitor.collectChangedModules(
+							referencedDelta, changedModules);
+			}
+
+			visitor.buildDependents(getProject(), changedModules,
+					new SubProgressMonitor(monitor, 3));
+		} finally {
+			// even a canceled build reports what it found
+			visitor.applyMarkers(new SubProgressMonitor(monitor, 1));
+			monitor.done();
+		}
+	}
+
+	/**
+	 * @return the open projects in the load path of this project
+	 */
+	private List<IProject> getReferencedProjects() {
+		List<IProject> projects = LuaProject.getLuaProject(getProject())
+				.getReferencedProjects();
+		for (Iterator<IProject> i = projects.iterator(); i.hasNext();) {
+			IProject project = i.next();
+			if (project == null || !project.isAccessible())
+				i.remove();
+		}
+		return projects;
 	}
 }
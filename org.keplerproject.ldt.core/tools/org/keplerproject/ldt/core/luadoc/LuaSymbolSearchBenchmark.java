@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * Measures {@link LuaSymbolIndex#search(List, String, int, int)} on a
+ * synthetic index, one match rule at a time. It runs outside of Eclipse,
+ * with the core jar, the output of the tools folder and the plug-ins they
+ * require on the class path:
+ *
+ * <pre>
+ * java -cp ... org.keplerproject.ldt.core.luadoc.LuaSymbolSearchBenchmark [symbols]
+ * </pre>
+ *
+ * The symbols, 200000 by default, are spread over four projects and made of
+ * random syllables, in camel case or with underscores. Each query is taken
+ * from a random name, as a user would type it, and asks for as many
+ * symbols as completion does.
+ *
+ * @version $Id$
+ */
+public class LuaSymbolSearchBenchmark {
+
+	private static final String[] SYLLABLES = { "get", "set", "foo", "bar",
+			"baz", "lua", "doc", "str", "tab", "len", "sub", "find", "gsub",
+			"io", "os", "read", "write", "open", "close", "node", "tree",
+			"list", "map", "key", "val", "pos", "buf", "cat", "at", "in",
+			"on", "to", "by", "is", "has", "new", "free", "load" };
+
+	private static final int SYMBOLS_PER_FILE = 100;
+
+	private static final int QUERIES = 500;
+
+	private static final int LIMIT = 100;
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		LuaSymbolIndex index = new LuaSymbolIndex();
+		List<String> names = new ArrayList<String>();
+		long start = System.nanoTime();
+		for (int file = 0; file * SYMBOLS_PER_FILE < count; file++) {
+			String module = "mod" + file;
+			Map<String, ILuaEntry> entries = new HashMap<String, ILuaEntry>();
+			for (int i = 0; i < SYMBOLS_PER_FILE; i++) {
+				LuadocEntry entry = new LuadocEntry();
+				entry.setName(randomName());
+				entry.setModule(module);
+				entry.setEntryType("function");
+				entries.put(entry.getName(), entry);
+				names.add(entry.getName());
+			}
+			index.replaceFile("project" + file % 4, "/file" + file + ".lua",
+					entries);
+		}
+		System.out.println(index.size() + " symbols indexed in "
+				+ millis(System.nanoTime() - start) + " ms");
+
+		List<String> scopes = new ArrayList<String>();
+		scopes.add("project0");
+		scopes.add("project1");
+		scopes.add("project2");
+		scopes.add("project3");
+		scopes.add(null);
+
+		// twice, the first round warms the code up
+		for (int round = 0; round < 2; round++) {
+			System.out.println(round == 0 ? "warm-up:" : "measured:");
+			measure(index, scopes, names, "1-letter prefix",
+					LuaSymbolIndex.PREFIX_MATCH, 0);
+			measure(index, scopes, names, "3-letter prefix",
+					LuaSymbolIndex.PREFIX_MATCH, 1);
+			measure(index, scopes, names, "camel humps",
+					LuaSymbolIndex.CAMEL_HUMP_MATCH, 2);
+			measure(index, scopes, names, "3-letter substring",
+					LuaSymbolIndex.SUBSTRING_MATCH, 3);
+			measure(index, scopes, names, "fuzzy",
+					LuaSymbolIndex.FUZZY_MATCH, 4);
+			measure(index, scopes, names, "all rules",
+					LuaSymbolIndex.ALL_MATCHES, 3);
+		}
+	}
+
+	private static void measure(LuaSymbolIndex index, List<String> scopes,
+			List<String> names, String what, int rules, int kind) {
+		long total = 0;
+		long worst = 0;
+		int found = 0;
+		for (int i = 0; i < QUERIES; i++) {
+			String pattern = query(names.get(random.nextInt(names.size())),
+					kind);
+			long start = System.nanoTime();
+			found += index.search(scopes, pattern, rules, LIMIT).size();
+			long time = System.nanoTime() - start;
+			total += time;
+			worst = Math.max(worst, time);
+		}
+		System.out.println("  " + what + ": " + millis(total / QUERIES)
+				+ " ms on average, " + millis(worst) + " ms at worst, "
+				+ found / QUERIES + " symbols found on average");
+	}
+
+	/**
+	 * @return a pattern matching the name by the rule of the kind
+	 */
+	private static String query(String name, int kind) {
+		switch (kind) {
+		case 0:
+			return name.substring(0, 1);
+		case 1:
+			return name.substring(0, Math.min(3, name.length()));
+		case 2:
+			StringBuilder humps = new StringBuilder();
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (i == 0 || Character.isUpperCase(c)
+						|| name.charAt(i - 1) == '_')
+					humps.append(c);
+			}
+			return humps.toString();
+		case 3:
+			int start = random.nextInt(Math.max(1, name.length() - 2));
+			return name.substring(start, Math.min(name.length(), start + 3));
+		default:
+			StringBuilder sequence = new StringBuilder();
+			for (int i = 0; i < name.length(); i += 2)
+				sequence.append(name.charAt(i));
+			return sequence.toString();
+		}
+	}
+
+	private static String randomName() {
+		boolean camel = random.nextBoolean();
+		int parts = 1 + random.nextInt(3);
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < parts; i++) {
+			String syllable = SYLLABLES[random.nextInt(SYLLABLES.length)];
+			if (i > 0 && camel)
+				syllable = Character.toUpperCase(syllable.charAt(0))
+						+ syllable.substring(1);
+			else if (i > 0)
+				name.append('_');
+			name.append(syllable);
+		}
+		if (random.nextInt(4) == 0)
+			name.append(random.nextInt(100));
+		return name.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.valueOf(nanos / 1000 / 1000.0);
+	}
+}
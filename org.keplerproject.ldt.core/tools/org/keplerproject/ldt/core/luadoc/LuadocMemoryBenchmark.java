@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2003-2007 Kepler Project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.keplerproject.ldt.core.luadoc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.keplerproject.ldt.core.ILuaEntry;
+
+/**
+ * Measures the heap taken by the luadoc entries of a tree of Lua files, as
+ * the builder holds them and as a loaded index holds them. It runs outside
+ * of Eclipse, with the core jar and the output of the tools folder on the
+ * class path; the serial collector gives steadier numbers:
+ *
+ * <pre>
+ * java -XX:+UseSerialGC -cp LuaCore.jar:bin-tools
+ *         org.keplerproject.ldt.core.luadoc.LuadocMemoryBenchmark &lt;dir&gt; [copies]
+ * </pre>
+ *
+ * The entries of every Lua file under the directory are parsed as many
+ * times as there are copies, as for as many projects vendoring the same
+ * tree.
+ *
+ * @version $Id$
+ */
+public class LuadocMemoryBenchmark {
+
+	private static final int HTML_CALLS = 1000;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: LuadocMemoryBenchmark <dir> [copies]");
+			System.exit(2);
+		}
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+		List<File> files = new ArrayList<File>();
+		collect(new File(args[0]), files);
+		List<String> sources = new ArrayList<String>();
+		for (File file : files)
+			sources.add(read(file));
+
+		long before = usedHeap();
+
+		Map<String, Map<String, ILuaEntry>> groups = new HashMap<String, Map<String, ILuaEntry>>();
+		List<LuadocEntry> entries = new ArrayList<LuadocEntry>();
+		for (int copy = 0; copy < copies; copy++)
+			for (int i = 0; i < files.size(); i++) {
+				String fileName = files.get(i).getPath();
+				Map<String, ILuaEntry> group = new LuadocParser().parse(
+						fileName, sources.get(i));
+				groups.put(fileName + "#" + copy, group);
+				for (ILuaEntry entry : group.values())
+					entries.add((LuadocEntry) entry);
+			}
+
+		long parsed = usedHeap();
+		report(files.size() + " files x " + copies + ", " + entries.size()
+				+ " entries", before, parsed, entries.size());
+
+		long start = System.nanoTime();
+		long chars = 0;
+		for (int i = 0; i < HTML_CALLS && !entries.isEmpty(); i++)
+			chars += entries.get(i % entries.size()).getHtml().length();
+		System.out.println(HTML_CALLS + " getHtml calls: "
+				+ (System.nanoTime() - start) / 100000 / 10.0 + " ms, "
+				+ chars + " chars");
+
+		// the same entries written to an index and loaded back
+		File index = File.createTempFile("luadoc", ".index");
+		File journal = new File(index.getPath() + ".journal");
+		index.deleteOnExit();
+		LuadocIndexFile.write(index, groups);
+		groups = null;
+		entries = null;
+
+		before = usedHeap();
+		Map<String, LuadocIndexFile.Location> locations = new HashMap<String, LuadocIndexFile.Location>();
+		Map<String, Map<String, ILuaEntry>> loaded = LuadocIndexFile.load(
+				index, journal, locations);
+		int count = 0;
+		for (Map<String, ILuaEntry> group : loaded.values())
+			count += group.size();
+		report("loaded index of " + index.length() / 1024 + " KB", before,
+				usedHeap(), count);
+
+		start = System.nanoTime();
+		for (LuadocIndexFile.Location location : locations.values())
+			LuadocIndexFile.readGroup(location);
+		System.out.println(locations.size() + " readGroup calls: "
+				+ (System.nanoTime() - start) / 100000 / 10.0 + " ms");
+
+		// keeps what was measured reachable until the end
+		if (loaded.isEmpty())
+			System.out.println("no entries");
+	}
+
+	private static void report(String what, long before, long after,
+			int entries) {
+		long used = after - before;
+		System.out.println(what + ": before " + before / 1024 + " KB, after "
+				+ after / 1024 + " KB, " + used / 1024 + " KB used, "
+				+ (entries > 0 ? used / entries : 0) + " bytes per entry");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void collect(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (File child : children)
+			if (child.isDirectory())
+				collect(child, files);
+			else if (child.getName().endsWith(".lua"))
+				files.add(child);
+	}
+
+	private static String read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0)
+					break;
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return new String(bytes, "ISO-8859-1");
+	}
+}
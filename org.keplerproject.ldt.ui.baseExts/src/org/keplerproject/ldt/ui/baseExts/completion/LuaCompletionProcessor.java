@@ -20,11 +20,14 @@ package org.keplerproject.ldt.ui.baseExts.completion;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
+import org.eclipse.core.resources.IResource;
 import org.eclipse.jface.resource.ImageRegistry;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ContextInformation;
@@ -33,10 +36,15 @@ import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
 import org.eclipse.swt.graphics.Image;
-import org.keplerproject.ldt.core.LuaScriptsSpecs;
+import org.eclipse.ui.IEditorPart;
+import org.keplerproject.ldt.core.LuaLoadPathResolver;
+import org.keplerproject.ldt.core.LuaStatePool;
+import org.keplerproject.ldt.core.luadoc.LuaSymbolIndex;
 import org.keplerproject.ldt.ui.baseExts.BaseExtsPlugin;
 import org.keplerproject.ldt.ui.baseExts.scanner.ILuaSyntax;
 import org.keplerproject.ldt.ui.baseExts.scanner.LuaVariableDetector;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
+import org.keplerproject.ldt.ui.editors.lex.TokenBuffer;
 import org.keplerproject.luajava.LuaState;
 
 /**
@@ -49,12 +57,26 @@ import org.keplerproject.luajava.LuaState;
  */
 public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSyntax {
 
+	// how long to wait for a free LuaState before giving up, in milliseconds
+	private static final long STATE_TIMEOUT = 200;
+
+	// the most luadoc symbols proposed at once
+	private static final int MAX_LUADOC_PROPOSALS = 100;
+
 	protected ArrayList<ICompletionProposal>	proposalList;
 
+	// the editor completing, tells which project's load path to look along
+	private IEditorPart editor;
+
 	public LuaCompletionProcessor() {
 		proposalList = new ArrayList<ICompletionProposal>();
 	}
 
+	public LuaCompletionProcessor(IEditorPart editor) {
+		this();
+		this.editor = editor;
+	}
+
 	@SuppressWarnings("unchecked")
 	public ICompletionProposal[] computeCompletionProposals(
 			final ITextViewer viewer, final int documentOffset) {
@@ -64,9 +86,12 @@ public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSynt
 		List<ICompletionProposal> internalProposalList = getInternalProposals(wordPart);
 		proposalList.addAll(internalProposalList);
 
-		List<ICompletionProposal> functionProposalList = getFunctionProposals(viewer.getDocument().get(), wordPart);
+		List<ICompletionProposal> functionProposalList = getFunctionProposals(viewer.getDocument(), wordPart);
 		proposalList.addAll(functionProposalList);
 
+		List<ICompletionProposal> luadocProposalList = getLuadocProposals(wordPart, proposalList);
+		proposalList.addAll(luadocProposalList);
+
 		Collections.sort(proposalList, new CompletionProposalComparator());
 
 		ICompletionProposal result[] = new ICompletionProposal[proposalList.size()];
@@ -78,12 +103,21 @@ public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSynt
 	}
 	
 	private List<ICompletionProposal> getInternalProposals(LuaVariableDetector wordPart) {
-		LuaState L = LuaScriptsSpecs.getDefault().getLuaState();
+		LuaStatePool pool = LuaStatePool.getDefault();
+		LuaState L = pool.borrow(STATE_TIMEOUT);
 		
 		if (L == null) {
 			return Collections.emptyList();
 		}
 		
+		try {
+			return getInternalProposals(L, wordPart);
+		} finally {
+			pool.release(L);
+		}
+	}
+	
+	private List<ICompletionProposal> getInternalProposals(LuaState L, LuaVariableDetector wordPart) {
 		try {
 			if (wordPart.getVariable() != null) {
 				L.LdoString("return " + wordPart.getVariable());
@@ -153,8 +187,7 @@ public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSynt
 		return internalList;
 	}
 	
-	static final Pattern fLuaFunctionPattern = Pattern.compile("^\\w*function\\s+(\\w+)\\s*\\(.*$", Pattern.MULTILINE);
-	protected List<ICompletionProposal> getFunctionProposals(String fileContents, LuaVariableDetector wordPart) {
+	protected List<ICompletionProposal> getFunctionProposals(IDocument document, LuaVariableDetector wordPart) {
 		ICompletionProposal proposal;
 
 		String variable = wordPart.getVariable();
@@ -167,13 +200,17 @@ public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSynt
 		
 		ArrayList<ICompletionProposal> functionList = new ArrayList<ICompletionProposal>();
 		
-		Matcher matcher = fLuaFunctionPattern.matcher(fileContents);
-		int offset = 0;
-//		int startOffset = 0;
-		while(matcher.find(offset)) {
-			//startOffset = matcher.start();
-			offset = matcher.end();
-			String functionName = matcher.group(1);
+		TokenBuffer declarations = new TokenBuffer();
+		LuaTokenModel model = LuaTokenModel.getModel(document);
+		if (model != null)
+			model.getFunctionDeclarations(declarations);
+		for(int i = 0; i < declarations.size(); i++) {
+			String functionName;
+			try {
+				functionName = document.get(declarations.getOffset(i), declarations.getLength(i));
+			} catch (BadLocationException e) {
+				break;
+			}
 			
 			if(!functionName.startsWith(stem)) {
 				continue;
@@ -203,6 +240,79 @@ public class LuaCompletionProcessor implements IContentAssistProcessor, ILuaSynt
 		return functionList;
 	}	
 
+	/**
+	 * Proposes the documented symbols of the workspace and of the reference
+	 * manual that are not proposed already.
+	 */
+	protected List<ICompletionProposal> getLuadocProposals(LuaVariableDetector wordPart, List<ICompletionProposal> proposed) {
+		String variable = wordPart.getVariable();
+		String stem = wordPart.getString();
+		int wordOffset = wordPart.getOffset();
+
+		String prefix = variable != null ? variable + "." + stem : stem;
+		if (prefix.length() == 0) {
+			return Collections.emptyList();
+		}
+
+		Set<String> known = new HashSet<String>();
+		for (ICompletionProposal proposal : proposed) {
+			known.add(proposal.getDisplayString());
+		}
+
+		ImageRegistry imageRegistry = BaseExtsPlugin.getDefault().getImageRegistry();
+
+		ArrayList<ICompletionProposal> luadocList = new ArrayList<ICompletionProposal>();
+
+		// globals may also be typed by their humps, as gFB for getFooBar
+		List<String> scopes = LuaLoadPathResolver.getDefault().getVisibleScopes(getProjectName());
+		LuaSymbolIndex index = LuaSymbolIndex.getDefault();
+		List<LuaSymbolIndex.Symbol> symbols = variable != null
+				? index.findByPrefix(scopes, prefix, MAX_LUADOC_PROPOSALS)
+				: index.search(scopes, prefix, LuaSymbolIndex.PREFIX_MATCH | LuaSymbolIndex.CAMEL_HUMP_MATCH, MAX_LUADOC_PROPOSALS);
+
+		for (LuaSymbolIndex.Symbol symbol : symbols) {
+			// without a variable only globals make sense
+			if (variable == null && !symbol.getName().equals(symbol.getQualifiedName())) {
+				continue;
+			}
+
+			String name = symbol.getName();
+			int cursorLocation = name.length();
+
+			// the symbol knows enough, the entry itself may be on disk
+			String entryType = symbol.getEntryType();
+			if (FUNCTION_TYPE_NAME.equals(entryType)) {
+				name += "()";
+				cursorLocation += 1;
+			}
+
+			if (!known.add(name)) {
+				continue;
+			}
+
+			String summary = symbol.getSummary();
+
+			luadocList.add(new CompletionProposal(
+					name,
+					wordOffset, stem.length(),
+					cursorLocation,
+					entryType != null ? imageRegistry.get(entryType) : null,
+					name,
+					null,
+					summary));
+		}
+
+		return luadocList;
+	}
+
+	private String getProjectName() {
+		if (editor == null) {
+			return null;
+		}
+		IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+		return resource != null ? resource.getProject().getName() : null;
+	}
+
 	private String getContentInfoString(String keyWord) {
 		String resourceKey = "ContextString." + keyWord;
 		String resourceString = resourceKey;
@@ -35,7 +35,7 @@ public class LuaContentAssistContributorExtension  implements ILuaContentAssistE
 
 	
 	public void contribute(IEditorPart editor, ContentAssistant assistant) {
-		LuaCompletionProcessor processor = new LuaCompletionProcessor();
+		LuaCompletionProcessor processor = new LuaCompletionProcessor(editor);
 		assistant.setContentAssistProcessor(processor,IDocument.DEFAULT_CONTENT_TYPE);
 
 	}
@@ -25,20 +25,15 @@ package org.keplerproject.ldt.ui.baseExts.scanner;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.presentation.PresentationReconciler;
-import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
-import org.eclipse.jface.text.rules.EndOfLineRule;
-import org.eclipse.jface.text.rules.IPredicateRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.ITokenScanner;
-import org.eclipse.jface.text.rules.SingleLineRule;
 import org.eclipse.jface.text.rules.Token;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.SWT;
-import org.keplerproject.ldt.ui.editors.LuaBaseScanner;
 import org.keplerproject.ldt.ui.editors.LuaColorManager;
+import org.keplerproject.ldt.ui.editors.LuaDamagerRepairer;
 import org.keplerproject.ldt.ui.editors.NonRuleBasedDamagerRepairer;
 import org.keplerproject.ldt.ui.editors.ext.ILuaReconcilierExtension;
-import org.keplerproject.ldt.ui.text.rules.LuaWordRule;
 /**
  * 
  * @author guilherme
@@ -54,7 +49,7 @@ public class LuaReconcilierContributor implements ILuaReconcilierExtension,
 		this.fColorManager = colorManager;
 		
 		//Lua word reconciliers
-		DefaultDamagerRepairer dr = new DefaultDamagerRepairer(getCodeScanner());
+		LuaDamagerRepairer dr = new LuaDamagerRepairer(getCodeScanner());
 		reconciler.setDamager(dr, IDocument.DEFAULT_CONTENT_TYPE);
 		reconciler.setRepairer(dr, IDocument.DEFAULT_CONTENT_TYPE);
 		
@@ -75,12 +70,12 @@ public class LuaReconcilierContributor implements ILuaReconcilierExtension,
 	}
 
 	/**
-	 * Returns basic code scanner, keywords, constants, etc.. 
+	 * Returns basic code scanner, keywords, constants, etc.. The tokens come
+	 * from the document's token model, which is shared with folding, the
+	 * outline and completion.
 	 * @return
 	 */
 	private ITokenScanner getCodeScanner() {
-		LuaBaseScanner scanner = new LuaBaseScanner();
-
 		IToken keyword = new Token(new TextAttribute(this.fColorManager
 				.getColor(ILuaColorConstants.LUA_KEYWORD), null, SWT.BOLD));
 		IToken constant = new Token(new TextAttribute(this.fColorManager
@@ -96,23 +91,15 @@ public class LuaReconcilierContributor implements ILuaReconcilierExtension,
 				.getColor(ILuaColorConstants.LUA_SINGLE_LINE_COMMENT)));
 
 
-		// Add word rule for keywords and constants.
-		LuaWordRule wordRule = new LuaWordRule(new LuaWordDetector(), other);
+		LuaTokenScanner scanner = new LuaTokenScanner(other, string, scomment);
+
+		// Add words for keywords, constants and predicates.
 		for (int i = 0; i < reservedwords.length; i++)
-			wordRule.addWord(reservedwords[i], keyword);
+			scanner.addWord(reservedwords[i], keyword);
 		for (int i = 0; i < constants.length; i++)
-			wordRule.addWord(constants[i], constant);
-
-		LuaWordRule predRule = new LuaWordRule(new LuaWordDetector());
+			scanner.addWord(constants[i], constant);
 		for (int i = 0; i < otherpredicates.length; i++)
-			predRule.addWord(otherpredicates[i], otherPredicates);
-
-		scanner.setPredicateRules(new IPredicateRule[] {
-			    predRule,
-				wordRule,
-				new SingleLineRule("\"", "\"", string, '\\'),
-				new SingleLineRule("'", "'", string, '\\'),
-				new EndOfLineRule("--", scomment)});
+			scanner.addWord(otherpredicates[i], otherPredicates);
 
 		return scanner;
 	}
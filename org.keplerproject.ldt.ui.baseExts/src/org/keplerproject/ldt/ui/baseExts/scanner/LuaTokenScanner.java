@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.baseExts.scanner;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.rules.IToken;
+import org.eclipse.jface.text.rules.ITokenScanner;
+import org.eclipse.jface.text.rules.Token;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
+import org.keplerproject.ldt.ui.editors.lex.TokenBuffer;
+import org.keplerproject.ldt.ui.editors.lex.sym;
+
+/**
+ * Code scanner that does not scan: it reads the tokens of the range from the
+ * document's {@link LuaTokenModel} and only decides how each one looks.
+ * Words are read once into a reusable buffer and looked up in a
+ * {@link LuaWordTable}, filled like a word rule's.
+ * 
+ * @version $Id$
+ */
+public class LuaTokenScanner implements ITokenScanner, sym {
+	private final LuaWordTable words = new LuaWordTable();
+
+	private char[] word = new char[16];
+
+	private final IToken wordToken;
+
+	private final IToken stringToken;
+
+	private final IToken commentToken;
+
+	private final IToken defaultToken = new Token(null);
+
+	private final TokenBuffer tokens = new TokenBuffer();
+
+	private IDocument document;
+
+	private int index;
+
+	private int pos;
+
+	private int end;
+
+	private int tokenOffset;
+
+	private int tokenLength;
+
+	/**
+	 * @param word
+	 *            the token of words not added with {@link #addWord}
+	 */
+	public LuaTokenScanner(IToken word, IToken string, IToken comment) {
+		this.wordToken = word;
+		this.stringToken = string;
+		this.commentToken = comment;
+	}
+
+	public void addWord(String word, IToken token) {
+		words.addWord(word, token);
+	}
+
+	public void setRange(IDocument document, int offset, int length) {
+		this.document = document;
+		tokens.clear();
+		// documents not made by the Lua document provider have no tokens
+		LuaTokenModel model = LuaTokenModel.getModel(document);
+		if (model != null)
+			model.getTokens(offset, length, tokens);
+		index = 0;
+		pos = offset;
+		end = offset + length;
+		tokenOffset = offset;
+		tokenLength = 0;
+	}
+
+	public IToken nextToken() {
+		tokenOffset = pos;
+		if (pos >= end) {
+			tokenLength = 0;
+			return Token.EOF;
+		}
+		if (index < tokens.size() && tokens.getOffset(index) <= pos) {
+			pos = Math.min(tokens.getEnd(index), end);
+			tokenLength = pos - tokenOffset;
+			return getToken(index++);
+		}
+		// white space up to the next token
+		pos = index < tokens.size() ? Math.min(tokens.getOffset(index), end)
+				: end;
+		tokenLength = pos - tokenOffset;
+		return defaultToken;
+	}
+
+	public int getTokenOffset() {
+		return tokenOffset;
+	}
+
+	public int getTokenLength() {
+		return tokenLength;
+	}
+
+	private IToken getToken(int i) {
+		switch (tokens.getType(i)) {
+		case STRING_LITERAL:
+		case MULTILINE_STRING:
+			return stringToken;
+		case COMMENT:
+		case MLCOMMENT:
+			return commentToken;
+		case IDENTIFIER:
+		case AND:
+		case BREAK:
+		case DO:
+		case ELSE:
+		case ELSEIF:
+		case END:
+		case BOOLEAN_LITERAL:
+		case FOR:
+		case FUNCTION:
+		case IF:
+		case IN:
+		case LOCAL:
+		case NIL:
+		case NOT:
+		case OR:
+		case REPEAT:
+		case RETURN:
+		case THEN:
+		case UNTIL:
+		case WHILE:
+			return getWordToken(tokens.getOffset(i), tokens.getLength(i));
+		default:
+			return defaultToken;
+		}
+	}
+
+	private IToken getWordToken(int offset, int length) {
+		if (length > words.getMaxLength())
+			return wordToken;
+		if (length > word.length)
+			word = new char[length];
+		try {
+			for (int i = 0; i < length; i++)
+				word[i] = document.getChar(offset + i);
+		} catch (BadLocationException e) {
+			return wordToken;
+		}
+		IToken token = words.getToken(word, length);
+		return token != null ? token : wordToken;
+	}
+}
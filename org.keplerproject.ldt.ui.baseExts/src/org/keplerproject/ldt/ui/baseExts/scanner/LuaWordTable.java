@@ -0,0 +1,144 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.baseExts.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jface.text.rules.IToken;
+
+/**
+ * Maps the words that get their own colour, the {@link ILuaSyntax} word sets,
+ * to their tokens. Lookups take the word as characters in a caller's buffer
+ * and go through a perfect hash, so classifying an identifier allocates
+ * nothing and costs one hash and one comparison.
+ * <p>
+ * The hash is recomputed on the first lookup after words were added.
+ * 
+ * @version $Id$
+ */
+public class LuaWordTable {
+	private static final int GOLDEN = 0x9E3779B9;
+
+	private final List<String> words = new ArrayList<String>();
+
+	private final List<IToken> tokens = new ArrayList<IToken>();
+
+	private char[][] keys;
+
+	private IToken[] values;
+
+	private int multiplier;
+
+	private int shift;
+
+	private int maxLength;
+
+	public void addWord(String word, IToken token) {
+		int i = words.indexOf(word);
+		if (i >= 0) {
+			tokens.set(i, token);
+		} else {
+			words.add(word);
+			tokens.add(token);
+		}
+		keys = null;
+	}
+
+	/**
+	 * @return the length of the longest word, longer words need not be read
+	 */
+	public int getMaxLength() {
+		if (keys == null)
+			build();
+		return maxLength;
+	}
+
+	/**
+	 * @return the token of the word in <code>word[0..length)</code>, or
+	 *         <code>null</code> if it is not in the table
+	 */
+	public IToken getToken(char[] word, int length) {
+		if (keys == null)
+			build();
+		if (length > maxLength || length == 0)
+			return null;
+		int slot = slot(word, length, multiplier, shift);
+		char[] key = keys[slot];
+		if (key == null || key.length != length)
+			return null;
+		for (int i = 0; i < length; i++)
+			if (key[i] != word[i])
+				return null;
+		return values[slot];
+	}
+
+	private static int slot(char[] word, int length, int multiplier,
+			int shift) {
+		int h = length;
+		for (int i = 0; i < length; i++)
+			h = h * multiplier + word[i];
+		return (h * GOLDEN) >>> shift;
+	}
+
+	/* looks for a multiplier that sends every word to its own slot */
+	private void build() {
+		int count = words.size();
+		char[][] chars = new char[count][];
+		maxLength = 0;
+		for (int i = 0; i < count; i++) {
+			chars[i] = words.get(i).toCharArray();
+			maxLength = Math.max(maxLength, chars[i].length);
+		}
+
+		int bits = 1;
+		while ((1 << bits) < count * 2)
+			bits++;
+		for (;; bits++) {
+			int size = 1 << bits;
+			char[][] slots = new char[size][];
+			for (int m = 31; m < 31 + 4096; m += 2) {
+				Arrays.fill(slots, null);
+				boolean perfect = true;
+				for (int i = 0; i < count && perfect; i++) {
+					int s = slot(chars[i], chars[i].length, m, 32 - bits);
+					if (slots[s] != null)
+						perfect = false;
+					slots[s] = chars[i];
+				}
+				if (perfect) {
+					IToken[] tokenSlots = new IToken[size];
+					for (int i = 0; i < count; i++)
+						tokenSlots[slot(chars[i], chars[i].length, m,
+								32 - bits)] = tokens.get(i);
+					multiplier = m;
+					shift = 32 - bits;
+					values = tokenSlots;
+					keys = slots;
+					return;
+				}
+			}
+		}
+	}
+}
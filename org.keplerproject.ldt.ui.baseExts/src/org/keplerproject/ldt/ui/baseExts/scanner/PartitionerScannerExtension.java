@@ -27,20 +27,26 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentPartitioner;
 import org.eclipse.jface.text.rules.IPredicateRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.Token;
+import org.keplerproject.ldt.ui.editors.LuaPartitioner;
+import org.keplerproject.ldt.ui.editors.ext.ILuaPartitionerExtension;
 import org.keplerproject.ldt.ui.editors.ext.IScannerRuleExtension;
 import org.keplerproject.ldt.ui.text.rules.LuaMultilineCommentrule;
 import org.keplerproject.ldt.ui.text.rules.LuaMultilineStringrule;
 /**
- *  Base partitioner extension point implementation
+ *  Base partitioner extension point implementation. Documents are partitioned
+ *  by a {@link LuaPartitioner}, which knows long brackets of every level; the
+ *  rules are kept for the editors that partition through rules.
  *  
  * @author guilherme
  * @version $Id$
  * 
  */
-public class PartitionerScannerExtension implements IScannerRuleExtension ,ILuaSyntax{
+public class PartitionerScannerExtension implements IScannerRuleExtension,
+		ILuaPartitionerExtension, ILuaSyntax {
 	private IToken[] fTokens = new IToken[]{};
 
 	private IPredicateRule[] fRules;
@@ -73,4 +79,9 @@ public class PartitionerScannerExtension implements IScannerRuleExtension ,ILuaS
 		return this.fTokens;
 	}
 
+	public IDocumentPartitioner createPartitioner() {
+		return new LuaPartitioner(ILuaPartitions.LUA_STRING,
+				ILuaPartitions.LUA_MULTI_LINE_COMMENT);
+	}
+
 }
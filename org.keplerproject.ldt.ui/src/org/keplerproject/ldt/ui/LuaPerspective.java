@@ -4,6 +4,7 @@ import org.eclipse.ui.IFolderLayout;
 import org.eclipse.ui.IPageLayout;
 import org.eclipse.ui.IPerspectiveFactory;
 import org.eclipse.ui.console.IConsoleConstants;
+import org.keplerproject.ldt.ui.views.LuaBuildStatisticsView;
 import org.keplerproject.ldt.ui.wizards.LuaFileWizard;
 import org.keplerproject.ldt.ui.wizards.LuaProjectWizard;
 
@@ -90,6 +91,7 @@ public class LuaPerspective implements IPerspectiveFactory {
 		factory.addShowViewShortcut(IPageLayout.ID_RES_NAV);
 		factory.addShowViewShortcut(IPageLayout.ID_PROBLEM_VIEW);
 		factory.addShowViewShortcut(IPageLayout.ID_OUTLINE);
+		factory.addShowViewShortcut(LuaBuildStatisticsView.VIEW_ID);
 	}
 
 
@@ -49,8 +49,11 @@ public class LuaChangeListener
     public void resourceChanged(IResourceChangeEvent event)
     {
     	try{
-    		if (event.getType()==IResourceChangeEvent.PRE_BUILD)
-    			event.getDelta().accept(new LuaResourceDeltaVisitor());
+    		if (event.getType()==IResourceChangeEvent.PRE_BUILD) {
+    			LuaResourceDeltaVisitor visitor = new LuaResourceDeltaVisitor();
+    			event.getDelta().accept(visitor);
+    			visitor.applyMarkers(null);
+    		}
         }
         catch(CoreException coreexception) { }
     }
@@ -0,0 +1,66 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.editors;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
+import org.eclipse.jface.text.rules.ITokenScanner;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
+
+/**
+ * A damager for Lua code. The document's {@link LuaTokenModel} keeps the
+ * lexical state at the start of every line and knows which lines a change
+ * made it scan again, so the damage is those lines: the changed ones and the
+ * following ones whose start state changed. Unlike
+ * {@link DefaultDamagerRepairer} it does not give up and damage the whole
+ * partition when the partitioning changed, which on a large file repainted
+ * everything after a bracket was typed.
+ * 
+ * @version $Id$
+ */
+public class LuaDamagerRepairer extends DefaultDamagerRepairer {
+
+	public LuaDamagerRepairer(ITokenScanner scanner) {
+		super(scanner);
+	}
+
+	public IRegion getDamageRegion(ITypedRegion partition, DocumentEvent e,
+			boolean documentPartitioningChanged) {
+		LuaTokenModel model = LuaTokenModel.getModel(fDocument);
+		IRegion changed = model != null ? model.getChangedRegion(e) : null;
+		if (changed == null)
+			return super.getDamageRegion(partition, e,
+					documentPartitioningChanged);
+
+		int start = Math.max(partition.getOffset(), changed.getOffset());
+		int end = Math.min(partition.getOffset() + partition.getLength(),
+				changed.getOffset() + changed.getLength());
+		if (end < start)
+			// nothing in this partition was scanned again
+			return new Region(partition.getOffset(), 0);
+		return new Region(start, end - start);
+	}
+}
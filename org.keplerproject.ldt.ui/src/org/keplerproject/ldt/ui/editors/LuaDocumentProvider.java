@@ -24,9 +24,12 @@
 package org.keplerproject.ldt.ui.editors;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentPartitioner;
 import org.eclipse.jface.text.rules.FastPartitioner;
@@ -34,7 +37,9 @@ import org.eclipse.jface.text.rules.IPredicateRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.ui.editors.text.FileDocumentProvider;
 import org.keplerproject.ldt.ui.LDTUIPlugin;
+import org.keplerproject.ldt.ui.editors.ext.ILuaPartitionerExtension;
 import org.keplerproject.ldt.ui.editors.ext.IScannerRuleExtension;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
 
 /**
  *  Lua Editor Document Provider.
@@ -70,9 +75,17 @@ public class LuaDocumentProvider extends FileDocumentProvider {
 			extensionLists.toArray(ruleExt);
 			if(ruleExt == null)
 				return document;
+			
+			// an extension partitioning by itself wins over the rules
+			IDocumentPartitioner partitioner = null;
+			Object partitionerExt = null;
 				
 			for(int i = 0 ; i < ruleExt.length; i++)
 			{
+				if(partitioner == null && ruleExt[i] instanceof ILuaPartitionerExtension) {
+					partitioner = ((ILuaPartitionerExtension) ruleExt[i]).createPartitioner();
+					partitionerExt = ruleExt[i];
+				}
 				IPredicateRule[] rules = ruleExt[i].getRules();
 				//Add the rules to the Scanner.
 				lscanner.addRules(rules);
@@ -93,14 +106,29 @@ public class LuaDocumentProvider extends FileDocumentProvider {
 			// convert to String Array
 			String [] contentTypesStr = new String[contentTypes.size()];
 			contentTypes.toArray(contentTypesStr);
+
+			// the rules of the other extensions must not be lost
+			if(partitioner != null && !Arrays.asList(
+					partitioner.getLegalContentTypes()).containsAll(contentTypes)) {
+				LDTUIPlugin.getDefault().getLog().log(new Status(
+						IStatus.WARNING, "org.keplerproject.ldt.ui", IStatus.OK,
+						"The partitioner of " + partitionerExt.getClass().getName()
+						+ " is not used: other scanner rule extensions add content types it does not know",
+						null));
+				partitioner = null;
+			}
 					    
 			// Create a FastDocumentPartitioner with the scanner
-			IDocumentPartitioner partitioner =
-				new FastPartitioner(
-					lscanner , contentTypesStr);
+			if(partitioner == null)
+				partitioner =
+					new FastPartitioner(
+						lscanner , contentTypesStr);
 			// Connect the document wiht the partitioner
 			partitioner.connect(document);
 			document.setDocumentPartitioner(partitioner);
+
+			// the tokens, listening ahead of the viewer
+			LuaTokenModel.connect(document);
 		}
 		return document;
 	}
@@ -21,9 +21,12 @@ package org.keplerproject.ldt.ui.editors;
 import java.util.Map;
 import java.util.ResourceBundle;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.jface.action.Action;
+import org.eclipse.jface.text.ITextListener;
+import org.eclipse.jface.text.TextEvent;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.text.source.IVerticalRuler;
@@ -41,6 +44,7 @@ import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.ui.texteditor.ITextEditorActionConstants;
 import org.eclipse.ui.texteditor.ITextEditorActionDefinitionIds;
 import org.eclipse.ui.views.contentoutline.IContentOutlinePage;
+import org.keplerproject.ldt.core.LuaIndexManager;
 import org.keplerproject.ldt.ui.LDTUIPlugin;
 
 /**
@@ -100,6 +104,12 @@ public class LuaEditor extends AbstractDecoratedTextEditor {
 		setSourceViewerConfiguration(sourceViewer);
 		super.init(site, input);
 
+		// the documentation of the script is wanted now, not after the
+		// rest of the workspace
+		IFile file = (IFile) input.getAdapter(IFile.class);
+		if (file != null)
+			LuaIndexManager.getDefault().prioritize(file);
+
 	}
 
 	/**
@@ -194,6 +204,13 @@ public class LuaEditor extends AbstractDecoratedTextEditor {
 		// turn projection mode on
 		viewer.doOperation(ProjectionViewer.TOGGLE);
 
+		// background indexing waits while the user types
+		viewer.addTextListener(new ITextListener() {
+			public void textChanged(TextEvent event) {
+				LuaIndexManager.getDefault().userActive();
+			}
+		});
+
 		annotationModel = viewer.getProjectionAnnotationModel();
 	}
 
@@ -26,6 +26,7 @@ import java.util.ResourceBundle;
 
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.IMenuManager;
+import org.eclipse.jface.action.IStatusLineManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchActionConstants;
@@ -44,6 +45,8 @@ public class LuaEditorActionContributor extends TextEditorActionContributor {
 
 	private RetargetTextEditorAction fContentAssistProposal;
 
+	private LuaIndexStatusItem fIndexStatus;
+
 	public LuaEditorActionContributor() {
 		super();
 		ResourceBundle bundle = LDTUIPlugin.getDefault().getResourceBundle();
@@ -61,6 +64,19 @@ public class LuaEditorActionContributor extends TextEditorActionContributor {
 		super.contributeToMenu(menu);
 	}
 	
+	public void contributeToStatusLine(IStatusLineManager statusLineManager) {
+		super.contributeToStatusLine(statusLineManager);
+
+		fIndexStatus = new LuaIndexStatusItem();
+		statusLineManager.add(fIndexStatus);
+	}
+
+	public void dispose() {
+		if (fIndexStatus != null)
+			fIndexStatus.dispose();
+		super.dispose();
+	}
+
 	public void setActiveEditor(IEditorPart part) {
 		super.setActiveEditor(part);
 		
@@ -22,14 +22,10 @@
 */
 package org.keplerproject.ldt.ui.editors;
 
-import java.io.IOException;
-import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
@@ -42,8 +38,8 @@ import org.eclipse.jface.text.reconciler.IReconcilingStrategy;
 import org.eclipse.jface.text.reconciler.IReconcilingStrategyExtension;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
 import org.eclipse.swt.widgets.Display;
-import org.keplerproject.ldt.ui.editors.lex.Scanner;
-import org.keplerproject.ldt.ui.editors.lex.Symbol;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
+import org.keplerproject.ldt.ui.editors.lex.TokenBuffer;
 import org.keplerproject.ldt.ui.editors.lex.sym;
 
 
@@ -69,6 +65,9 @@ public class LuaFoldingReconcilingStrategy implements IReconcilingStrategy,
 
 	private int cNextPos;
 
+	// the document's tokens, reused between reconciles
+	private final TokenBuffer tokens = new TokenBuffer();
+
 	public void setDocument(IDocument document) {
 		this.doc = document;
 	}
@@ -103,27 +102,6 @@ public class LuaFoldingReconcilingStrategy implements IReconcilingStrategy,
 	private Map newAnnotations;
 
 	
-	protected void registerFunction(String line) {
-		Pattern p1 = Pattern.compile("function\\s+(\\w+)\\s*?[(]([^)]*?)[)]");
-		Pattern p2 = Pattern.compile("(\\w+)\\s*?[=]\\s*?function\\s*?[(]([^)]*?)[)]");
-		Matcher m = p1.matcher(line);	
-		Matcher n = p2.matcher(line);	
-
-		boolean foundStraight=false;
-		boolean foundLambda=false;
-		foundLambda = n.find() || (foundStraight = m.find());
-				
-		while(foundStraight || foundLambda) { 
-			String functionName = foundStraight ? m.group(1) : n.group(1);
-			String parameters = foundStraight ? m.group(2) : n.group(2);
-			
-			System.out.println("Function:"+functionName);
-			System.out.println("Parameters:"+parameters);
-			
-			foundLambda = n.find() || (foundStraight = m.find());
-		} 
-	}
-	
 	protected void calculatePositions() {
 //		if (reditor.isDirty())
 //			return;
@@ -139,8 +117,6 @@ public class LuaFoldingReconcilingStrategy implements IReconcilingStrategy,
 			findNextFunction(cNextPos);
 		} catch (BadLocationException e) {
 			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 
 		Display.getDefault().asyncExec(new Runnable() {
@@ -152,14 +128,11 @@ public class LuaFoldingReconcilingStrategy implements IReconcilingStrategy,
 		});
 	}
 
-	private void findNextFunction(int nextPos) throws BadLocationException,
-			IOException {
+	private void findNextFunction(int nextPos) throws BadLocationException {
 		cNextPos = nextPos;
 		// int funcInit = -1;
 
 		Stack stk = new Stack();
-		// boolean onMultStr = false;
-		int onMultStr = 0;
 		boolean elseIf = false;
 
 		while (cNextPos < fRangeEnd) {
@@ -190,76 +163,59 @@ public class LuaFoldingReconcilingStrategy implements IReconcilingStrategy,
 
 		}
 
-		Scanner scanner = new Scanner(new StringReader(doc.get()));
-		Symbol symbol = scanner.yylex();
+		tokens.clear();
+		LuaTokenModel model = LuaTokenModel.getModel(doc);
+		if (model != null)
+			model.getTokens(tokens);
+
+		for (int i = 0; i < tokens.size(); i++) {
+			int type = tokens.getType(i);
+			if (type != sym.DO && type != sym.FUNCTION && type != sym.THEN
+					&& type != sym.ELSEIF && type != sym.END)
+				continue;
+			IRegion lineRegion = doc.getLineInformationOfOffset(tokens
+					.getOffset(i));
+
+			if (type == sym.DO || type == sym.FUNCTION) {
+				stk.push(new Object[] { lineRegion, new Integer(type) });
+			} else if (type == sym.THEN) {
+				if (elseIf)
+					elseIf = false;
+				else
+					stk.push(new Object[] { lineRegion, new Integer(type) });
+			} else if (type == sym.ELSEIF) {
+				elseIf = true;
+			} else if (type == sym.END) {
+				if (stk.empty())
+					return;
+
+				Object[] stkContent = (Object[]) stk.pop();
+				IRegion lReg = (IRegion) stkContent[0];
+
+				if (((Integer) stkContent[1]).intValue() != sym.FUNCTION
+						|| lReg.getOffset() == lineRegion.getOffset())
+					continue;
 
-		if (symbol.sym == sym.EOF) {
-			cNextPos += 2;
-			return;
-		}
+				int breakCount = 0;
+				if (lineRegion.getOffset() + 3 + 1 < doc.getLength()) {
+					char lineb1 = doc
+							.getChar(lineRegion.getOffset() + 3);
+					char lineb2 = doc
+							.getChar(lineRegion.getOffset() + 3 + 1);
 
-		while (symbol.sym != sym.EOF) {
-			//symbol.left -1 (because jflex return line starting at 1 instead of 0)
-			IRegion lineRegion = doc.getLineInformation(symbol.left -1);
-			
-			if (symbol.sym == sym.FUNCTION) {
-				String functionName = doc.get(lineRegion.getOffset(), lineRegion.getLength());
-				registerFunction(functionName);
-			}
-			
-			
-			if (onMultStr == 0) {
-				if (symbol.sym == sym.DO || symbol.sym == sym.FUNCTION) {
-					stk.push(new Object[] { lineRegion, symbol });
-				} else if (symbol.sym == sym.THEN) {
-					if (elseIf)
-						elseIf = false;
-					else
-						stk.push(new Object[] { lineRegion, symbol });
-				} else if (symbol.sym == sym.ELSEIF) {
-					elseIf = true;
-				} else if (symbol.sym == sym.END) {
-					if (stk.empty())
-						return;
-
-					Object[] stkContent = (Object[]) stk.pop();
-					IRegion lReg = (IRegion) stkContent[0];
-
-					if (((Symbol) stkContent[1]).sym != sym.FUNCTION
-							|| lReg.getOffset() == lineRegion.getOffset()) {
-						symbol = scanner.yylex();
-						continue;
-					}
-
-					int breakCount = 0;
-					if (lineRegion.getOffset() + 3 + 1 < doc.getLength()) {
-						char lineb1 = doc
-								.getChar(lineRegion.getOffset() + 3);
-						char lineb2 = doc
-								.getChar(lineRegion.getOffset() + 3 + 1);
-
-						if (lineb1 == '\r' && lineb2 == '\n')
-							// Windows
-							breakCount = 2;
-						else if (lineb1 == '\r' || lineb1 == '\n')
-							breakCount = 1;
-					}
-					// Dont ask me to explain this right now..
-					emitPosition(lReg.getOffset(), lineRegion
-							.getOffset()
-							+ lineRegion.getLength()
-							- lReg.getOffset()
-							+ breakCount);
-
-				} else if (symbol.sym == sym.DBLBRACK) {
-					onMultStr++;
+					if (lineb1 == '\r' && lineb2 == '\n')
+						// Windows
+						breakCount = 2;
+					else if (lineb1 == '\r' || lineb1 == '\n')
+						breakCount = 1;
 				}
-			} else if (symbol.sym == sym.DBRBRACK) {
-				onMultStr--;
-			} else if (symbol.sym == sym.DBLBRACK)
-				onMultStr++;
-
-			symbol = scanner.yylex();
+				// Dont ask me to explain this right now..
+				emitPosition(lReg.getOffset(), lineRegion
+						.getOffset()
+						+ lineRegion.getLength()
+						- lReg.getOffset()
+						+ breakCount);
+			}
 		}
 
 	}
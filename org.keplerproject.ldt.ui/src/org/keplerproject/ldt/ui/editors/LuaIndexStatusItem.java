@@ -0,0 +1,102 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.editors;
+
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.texteditor.StatusLineContributionItem;
+import org.keplerproject.ldt.core.LuaIndexManager;
+
+/**
+ * Shows in the status line of the Lua editors how many scripts the
+ * {@link LuaIndexManager} still has to index. However often the manager
+ * reports changes, at most one update waits for the display at a time.
+ *
+ * @version $Id$
+ */
+public class LuaIndexStatusItem extends StatusLineContributionItem implements
+		LuaIndexManager.Listener {
+
+	public static final String ID = "org.keplerproject.ldt.ui.indexStatus";
+
+	private final Display display;
+
+	// guarded by this, true while an update is posted to the display
+	private boolean updatePosted;
+
+	private volatile boolean disposed;
+
+	private final Runnable refresh = new Runnable() {
+		public void run() {
+			synchronized (LuaIndexStatusItem.this) {
+				updatePosted = false;
+			}
+			showStatus();
+		}
+	};
+
+	public LuaIndexStatusItem() {
+		super(ID, true, 24);
+		display = Display.getCurrent();
+		LuaIndexManager.getDefault().addListener(this);
+		showStatus();
+	}
+
+	public void indexStatusChanged(LuaIndexManager manager) {
+		synchronized (this) {
+			if (updatePosted)
+				return;
+			updatePosted = true;
+		}
+		if (!display.isDisposed())
+			display.asyncExec(refresh);
+	}
+
+	private void showStatus() {
+		if (disposed)
+			return;
+
+		LuaIndexManager manager = LuaIndexManager.getDefault();
+		int depth = manager.getQueueDepth();
+
+		switch (manager.getState()) {
+		case LuaIndexManager.STATE_INDEXING:
+			setText("Indexing Lua (" + depth + ")");
+			setToolTipText(depth + " Lua scripts left to index");
+			break;
+		case LuaIndexManager.STATE_WAITING:
+			setText("Lua index waiting (" + depth + ")");
+			setToolTipText(depth
+					+ " Lua scripts will be indexed once the build is over and the editor idle");
+			break;
+		default:
+			setText("");
+			setToolTipText(null);
+		}
+	}
+
+	public void dispose() {
+		disposed = true;
+		LuaIndexManager.getDefault().removeListener(this);
+		super.dispose();
+	}
+}
@@ -0,0 +1,574 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.keplerproject.ldt.ui.editors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentPartitioner;
+import org.eclipse.jface.text.IDocumentPartitionerExtension;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TypedRegion;
+
+/**
+ * Partitions Lua documents into long strings, <code>[[ ... ]]</code> or
+ * <code>[==[ ... ]==]</code> at any level, long comments,
+ * <code>--[[ ... ]]</code> at any level, and code. Short strings and line
+ * comments are left in the code; they are only skipped so that the brackets
+ * they hold are not taken for long ones.
+ * <p>
+ * The lexical state at the start of every line is kept: code, or inside a
+ * long string or comment of a given level. A change is lexed again from the
+ * start of its first line, and only until a line after the change starts in
+ * the state it started in before; the partitions after that are only
+ * shifted. A long bracket left open runs to the end of the document.
+ * <p>
+ * A short string continued on the next line by a backslash is taken to end
+ * with its line.
+ * 
+ * @version $Id$
+ */
+public class LuaPartitioner implements IDocumentPartitioner,
+		IDocumentPartitionerExtension {
+
+	// the states a line can start in; inside a long bracket of level n the
+	// state is STRING + 2n or COMMENT + 2n
+	private static final int CODE = 0;
+
+	private static final int STRING = 1;
+
+	private static final int COMMENT = 2;
+
+	// content type of each kind of partition, CODE first
+	private final String[] contentTypes;
+
+	private IDocument document;
+
+	// the state at the start of each line
+	private int[] lineStates = new int[256];
+
+	private int lineCount;
+
+	// the long strings and comments, in document order
+	private final Regions regions = new Regions();
+
+	// the lines the text about to be replaced spans, -1 if unknown
+	private int changeFirstLine = -1;
+
+	private int changeLastLine;
+
+	/**
+	 * @param stringType
+	 *            the content type of long strings
+	 * @param commentType
+	 *            the content type of long comments
+	 */
+	public LuaPartitioner(String stringType, String commentType) {
+		contentTypes = new String[] { IDocument.DEFAULT_CONTENT_TYPE,
+				stringType, commentType };
+	}
+
+	public void connect(IDocument document) {
+		this.document = document;
+		repartition();
+	}
+
+	public void disconnect() {
+		document = null;
+	}
+
+	public String[] getLegalContentTypes() {
+		return contentTypes.clone();
+	}
+
+	public void documentAboutToBeChanged(DocumentEvent event) {
+		try {
+			changeFirstLine = document.getLineOfOffset(event.getOffset());
+			changeLastLine = document.getLineOfOffset(event.getOffset()
+					+ event.getLength());
+		} catch (BadLocationException e) {
+			changeFirstLine = -1;
+		}
+	}
+
+	public boolean documentChanged(DocumentEvent event) {
+		return documentChanged2(event) != null;
+	}
+
+	public IRegion documentChanged2(DocumentEvent event) {
+		try {
+			if (changeFirstLine >= 0)
+				return update(event);
+		} catch (BadLocationException e) {
+		}
+		repartition();
+		return new Region(0, document.getLength());
+	}
+
+	/**
+	 * Lexes the whole document.
+	 */
+	private void repartition() {
+		String text = document.get();
+		lineCount = document.getNumberOfLines();
+		lineStates = new int[Math.max(lineCount, 256)];
+		regions.clear();
+
+		Lexer lexer = new Lexer(regions);
+		try {
+			for (int line = 0; line < lineCount; line++) {
+				lineStates[line] = lexer.state;
+				int offset = document.getLineOffset(line);
+				lexer.lex(text, offset, offset + document.getLineLength(line),
+						0);
+			}
+		} catch (BadLocationException e) {
+			// cannot be, the lines are those of the text
+		}
+		lexer.finish(text.length());
+	}
+
+	/**
+	 * Lexes a change from the start of its first line until the state at
+	 * the start of a line converges, and moves the partitions after it.
+	 * 
+	 * @return the region whose partitioning changed, null if none did
+	 */
+	private IRegion update(DocumentEvent event) throws BadLocationException {
+		int offset = event.getOffset();
+		int textLength = event.getText() != null ? event.getText().length()
+				: 0;
+		int delta = textLength - event.getLength();
+
+		int firstLine = changeFirstLine;
+		int lastLine = document.getLineOfOffset(offset + textLength);
+		moveLineStates(changeLastLine + 1, lastLine - changeLastLine);
+		changeFirstLine = -1;
+
+		int lineOffset = document.getLineOffset(firstLine);
+		Regions lexed = new Regions();
+		Lexer lexer = new Lexer(lexed);
+		lexer.state = lineStates[firstLine];
+
+		// the long bracket open at the start of the line is lexed again too;
+		// left open, it ends right at the start of an empty last line
+		int first = regions.firstEndingAfter(lexer.state != CODE ? lineOffset - 1
+				: lineOffset);
+		if (lexer.state != CODE)
+			lexer.openStart = regions.starts[first];
+
+		int line = firstLine;
+		boolean converged = false;
+		while (line < lineCount) {
+			int length = document.getLineLength(line);
+			lexer.lex(document.get(lineOffset, length), 0, length, lineOffset);
+			line++;
+			lineOffset += length;
+
+			if (line == lineCount)
+				break;
+			if (line > lastLine && lineStates[line] == lexer.state) {
+				converged = true;
+				break;
+			}
+			lineStates[line] = lexer.state;
+		}
+
+		// the old partitions up to where lexing stopped are replaced
+		int oldEnd = converged ? lineOffset - delta : document.getLength()
+				- delta;
+		int last = regions.firstStartingAt(oldEnd, first);
+		if (!converged)
+			lexer.finish(document.getLength());
+		else if (lexer.state != CODE)
+			// still open, it ends where it ended before
+			lexer.close(regions.ends[last - 1] + delta);
+
+		int changedStart = lineOffset;
+		int changedEnd = -1;
+		if (!regions.matches(first, last, lexed, offset, delta)) {
+			changedStart = document.getLineOffset(firstLine);
+			changedEnd = lineOffset;
+			if (first < last) {
+				changedStart = Math.min(changedStart, regions.starts[first]);
+				changedEnd = Math.max(changedEnd, regions.ends[last - 1]
+						+ delta);
+			}
+			if (lexed.count > 0) {
+				changedStart = Math.min(changedStart, lexed.starts[0]);
+				changedEnd = Math.max(changedEnd, lexed.ends[lexed.count - 1]);
+			}
+		}
+
+		regions.replace(first, last, lexed, delta);
+		return changedEnd >= 0 ? new Region(changedStart, changedEnd
+				- changedStart) : null;
+	}
+
+	/**
+	 * Moves the states of the lines from a line on, by as many lines as were
+	 * added, or removed if negative.
+	 */
+	private void moveLineStates(int from, int lines) {
+		int newCount = lineCount + lines;
+		if (newCount > lineStates.length) {
+			int[] grown = new int[Math.max(newCount, lineStates.length * 2)];
+			System.arraycopy(lineStates, 0, grown, 0, from);
+			System.arraycopy(lineStates, from, grown, from + lines, lineCount
+					- from);
+			lineStates = grown;
+		} else {
+			System.arraycopy(lineStates, from, lineStates, from + lines,
+					lineCount - from);
+		}
+		lineCount = newCount;
+	}
+
+	public String getContentType(int offset) {
+		return getPartition(offset).getType();
+	}
+
+	public ITypedRegion getPartition(int offset) {
+		int length = document.getLength();
+		int i = regions.indexAt(offset);
+		if (i >= 0
+				&& (offset < regions.ends[i] || (offset == length && regions.ends[i] == length)))
+			return new TypedRegion(regions.starts[i], regions.ends[i]
+					- regions.starts[i], contentTypes[regions.types[i]]);
+
+		int start = i >= 0 ? regions.ends[i] : 0;
+		int end = i + 1 < regions.count ? regions.starts[i + 1] : length;
+		return new TypedRegion(start, end - start, contentTypes[CODE]);
+	}
+
+	public ITypedRegion[] computePartitioning(int offset, int length) {
+		if (length == 0)
+			return new ITypedRegion[] { new TypedRegion(offset, 0,
+					getContentType(offset)) };
+
+		List<ITypedRegion> partitions = new ArrayList<ITypedRegion>();
+		int end = offset + length;
+		int pos = offset;
+		for (int i = Math.max(regions.indexAt(offset), 0); i < regions.count
+				&& regions.starts[i] < end; i++) {
+			if (regions.ends[i] <= pos)
+				continue;
+			if (regions.starts[i] > pos) {
+				partitions.add(new TypedRegion(pos, regions.starts[i] - pos,
+						contentTypes[CODE]));
+				pos = regions.starts[i];
+			}
+			int regionEnd = Math.min(regions.ends[i], end);
+			partitions.add(new TypedRegion(pos, regionEnd - pos,
+					contentTypes[regions.types[i]]));
+			pos = regionEnd;
+		}
+		if (pos < end)
+			partitions.add(new TypedRegion(pos, end - pos, contentTypes[CODE]));
+
+		return partitions.toArray(new ITypedRegion[partitions.size()]);
+	}
+
+	/**
+	 * Lexes lines, collecting the long strings and comments.
+	 */
+	private static final class Lexer {
+		final Regions out;
+
+		int state = CODE;
+
+		// where the long bracket the state is in was opened
+		int openStart;
+
+		Lexer(Regions out) {
+			this.out = out;
+		}
+
+		/**
+		 * Lexes one line.
+		 * 
+		 * @param text
+		 *            holds the line
+		 * @param from
+		 *            where the line starts in the text
+		 * @param to
+		 *            where it ends, after its delimiter
+		 * @param base
+		 *            the offset of the text in the document
+		 */
+		void lex(CharSequence text, int from, int to, int base) {
+			int i = from;
+			while (i < to) {
+				if (state != CODE) {
+					int close = findClose(text, i, to, (state - 1) / 2);
+					if (close < 0)
+						return;
+					close(base + close);
+					i = close;
+					continue;
+				}
+
+				char c = text.charAt(i);
+				if (c == '-' && i + 1 < to && text.charAt(i + 1) == '-') {
+					int level = openLevel(text, i + 2, to);
+					if (level < 0)
+						return; // a line comment
+					openStart = base + i;
+					state = COMMENT + 2 * level;
+					i += level + 4;
+				} else if (c == '[') {
+					int level = openLevel(text, i, to);
+					if (level < 0) {
+						i++;
+						continue;
+					}
+					openStart = base + i;
+					state = STRING + 2 * level;
+					i += level + 2;
+				} else if (c == '"' || c == '\'') {
+					i = skipString(text, i + 1, to, c);
+				} else {
+					i++;
+				}
+			}
+		}
+
+		/**
+		 * Ends the long bracket the state is in.
+		 */
+		void close(int end) {
+			out.add(openStart, end, 2 - state % 2);
+			state = CODE;
+		}
+
+		/**
+		 * Ends the long bracket left open at the end of the document, if any.
+		 */
+		void finish(int length) {
+			if (state != CODE)
+				close(length);
+		}
+
+		/**
+		 * @return the level of the long bracket opening at a position, -1 if
+		 *         there is none
+		 */
+		private static int openLevel(CharSequence text, int i, int to) {
+			if (i >= to || text.charAt(i) != '[')
+				return -1;
+			int j = i + 1;
+			while (j < to && text.charAt(j) == '=')
+				j++;
+			return j < to && text.charAt(j) == '[' ? j - i - 1 : -1;
+		}
+
+		/**
+		 * @return the position after the first closing long bracket of a
+		 *         level, -1 if there is none
+		 */
+		private static int findClose(CharSequence text, int i, int to,
+				int level) {
+			for (; i < to; i++) {
+				if (text.charAt(i) != ']')
+					continue;
+				int j = i + 1;
+				while (j < to && text.charAt(j) == '=')
+					j++;
+				if (j - i - 1 == level && j < to && text.charAt(j) == ']')
+					return j + 1;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the position after a short string, or the end of its line
+		 */
+		private static int skipString(CharSequence text, int i, int to,
+				char quote) {
+			while (i < to) {
+				char c = text.charAt(i);
+				if (c == '\\')
+					i += 2;
+				else if (c == quote)
+					return i + 1;
+				else if (c == '\n' || c == '\r')
+					return i;
+				else
+					i++;
+			}
+			return to;
+		}
+	}
+
+	/**
+	 * Sorted, disjoint regions with their kind, STRING or COMMENT.
+	 */
+	private static final class Regions {
+		int[] starts = new int[16];
+
+		int[] ends = new int[16];
+
+		byte[] types = new byte[16];
+
+		int count;
+
+		void clear() {
+			count = 0;
+		}
+
+		void add(int start, int end, int type) {
+			if (count == starts.length)
+				grow(count * 2);
+			starts[count] = start;
+			ends[count] = end;
+			types[count] = (byte) type;
+			count++;
+		}
+
+		private void grow(int capacity) {
+			int[] s = new int[capacity];
+			int[] e = new int[capacity];
+			byte[] t = new byte[capacity];
+			System.arraycopy(starts, 0, s, 0, count);
+			System.arraycopy(ends, 0, e, 0, count);
+			System.arraycopy(types, 0, t, 0, count);
+			starts = s;
+			ends = e;
+			types = t;
+		}
+
+		/**
+		 * @return the last region starting at or before an offset, -1 if
+		 *         none does
+		 */
+		int indexAt(int offset) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= offset)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return high;
+		}
+
+		/**
+		 * @return the first region ending after an offset
+		 */
+		int firstEndingAfter(int offset) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (ends[mid] > offset)
+					high = mid;
+				else
+					low = mid + 1;
+			}
+			return low;
+		}
+
+		/**
+		 * @return the first region from an index on starting at or after an
+		 *         offset
+		 */
+		int firstStartingAt(int offset, int from) {
+			int low = from;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] >= offset)
+					high = mid;
+				else
+					low = mid + 1;
+			}
+			return low;
+		}
+
+		/**
+		 * @return true if some regions, moved by a change at an offset, are
+		 *         those of another list
+		 */
+		boolean matches(int from, int to, Regions other, int offset, int delta) {
+			if (to - from != other.count)
+				return false;
+			for (int i = from; i < to; i++) {
+				int j = i - from;
+				if (types[i] != other.types[j]
+						|| move(starts[i], offset, delta) != other.starts[j]
+						|| move(ends[i], offset, delta) != other.ends[j])
+					return false;
+			}
+			return true;
+		}
+
+		private static int move(int position, int offset, int delta) {
+			return position < offset ? position : position + delta;
+		}
+
+		/**
+		 * Replaces some regions with those of another list, moving the
+		 * regions after them.
+		 */
+		void replace(int from, int to, Regions with, int delta) {
+			int newCount = count - (to - from) + with.count;
+			if (newCount > starts.length) {
+				int[] s = new int[Math.max(newCount, starts.length * 2)];
+				int[] e = new int[s.length];
+				byte[] t = new byte[s.length];
+				System.arraycopy(starts, 0, s, 0, from);
+				System.arraycopy(ends, 0, e, 0, from);
+				System.arraycopy(types, 0, t, 0, from);
+				System.arraycopy(starts, to, s, from + with.count, count - to);
+				System.arraycopy(ends, to, e, from + with.count, count - to);
+				System.arraycopy(types, to, t, from + with.count, count - to);
+				starts = s;
+				ends = e;
+				types = t;
+			} else {
+				System.arraycopy(starts, to, starts, from + with.count, count
+						- to);
+				System.arraycopy(ends, to, ends, from + with.count, count - to);
+				System.arraycopy(types, to, types, from + with.count, count
+						- to);
+			}
+			System.arraycopy(with.starts, 0, starts, from, with.count);
+			System.arraycopy(with.ends, 0, ends, from, with.count);
+			System.arraycopy(with.types, 0, types, from, with.count);
+			count = newCount;
+
+			for (int i = from + with.count; i < count; i++) {
+				starts[i] += delta;
+				ends[i] += delta;
+			}
+		}
+	}
+}
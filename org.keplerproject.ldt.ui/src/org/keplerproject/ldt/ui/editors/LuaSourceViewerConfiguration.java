@@ -203,7 +203,7 @@ public class LuaSourceViewerConfiguration extends TextSourceViewerConfiguration
 
 
 	public ITextHover getTextHover(ISourceViewer sourceViewer, String contentType) {
-		return new LuaTextHover();
+		return new LuaTextHover(editor);
 	}
 	
 	/***
@@ -22,6 +22,7 @@
 */
 package org.keplerproject.ldt.ui.editors;
 
+import org.eclipse.core.resources.IResource;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DefaultInformationControl;
 import org.eclipse.jface.text.IInformationControl;
@@ -33,6 +34,8 @@ import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.information.IInformationProviderExtension2;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.IEditorPart;
+import org.keplerproject.ldt.core.LuaProject;
 import org.keplerproject.ldt.core.luadoc.LuadocGenerator;
 import org.keplerproject.ldt.ui.text.lua.LuaWordFinder;
 
@@ -48,6 +51,16 @@ import org.keplerproject.ldt.ui.text.lua.LuaWordFinder;
  */
 
 public class LuaTextHover implements ITextHover, IInformationProviderExtension2 {
+
+	// the editor hovered, its project's documentation comes first
+	private IEditorPart editor;
+
+	public LuaTextHover() {
+	}
+
+	public LuaTextHover(IEditorPart editor) {
+		this.editor = editor;
+	}
 	
 	/* (non-Javadoc)
 	 * Method declared on ITextHover
@@ -68,7 +81,13 @@ public class LuaTextHover implements ITextHover, IInformationProviderExtension2
 			
 			// TODO: obtain from a central engine the right documentation for this code element
 			LuadocGenerator lg = LuadocGenerator.getInstance();
-			String documentationText = lg.getDocumentationText(token);
+			String documentationText = lg.getDocumentationText(getProjectName(), token);
+
+			if (documentationText == null) {
+				LuaProject.scheduleLoadAll();
+				if (!LuaProject.areIndexesReady())
+					return "Lua documentation is still being loaded...";
+			}
 			
 			//Work around a small buglet in the HTML presenter that doesn't
 			//force a break on <h*> tags.  This messes up the presentation.
@@ -84,6 +103,13 @@ public class LuaTextHover implements ITextHover, IInformationProviderExtension2
 		return null;
 	}
 	
+	private String getProjectName() {
+		if (editor == null)
+			return null;
+		IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+		return resource != null ? resource.getProject().getName() : null;
+	}
+
 	/* (non-Javadoc)
 	 * Method declared on ITextHover
 	 */
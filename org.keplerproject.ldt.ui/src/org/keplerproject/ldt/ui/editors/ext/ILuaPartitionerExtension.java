@@ -0,0 +1,47 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.keplerproject.ldt.ui.editors.ext;
+
+import org.eclipse.jface.text.IDocumentPartitioner;
+
+/**
+ * Implemented by the {@link IScannerRuleExtension}s that partition the Lua
+ * documents themselves rather than through their rules. The partitioner of
+ * the first such extension is used, and the rules of every extension are
+ * then ignored for partitioning, as long as it knows every content type the
+ * extensions of the editor contribute. Otherwise, when another extension
+ * adds content types of its own, a warning is logged and the documents are
+ * partitioned through the rules of every extension as if none implemented
+ * this interface.
+ * 
+ * @version $Id$
+ */
+public interface ILuaPartitionerExtension {
+
+	/**
+	 * @return a new partitioner, not yet connected, whose legal content types
+	 *         include the data of the tokens of the extension
+	 */
+	IDocumentPartitioner createPartitioner();
+}
@@ -0,0 +1,69 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.editors.lex;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * Lets a document be read as a {@link CharSequence} without copying its
+ * contents. Characters are fetched from the document on demand, so the
+ * sequence always reflects the current text.
+ * 
+ * @version $Id$
+ */
+public class DocumentCharSequence implements CharSequence {
+	private final IDocument document;
+
+	public DocumentCharSequence(IDocument document) {
+		this.document = document;
+	}
+
+	public IDocument getDocument() {
+		return document;
+	}
+
+	public char charAt(int index) {
+		try {
+			return document.getChar(index);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+	}
+
+	public int length() {
+		return document.getLength();
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		try {
+			return document.get(start, end - start);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(start + "-" + end);
+		}
+	}
+
+	public String toString() {
+		return document.get();
+	}
+}
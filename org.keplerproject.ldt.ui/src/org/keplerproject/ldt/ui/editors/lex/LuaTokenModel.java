@@ -0,0 +1,350 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.editors.lex;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * The tokens of a Lua document, shared by everything that needs to know
+ * them: highlighting, folding, the outline and completion. There is one model
+ * per document, connected by the document provider when it creates the
+ * document, see {@link #connect(IDocument)}.
+ * <p>
+ * The model keeps the tokens of every line together with the lexical state
+ * at the line start. When the document changes, only the changed lines are
+ * scanned again, followed by the lines whose start state changed as a
+ * result, until the state agrees with the one recorded before the change.
+ * The model listens to the document before the viewer and the other
+ * listeners do, so it is already up to date when they are told about a
+ * change.
+ * <p>
+ * Queries copy tokens out into a caller's {@link TokenBuffer} and never look
+ * at the document, so they may be made from a reconciler thread.
+ * 
+ * @version $Id$
+ */
+public class LuaTokenModel implements IDocumentListener, sym {
+	private static final Map<IDocument, WeakReference<LuaTokenModel>> models = new WeakHashMap<IDocument, WeakReference<LuaTokenModel>>();
+
+	private static final int[] NO_TOKENS = new int[0];
+
+	/**
+	 * Creates the token model of a document and has it listen to the
+	 * document. Only the owner of the document may call it, on the thread
+	 * that changes the document and before anything else listens to it. The
+	 * model lives as long as the document does.
+	 * 
+	 * @return the model of the document
+	 */
+	public static LuaTokenModel connect(IDocument document) {
+		synchronized (models) {
+			LuaTokenModel model = getModel(document);
+			if (model == null) {
+				model = new LuaTokenModel(document);
+				models.put(document, new WeakReference<LuaTokenModel>(model));
+			}
+			return model;
+		}
+	}
+
+	/**
+	 * @return the token model of a document, or <code>null</code> if none
+	 *         was connected to it
+	 */
+	public static LuaTokenModel getModel(IDocument document) {
+		synchronized (models) {
+			WeakReference<LuaTokenModel> ref = models.get(document);
+			return ref == null ? null : ref.get();
+		}
+	}
+
+	private final IDocument document;
+
+	private final Scanner scanner;
+
+	private final TokenBuffer scratch = new TokenBuffer();
+
+	private int lineCount;
+
+	private int[] lineOffsets = new int[64];
+
+	private int[] lineStates = new int[64];
+
+	/* per line: type, offset from the line start and length of each token */
+	private int[][] lineTokens = new int[64][];
+
+	/* the change announced by documentAboutToBeChanged, -1 if unknown */
+	private int changeFirstLine = -1;
+
+	private int changeLastLine;
+
+	private long stamp;
+
+	/* the last change and the range of the lines it relexed */
+	private DocumentEvent lastEvent;
+
+	private int lastChangeStart;
+
+	private int lastChangeEnd;
+
+	private LuaTokenModel(IDocument document) {
+		this.document = document;
+		this.scanner = new Scanner(document);
+		synchronized (this) {
+			document.addDocumentListener(this);
+			relexAll();
+		}
+	}
+
+	public IDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * @return a number that changes every time the tokens do
+	 */
+	public synchronized long getStamp() {
+		return stamp;
+	}
+
+	public synchronized int getLineCount() {
+		return lineCount;
+	}
+
+	public synchronized int getLineOffset(int line) {
+		return lineOffsets[line];
+	}
+
+	/**
+	 * @return the {@link Scanner} state at the start of the line
+	 */
+	public synchronized int getLineState(int line) {
+		return lineStates[line];
+	}
+
+	/**
+	 * @return the line holding the offset, as the model knows the document
+	 */
+	public synchronized int getLineOfOffset(int offset) {
+		int low = 0;
+		int high = lineCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (lineOffsets[mid] <= offset)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Appends the tokens overlapping <code>[offset, offset + length)</code>.
+	 * A long string or comment comes as one token per line.
+	 */
+	public synchronized void getTokens(int offset, int length,
+			TokenBuffer tokens) {
+		int end = offset + length;
+		for (int line = getLineOfOffset(offset); line < lineCount
+				&& lineOffsets[line] < end; line++) {
+			int base = lineOffsets[line];
+			int[] t = lineTokens[line];
+			for (int i = 0; i < t.length; i += 3) {
+				int start = base + t[i + 1];
+				if (start >= end)
+					break;
+				if (start + t[i + 2] > offset)
+					tokens.add(t[i], start, t[i + 2]);
+			}
+		}
+	}
+
+	/**
+	 * Appends all tokens of the document.
+	 */
+	public synchronized void getTokens(TokenBuffer tokens) {
+		for (int line = 0; line < lineCount; line++) {
+			int base = lineOffsets[line];
+			int[] t = lineTokens[line];
+			for (int i = 0; i < t.length; i += 3)
+				tokens.add(t[i], base + t[i + 1], t[i + 2]);
+		}
+	}
+
+	/**
+	 * Appends a {@link sym#FUNCTION} token covering the name of every
+	 * function declared as <code>function name(</code> at the very start of
+	 * a line.
+	 */
+	public synchronized void getFunctionDeclarations(TokenBuffer declarations) {
+		for (int line = 0; line < lineCount; line++) {
+			int[] t = lineTokens[line];
+			if (t.length >= 9 && t[0] == FUNCTION && t[1] == 0
+					&& t[3] == IDENTIFIER && t[6] == LPAREN)
+				declarations.add(FUNCTION, lineOffsets[line] + t[4], t[5]);
+		}
+	}
+
+	/**
+	 * Returns the lines that had to be scanned again after a change: the
+	 * changed lines, and after them the lines whose start state changed.
+	 * Tokens outside this region are the same as before the change.
+	 * 
+	 * @return the region of those lines, or <code>null</code> if
+	 *         <code>event</code> is not the last change of the document
+	 */
+	public synchronized IRegion getChangedRegion(DocumentEvent event) {
+		if (event != lastEvent)
+			return null;
+		return new Region(lastChangeStart, lastChangeEnd - lastChangeStart);
+	}
+
+	public synchronized void documentAboutToBeChanged(DocumentEvent event) {
+		try {
+			changeFirstLine = document.getLineOfOffset(event.getOffset());
+			// an edit at a line start may change the delimiter before it
+			if (changeFirstLine > 0
+					&& document.getLineOffset(changeFirstLine) == event.getOffset())
+				changeFirstLine--;
+			changeLastLine = document.getLineOfOffset(event.getOffset()
+					+ event.getLength());
+		} catch (BadLocationException e) {
+			changeFirstLine = -1;
+		}
+	}
+
+	public synchronized void documentChanged(DocumentEvent event) {
+		int first = changeFirstLine;
+		changeFirstLine = -1;
+		lastEvent = event;
+		stamp++;
+		if (first < 0 || first >= lineCount || changeLastLine >= lineCount) {
+			relexAll();
+			return;
+		}
+		try {
+			update(event, first, changeLastLine);
+		} catch (BadLocationException e) {
+			relexAll();
+		}
+	}
+
+	private void update(DocumentEvent event, int first, int oldLast)
+			throws BadLocationException {
+		String text = event.getText();
+		int delta = (text == null ? 0 : text.length()) - event.getLength();
+		int newLast = document.getLineOfOffset(event.getOffset()
+				+ (text == null ? 0 : text.length()));
+		int newCount = document.getNumberOfLines();
+
+		// make room for the changed lines, the ones after them keep their
+		// tokens and start states and only move
+		int tail = lineCount - oldLast - 1;
+		ensureCapacity(newCount);
+		System.arraycopy(lineOffsets, oldLast + 1, lineOffsets, newLast + 1,
+				tail);
+		System.arraycopy(lineStates, oldLast + 1, lineStates, newLast + 1,
+				tail);
+		System.arraycopy(lineTokens, oldLast + 1, lineTokens, newLast + 1,
+				tail);
+		for (int line = newLast + 1; line < newCount; line++)
+			lineOffsets[line] += delta;
+		for (int line = newCount; line < lineCount; line++)
+			lineTokens[line] = null;
+		lineCount = newCount;
+
+		int state = lineStates[first];
+		int line = first;
+		for (; line < newCount; line++) {
+			if (line > newLast && lineStates[line] == state)
+				break;
+			state = lex(line, state);
+		}
+		lastChangeStart = lineOffsets[first];
+		lastChangeEnd = line < newCount ? lineOffsets[line] : document
+				.getLength();
+	}
+
+	private void relexAll() {
+		int count = document.getNumberOfLines();
+		ensureCapacity(count);
+		for (int line = count; line < lineCount; line++)
+			lineTokens[line] = null;
+		lineCount = count;
+		int state = Scanner.YYINITIAL;
+		lastChangeStart = 0;
+		lastChangeEnd = document.getLength();
+		try {
+			for (int line = 0; line < count; line++)
+				state = lex(line, state);
+		} catch (BadLocationException e) {
+			// the document changed under us, the next change relexes
+			changeFirstLine = -1;
+		}
+	}
+
+	/* scans a line starting in the given state, returns the state after it */
+	private int lex(int line, int state) throws BadLocationException {
+		int offset = document.getLineOffset(line);
+		int length = document.getLineLength(line);
+		lineOffsets[line] = offset;
+		lineStates[line] = state;
+
+		scratch.clear();
+		state = scanner.scan(offset, offset + length, state, scratch);
+
+		int count = scratch.size();
+		int[] t = count == 0 ? NO_TOKENS : new int[count * 3];
+		for (int i = 0, j = 0; i < count; i++) {
+			t[j++] = scratch.getType(i);
+			t[j++] = scratch.getOffset(i) - offset;
+			t[j++] = scratch.getLength(i);
+		}
+		lineTokens[line] = t;
+		return state;
+	}
+
+	private void ensureCapacity(int count) {
+		if (count <= lineOffsets.length)
+			return;
+		int size = Math.max(count, lineOffsets.length * 2);
+		int[] offsets = new int[size];
+		System.arraycopy(lineOffsets, 0, offsets, 0, lineCount);
+		lineOffsets = offsets;
+		int[] states = new int[size];
+		System.arraycopy(lineStates, 0, states, 0, lineCount);
+		lineStates = states;
+		int[][] tokens = new int[size][];
+		System.arraycopy(lineTokens, 0, tokens, 0, lineCount);
+		lineTokens = tokens;
+	}
+}
@@ -22,934 +22,463 @@
 */
 package org.keplerproject.ldt.ui.editors.lex;
 
-/* The following code was generated by JFlex 1.4_pre3 on 03/11/06 23:48 */
-
-
+import org.eclipse.jface.text.IDocument;
 
 /**
- * This class is a scanner generated by 
- * <a href="http://www.jflex.de/">JFlex</a> 1.4_pre3
- * on 03/11/06 23:48 from the specification file
- * <tt>file:/C:/prj/kepler/luaeclipse/flex/lua.flex</tt>
+ * The Lua lexer. It reads straight from a {@link CharSequence} (or from an
+ * {@link IDocument} through {@link DocumentCharSequence}) without copying
+ * the text, and it can be resumed at the start of any line.
+ * <p>
+ * The only lexical state that survives a line break is being inside a long
+ * bracket, so the state at a line start is a single <code>int</code>:
+ * {@link #YYINITIAL}, or {@link #LONG_STRING} / {@link #LONG_COMMENT} plus
+ * twice the bracket level (<code>[==[</code> is level 2). Keep the value of
+ * {@link #getState()} after each line and hand it back to
+ * {@link #setRange(int, int, int)} to re-lex from that line only:
+ * 
+ * <pre>
+ * scanner.setRange(lineOffset, nextLineOffset, lineStates[line]);
+ * while ((type = scanner.nextToken()) != sym.EOF)
+ * 	...
+ * lineStates[line + 1] = scanner.getState();
+ * </pre>
+ * 
+ * A long string or comment that spans lines is returned as one token per
+ * range. A short string ends with its line, even after a backslash, and
+ * characters Lua does not know become {@link sym#ERROR} tokens.
+ * 
  * @version $Id$
  */
 public class Scanner implements sym {
-
-  /** This character denotes the end of file */
-  public static final int YYEOF = -1;
-
-  /** initial size of the lookahead buffer */
-  private static final int YY_BUFFERSIZE = 16384;
-
-  /** lexical states */
-  public static final int STRING = 1;
-  public static final int YYINITIAL = 0;
-  public static final int CHARLITERAL = 2;
-
-  /** 
-   * Translates characters to character classes
-   */
-  private static final String yycmap_packed = 
-    "\11\0\1\3\1\2\1\0\1\3\1\1\22\0\1\3\1\0\1\15"+
-    "\2\0\1\57\1\0\1\16\1\42\1\43\1\55\1\14\1\50\1\4"+
-    "\1\12\1\56\1\11\11\10\1\47\1\46\1\53\1\51\1\52\2\0"+
-    "\4\7\1\13\25\7\1\5\1\17\1\6\1\0\1\7\1\0\1\20"+
-    "\1\23\1\35\1\22\1\25\1\33\1\7\1\40\1\32\1\7\1\26"+
-    "\1\30\1\7\1\21\1\27\1\37\1\7\1\24\1\31\1\36\1\34"+
-    "\1\7\1\41\3\7\1\44\1\0\1\45\1\54\uff81\0";
-
-  /** 
-   * Translates characters to character classes
-   */
-  private static final char [] yycmap = yy_unpack_cmap(yycmap_packed);
-
-
-  /** 
-   * Translates a state to a row index in the transition table (packed version)
-   */
-  final private static String yy_rowMap_packed = 
-    "\0\0\0\60\0\140\0\220\0\300\0\220\0\360\0\u0120\0\u0150\0\u0180"+
-    "\0\u01b0\0\u01e0\0\u0210\0\220\0\220\0\220\0\u0240\0\u0270\0\u02a0\0\u02d0"+
-    "\0\u0300\0\u0330\0\u0360\0\u0390\0\u03c0\0\u03f0\0\u0420\0\u0450\0\u0480\0\220"+
-    "\0\220\0\220\0\220\0\220\0\220\0\220\0\u04b0\0\u04e0\0\u0510\0\u0540"+
-    "\0\220\0\220\0\220\0\u0570\0\u05a0\0\220\0\220\0\u05d0\0\u0600\0\u0630"+
-    "\0\220\0\220\0\u0660\0\u0690\0\u06c0\0\220\0\u06f0\0\u0720\0\u01e0\0\u0750"+
-    "\0\u0780\0\u07b0\0\u0180\0\u07e0\0\u0810\0\u0840\0\u0870\0\u0180\0\u08a0\0\u0180"+
-    "\0\u0180\0\u08d0\0\u0900\0\u0930\0\u0960\0\u0990\0\u09c0\0\u09f0\0\220\0\220"+
-    "\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\220"+
-    "\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\220\0\u0a20"+
-    "\0\u0a50\0\u06c0\0\u0a80\0\u0ab0\0\u0ab0\0\u0180\0\u0180\0\u0180\0\u0ae0\0\u0b10"+
-    "\0\u0b40\0\u0180\0\u0b70\0\u0ba0\0\u0bd0\0\u0180\0\u0c00\0\u0c30\0\u0c60\0\u0c90"+
-    "\0\u0cc0\0\u0cf0\0\u0d20\0\u0d50\0\u0d80\0\u0db0\0\u0de0\0\u0e10\0\u0e40\0\u0e70"+
-    "\0\u0ea0\0\u0180\0\u0180\0\u0ed0\0\u0cf0\0\u0f00\0\u0f30\0\u0f60\0\220\0\u0180"+
-    "\0\u0f90\0\u0fc0\0\u0ff0\0\u0180\0\u0180\0\u1020\0\u0180\0\u0180\0\u0f30\0\u1050"+
-    "\0\u0180\0\u0180\0\u0180\0\u1080\0\u10b0\0\u10e0\0\u0180";
-
-  /** 
-   * Translates a state to a row index in the transition table
-   */
-  final private static int [] yy_rowMap = yy_unpack_rowMap(yy_rowMap_packed);
-
-
-  /** 
-   * Unpacks the compressed row translation table.
-   *
-   * @param packed   the packed row translation table
-   * @return         the unpacked row translation table
-   */
-  private static int [] yy_unpack_rowMap(String packed) {
-    int [] map = new int[314];
-    int i = 0;  /* index in packed string  */
-    int j = 0;  /* index in unpacked array */
-    while (i < 314) {
-      int high = ((int) packed.charAt(i++)) << 16;
-      map[j++] = high | packed.charAt(i++);
-    }
-    return map;
-  }
-  /** 
-   * The packed transition table of the DFA (part 0)
-   */
-  private static final String yy_packed0 = 
-    "\1\4\1\5\2\6\1\7\1\10\1\11\1\12\1\13"+
-    "\1\14\1\15\1\12\1\16\1\17\1\20\1\4\1\21"+
-    "\1\22\1\23\1\24\1\25\1\26\1\12\1\27\1\30"+
-    "\1\12\1\31\1\32\1\33\1\12\1\34\2\12\1\35"+
-    "\1\36\1\37\1\40\1\41\1\42\1\43\1\44\1\45"+
-    "\1\46\1\47\1\50\1\51\1\52\1\53\1\54\1\55"+
-    "\1\56\12\54\1\57\1\54\1\60\40\54\1\61\1\62"+
-    "\1\63\13\61\1\64\1\65\40\61\62\0\1\6\61\0"+
-    "\1\66\60\0\1\67\60\0\1\70\60\0\3\12\1\0"+
-    "\1\12\4\0\22\12\26\0\2\13\1\71\1\72\11\0"+
-    "\1\72\42\0\2\73\1\71\1\72\11\0\1\72\42\0"+
-    "\2\71\55\0\3\12\1\0\1\12\4\0\1\12\1\74"+
-    "\20\12\25\0\3\12\1\0\1\12\4\0\7\12\1\75"+
-    "\2\12\1\76\7\12\25\0\3\12\1\0\1\12\4\0"+
-    "\7\12\1\77\12\12\25\0\3\12\1\0\1\12\4\0"+
-    "\4\12\1\100\15\12\25\0\3\12\1\0\1\12\4\0"+
-    "\5\12\1\101\14\12\25\0\3\12\1\0\1\12\4\0"+
-    "\1\12\1\102\6\12\1\103\11\12\25\0\3\12\1\0"+
-    "\1\12\4\0\4\12\1\104\15\12\25\0\3\12\1\0"+
-    "\1\12\4\0\7\12\1\105\12\12\25\0\3\12\1\0"+
-    "\1\12\4\0\1\12\1\106\11\12\1\107\6\12\25\0"+
-    "\3\12\1\0\1\12\4\0\1\110\6\12\1\111\4\12"+
-    "\1\112\5\12\25\0\3\12\1\0\1\12\4\0\1\12"+
-    "\1\113\20\12\25\0\3\12\1\0\1\12\4\0\4\12"+
-    "\1\114\13\12\1\115\1\12\25\0\3\12\1\0\1\12"+
-    "\4\0\20\12\1\116\1\12\67\0\1\117\57\0\1\120"+
-    "\57\0\1\121\57\0\1\122\6\0\1\54\2\0\12\54"+
-    "\1\0\1\54\1\0\40\54\2\0\1\56\55\0\2\123"+
-    "\1\0\12\123\1\124\1\125\1\126\1\123\1\127\1\123"+
-    "\1\130\1\131\6\123\1\132\2\123\1\133\21\123\1\61"+
-    "\2\0\13\61\2\0\40\61\2\0\1\63\55\0\2\123"+
-    "\1\0\12\123\1\134\1\135\1\136\1\123\1\137\1\123"+
-    "\1\140\1\141\6\123\1\142\2\123\1\143\21\123\1\144"+
-    "\1\5\1\6\2\144\1\145\52\144\6\146\1\147\51\146"+
-    "\10\0\2\71\1\0\1\72\11\0\1\72\36\0\1\150"+
-    "\3\0\2\151\2\0\1\150\52\0\3\12\1\0\1\12"+
-    "\4\0\2\12\1\152\17\12\25\0\3\12\1\0\1\12"+
-    "\4\0\16\12\1\153\3\12\25\0\3\12\1\0\1\12"+
-    "\4\0\10\12\1\154\11\12\25\0\3\12\1\0\1\12"+
-    "\4\0\5\12\1\155\14\12\25\0\3\12\1\0\1\12"+
-    "\4\0\16\12\1\156\1\157\2\12\25\0\3\12\1\0"+
-    "\1\12\4\0\2\12\1\160\17\12\25\0\3\12\1\0"+
-    "\1\12\4\0\11\12\1\161\10\12\25\0\3\12\1\0"+
-    "\1\12\4\0\15\12\1\162\4\12\25\0\3\12\1\0"+
-    "\1\12\4\0\10\12\1\163\11\12\25\0\3\12\1\0"+
-    "\1\12\4\0\4\12\1\164\15\12\25\0\3\12\1\0"+
-    "\1\12\4\0\1\12\1\165\20\12\25\0\3\12\1\0"+
-    "\1\12\4\0\16\12\1\166\3\12\25\0\3\12\1\0"+
-    "\1\12\4\0\14\12\1\167\5\12\25\0\3\12\1\0"+
-    "\1\12\4\0\5\12\1\170\14\12\25\0\3\12\1\0"+
-    "\1\12\4\0\12\12\1\171\7\12\16\0\1\144\1\5"+
-    "\1\6\56\144\1\5\1\6\2\144\1\172\52\144\6\146"+
-    "\1\173\51\146\10\0\2\151\55\0\3\12\1\0\1\12"+
-    "\4\0\1\174\21\12\25\0\3\12\1\0\1\12\4\0"+
-    "\14\12\1\175\5\12\25\0\3\12\1\0\1\12\4\0"+
-    "\5\12\1\176\14\12\25\0\3\12\1\0\1\12\4\0"+
-    "\5\12\1\177\14\12\25\0\3\12\1\0\1\12\4\0"+
-    "\1\200\21\12\25\0\3\12\1\0\1\12\4\0\11\12"+
-    "\1\201\10\12\25\0\3\12\1\0\1\12\4\0\15\12"+
-    "\1\202\4\12\25\0\3\12\1\0\1\12\4\0\12\12"+
-    "\1\203\7\12\25\0\3\12\1\0\1\12\4\0\5\12"+
-    "\1\204\14\12\25\0\3\12\1\0\1\12\4\0\1\12"+
-    "\1\205\20\12\25\0\3\12\1\0\1\12\4\0\10\12"+
-    "\1\206\11\12\16\0\1\207\1\210\1\211\3\207\1\212"+
-    "\51\207\6\0\1\213\60\0\3\12\1\0\1\12\4\0"+
-    "\6\12\1\214\13\12\25\0\3\12\1\0\1\12\4\0"+
-    "\4\12\1\215\15\12\25\0\3\12\1\0\1\12\4\0"+
-    "\1\216\21\12\25\0\3\12\1\0\1\12\4\0\12\12"+
-    "\1\217\7\12\25\0\3\12\1\0\1\12\4\0\10\12"+
-    "\1\220\11\12\25\0\3\12\1\0\1\12\4\0\5\12"+
-    "\1\221\14\12\25\0\3\12\1\0\1\12\4\0\16\12"+
-    "\1\222\3\12\25\0\3\12\1\0\1\12\4\0\10\12"+
-    "\1\223\11\12\25\0\3\12\1\0\1\12\4\0\5\12"+
-    "\1\224\14\12\16\0\2\225\1\211\3\225\1\226\57\225"+
-    "\1\226\51\225\1\207\1\210\1\211\3\207\1\144\51\207"+
-    "\7\0\3\12\1\0\1\12\4\0\1\12\1\227\20\12"+
-    "\25\0\3\12\1\0\1\12\4\0\16\12\1\230\3\12"+
-    "\25\0\3\12\1\0\1\12\4\0\13\12\1\231\6\12"+
-    "\25\0\3\12\1\0\1\12\4\0\12\12\1\232\7\12"+
-    "\16\0\6\225\1\233\51\225\7\0\3\12\1\0\1\12"+
-    "\4\0\7\12\1\234\12\12\24\0\1\6\60\0\3\12"+
-    "\1\0\1\12\4\0\1\12\1\235\20\12\16\0";
-
-  /** 
-   * The transition table of the DFA
-   */
-  private static final int yytrans [] = yy_unpack();
-
-
-  /* error codes */
-  private static final int YY_UNKNOWN_ERROR = 0;
-  private static final int YY_NO_MATCH = 2;
-
-  /* error messages for the codes above */
-  private static final String YY_ERROR_MSG[] = {
-    "Unkown internal scanner error",
-    "Internal error: unknown state",
-    "Error: could not match input",
-    "Error: pushback value was too large"
-  };
-
-  /**
-   * YY_ATTRIBUTE[aState] contains the attributes of state <code>aState</code>
-   */
-  private static final byte YY_ATTRIBUTE[] = {
-     0,  0,  0,  9,  1,  9,  1,  1,  1,  1,  1,  1,  1,  9,  9,  9, 
-     1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  9,  9,  9, 
-     9,  9,  9,  9,  1,  1,  1,  1,  9,  9,  9,  1,  1,  9,  9,  1, 
-     1,  1,  9,  9,  1,  1,  1,  9,  1,  0,  1,  1,  1,  1,  1,  1, 
-     1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  9,  9, 
-     9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9,  9, 
-     9,  9,  9,  1,  1,  0,  0,  0,  1,  1,  1,  1,  1,  1,  1,  1, 
-     1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  1, 
-     1,  1,  1,  1,  1,  1,  1,  1,  1,  1,  9,  1,  1,  1,  1,  1, 
-     1,  1,  1,  1,  0,  0,  1,  1,  1,  1,  1,  1,  1
-  };
-
-  /** the input device */
-  private java.io.Reader yy_reader;
-
-  /** the current state of the DFA */
-  private int yy_state;
-
-  /** the current lexical state */
-  private int yy_lexical_state = YYINITIAL;
-
-  /** this buffer contains the current text to be matched and is
-      the source of the yytext() string */
-  private char yy_buffer[] = new char[YY_BUFFERSIZE];
-
-  /** the textposition at the last accepting state */
-  private int yy_markedPos;
-
-  /** the textposition at the last state to be included in yytext */
-  private int yy_pushbackPos;
-
-  /** the current text position in the buffer */
-  private int yy_currentPos;
-
-  /** startRead marks the beginning of the yytext() string in the buffer */
-  private int yy_startRead;
-
-  /** endRead marks the last character in the buffer, that has been read
-      from input */
-  private int yy_endRead;
-
-  /** number of newlines encountered up to the start of the matched text */
-  private int yyline;
-
-  /**
-   * the number of characters from the last newline up to the start of the 
-   * matched text
-   */
-  private int yycolumn; 
-
-  /** yy_atEOF == true <=> the scanner is at the EOF */
-  private boolean yy_atEOF;
-
-  /* user code: */
-  StringBuffer string = new StringBuffer();
-  
-  private Symbol symbol(int type) {
-    return new Symbol(type, yyline+1, yycolumn+1);
-  }
-
-  private Symbol symbol(int type, Object value) {
-    return new Symbol(type, yyline+1, yycolumn+1, value);
-  }
-
-
-
-  /**
-   * Creates a new scanner
-   * There is also a java.io.InputStream version of this constructor.
-   *
-   * @param   in  the java.io.Reader to read input from.
-   */
-  public Scanner(java.io.Reader in) {
-    this.yy_reader = in;
-  }
-
-  /**
-   * Creates a new scanner.
-   * There is also java.io.Reader version of this constructor.
-   *
-   * @param   in  the java.io.Inputstream to read input from.
-   */
-  public Scanner(java.io.InputStream in) {
-    this(new java.io.InputStreamReader(in));
-  }
-
-  /** 
-   * Unpacks the split, compressed DFA transition table.
-   *
-   * @return the unpacked transition table
-   */
-  private static int [] yy_unpack() {
-    int [] trans = new int[4368];
-    int offset = 0;
-    offset = yy_unpack(yy_packed0, offset, trans);
-    return trans;
-  }
-
-  /** 
-   * Unpacks the compressed DFA transition table.
-   *
-   * @param packed   the packed transition table
-   * @return         the index of the last entry
-   */
-  private static int yy_unpack(String packed, int offset, int [] trans) {
-    int i = 0;       /* index in packed string  */
-    int j = offset;  /* index in unpacked array */
-    int l = packed.length();
-    while (i < l) {
-      int count = packed.charAt(i++);
-      int value = packed.charAt(i++);
-      value--;
-      do trans[j++] = value; while (--count > 0);
-    }
-    return j;
-  }
-
-  /** 
-   * Unpacks the compressed character translation table.
-   *
-   * @param packed   the packed character translation table
-   * @return         the unpacked character translation table
-   */
-  private static char [] yy_unpack_cmap(String packed) {
-    char [] map = new char[0x10000];
-    int i = 0;  /* index in packed string  */
-    int j = 0;  /* index in unpacked array */
-    while (i < 136) {
-      int  count = packed.charAt(i++);
-      char value = packed.charAt(i++);
-      do map[j++] = value; while (--count > 0);
-    }
-    return map;
-  }
-
-
-  /**
-   * Refills the input buffer.
-   *
-   * @return      <code>false</code>, iff there was new input.
-   * 
-   * @exception   IOException  if any I/O-Error occurs
-   */
-  private boolean yy_refill() throws java.io.IOException {
-
-    /* first: make room (if you can) */
-    if (yy_startRead > 0) {
-      System.arraycopy(yy_buffer, yy_startRead, 
-                       yy_buffer, 0, 
-                       yy_endRead-yy_startRead);
-
-      /* translate stored positions */
-      yy_endRead-= yy_startRead;
-      yy_currentPos-= yy_startRead;
-      yy_markedPos-= yy_startRead;
-      yy_pushbackPos-= yy_startRead;
-      yy_startRead = 0;
-    }
-
-    /* is the buffer big enough? */
-    if (yy_currentPos >= yy_buffer.length) {
-      /* if not: blow it up */
-      char newBuffer[] = new char[yy_currentPos*2];
-      System.arraycopy(yy_buffer, 0, newBuffer, 0, yy_buffer.length);
-      yy_buffer = newBuffer;
-    }
-
-    /* finally: fill the buffer with new input */
-    int numRead = yy_reader.read(yy_buffer, yy_endRead, 
-                                            yy_buffer.length-yy_endRead);
-
-    if (numRead < 0) {
-      return true;
-    }
-    else {
-      yy_endRead+= numRead;  
-      return false;
-    }
-  }
-
-
-  /**
-   * Closes the input stream.
-   */
-  public final void yyclose() throws java.io.IOException {
-    yy_atEOF = true;            /* indicate end of file */
-    yy_endRead = yy_startRead;  /* invalidate buffer    */
-
-    if (yy_reader != null)
-      yy_reader.close();
-  }
-
-
-  /**
-   * Closes the current stream, and resets the
-   * scanner to read from a new input stream.
-   *
-   * All internal variables are reset, the old input stream 
-   * <b>cannot</b> be reused (internal buffer is discarded and lost).
-   * Lexical state is set to <tt>YY_INITIAL</tt>.
-   *
-   * @param reader   the new input stream 
-   */
-  public final void yyreset(java.io.Reader reader) throws java.io.IOException {
-    yyclose();
-    yy_reader = reader;
-    yy_atEOF  = false;
-    yy_endRead = yy_startRead = 0;
-    yy_currentPos = yy_markedPos = yy_pushbackPos = 0;
-    yy_lexical_state = YYINITIAL;
-  }
-
-
-  /**
-   * Returns the current lexical state.
-   */
-  public final int yystate() {
-    return yy_lexical_state;
-  }
-
-
-  /**
-   * Enters a new lexical state
-   *
-   * @param newState the new lexical state
-   */
-  public final void yybegin(int newState) {
-    yy_lexical_state = newState;
-  }
-
-
-  /**
-   * Returns the text matched by the current regular expression.
-   */
-  public final String yytext() {
-    return new String( yy_buffer, yy_startRead, yy_markedPos-yy_startRead );
-  }
-
-
-  /**
-   * Returns the character at position <tt>pos</tt> from the 
-   * matched text. 
-   * 
-   * It is equivalent to yytext().charAt(pos), but faster
-   *
-   * @param pos the position of the character to fetch. 
-   *            A value from 0 to yylength()-1.
-   *
-   * @return the character at position pos
-   */
-  public final char yycharat(int pos) {
-    return yy_buffer[yy_startRead+pos];
-  }
-
-
-  /**
-   * Returns the length of the matched text region.
-   */
-  public final int yylength() {
-    return yy_markedPos-yy_startRead;
-  }
-
-
-  /**
-   * Reports an error that occured while scanning.
-   *
-   * In a wellformed scanner (no or only correct usage of 
-   * yypushback(int) and a match-all fallback rule) this method 
-   * will only be called with things that "Can't Possibly Happen".
-   * If this method is called, something is seriously wrong
-   * (e.g. a JFlex bug producing a faulty scanner etc.).
-   *
-   * Usual syntax/scanner level error handling should be done
-   * in error fallback rules.
-   *
-   * @param   errorCode  the code of the errormessage to display
-   */
-  private void yy_ScanError(int errorCode) {
-    String message;
-    try {
-      message = YY_ERROR_MSG[errorCode];
-    }
-    catch (ArrayIndexOutOfBoundsException e) {
-      message = YY_ERROR_MSG[YY_UNKNOWN_ERROR];
-    }
-
-    throw new Error(message);
-  } 
-
-
-  /**
-   * Resumes scanning until the next regular expression is matched,
-   * the end of input is encountered or an I/O-Error occurs.
-   *
-   * @return      the next token
-   * @exception   IOException  if any I/O-Error occurs
-   */
-  public Symbol yylex() throws java.io.IOException {
-    int yy_input;
-    int yy_action;
-
-    // cached fields:
-    int yy_currentPos_l;
-    int yy_markedPos_l;
-    int yy_endRead_l = yy_endRead;
-    char [] yy_buffer_l = yy_buffer;
-    char [] yycmap_l = yycmap;
-
-    int [] yytrans_l = yytrans;
-    int [] yy_rowMap_l = yy_rowMap;
-    byte [] yy_attr_l = YY_ATTRIBUTE;
-
-    while (true) {
-      yy_markedPos_l = yy_markedPos;
-
-      boolean yy_r = false;
-      for (yy_currentPos_l = yy_startRead; yy_currentPos_l < yy_markedPos_l;
-                                                             yy_currentPos_l++) {
-        switch (yy_buffer_l[yy_currentPos_l]) {
-        case '\u000B':
-        case '\u000C':
-        case '\u0085':
-        case '\u2028':
-        case '\u2029':
-          yyline++;
-          yycolumn = 0;
-          yy_r = false;
-          break;
-        case '\r':
-          yyline++;
-          yycolumn = 0;
-          yy_r = true;
-          break;
-        case '\n':
-          if (yy_r)
-            yy_r = false;
-          else {
-            yyline++;
-            yycolumn = 0;
-          }
-          break;
-        default:
-          yy_r = false;
-          yycolumn++;
-        }
-      }
-
-      if (yy_r) {
-        // peek one character ahead if it is \n (if we have counted one line too much)
-        boolean yy_peek;
-        if (yy_markedPos_l < yy_endRead_l)
-          yy_peek = yy_buffer_l[yy_markedPos_l] == '\n';
-        else if (yy_atEOF)
-          yy_peek = false;
-        else {
-          boolean eof = yy_refill();
-          yy_markedPos_l = yy_markedPos;
-          yy_buffer_l = yy_buffer;
-          if (eof) 
-            yy_peek = false;
-          else 
-            yy_peek = yy_buffer_l[yy_markedPos_l] == '\n';
-        }
-        if (yy_peek) yyline--;
-      }
-      yy_action = -1;
-
-      yy_state = yy_lexical_state;
-
-
-      yy_forAction: {
-        while (true) {
-
-          if (yy_currentPos_l < yy_endRead_l)
-            yy_input = yy_buffer_l[yy_currentPos_l++];
-          else if (yy_atEOF) {
-            yy_input = YYEOF;
-            break yy_forAction;
-          }
-          else {
-            // store back cached positions
-            yy_currentPos  = yy_currentPos_l;
-            yy_markedPos   = yy_markedPos_l;
-            boolean eof = yy_refill();
-            // get translated positions and possibly new buffer
-            yy_currentPos_l  = yy_currentPos;
-            yy_markedPos_l   = yy_markedPos;
-            yy_buffer_l      = yy_buffer;
-            yy_endRead_l     = yy_endRead;
-            if (eof) {
-              yy_input = YYEOF;
-              break yy_forAction;
-            }
-            else {
-              yy_input = yy_buffer_l[yy_currentPos_l++];
-            }
-          }
-          int yy_next = yytrans_l[ yy_rowMap_l[yy_state] + yycmap_l[yy_input] ];
-          if (yy_next == -1) break yy_forAction;
-          yy_state = yy_next;
-
-          int yy_attributes = yy_attr_l[yy_state];
-          if ( (yy_attributes & 1) == 1 ) {
-            yy_action = yy_state; 
-            yy_markedPos_l = yy_currentPos_l; 
-            if ( (yy_attributes & 8) == 8 ) break yy_forAction;
-          }
-
-        }
-      }
-
-      // store back cached position
-      yy_markedPos = yy_markedPos_l;
-
-      switch (yy_action) {
-
-        case 14: 
-          {  yybegin(STRING); string.setLength(0);  }
-        case 158: break;
-        case 44: 
-        case 45: 
-          {  throw new RuntimeException("Unterminated string at end of line");  }
-        case 159: break;
-        case 152: 
-          {  return symbol(ELSEIF);  }
-        case 160: break;
-        case 151: 
-          {  return symbol(REPEAT);  }
-        case 161: break;
-        case 150: 
-          {  return symbol(RETURN);  }
-        case 162: break;
-        case 53: 
-        case 99: 
-        case 100: 
-        case 134: 
-        case 135: 
-        case 136: 
-        case 137: 
-        case 154: 
-          {  /* ignore */  }
-        case 163: break;
-        case 8: 
-          {  return symbol(RBRACK);  }
-        case 164: break;
-        case 7: 
-          {  return symbol(LBRACK);  }
-        case 165: break;
-        case 4: 
-        case 5: 
-          {  /* ignore */  }
-        case 166: break;
-        case 29: 
-          {  return symbol(LPAREN);  }
-        case 167: break;
-        case 30: 
-          {  return symbol(RPAREN);  }
-        case 168: break;
-        case 31: 
-          {  return symbol(LBRACE);  }
-        case 169: break;
-        case 32: 
-          {  return symbol(RBRACE);  }
-        case 170: break;
-        case 83: 
-          {  string.append( '\"' );  }
-        case 171: break;
-        case 84: 
-          {  string.append( '\'' );  }
-        case 172: break;
-        case 85: 
-          {  string.append( '\\' );  }
-        case 173: break;
-        case 86: 
-          {  string.append( '\n' );  }
-        case 174: break;
-        case 87: 
-          {  string.append( '\b' );  }
-        case 175: break;
-        case 88: 
-          {  string.append( '\r' );  }
-        case 176: break;
-        case 89: 
-          {  string.append( '\f' );  }
-        case 177: break;
-        case 90: 
-          {  string.append( '\t' );  }
-        case 178: break;
-        case 42: 
-          {  return symbol(MOD);  }
-        case 179: break;
-        case 41: 
-          {  return symbol(DIV);  }
-        case 180: break;
-        case 39: 
-          {  return symbol(NOT);  }
-        case 181: break;
-        case 38: 
-          {  return symbol(LT);  }
-        case 182: break;
-        case 37: 
-          {  return symbol(GT);  }
-        case 183: break;
-        case 36: 
-          {  return symbol(EQ);  }
-        case 184: break;
-        case 12: 
-          {  return symbol(DOT);  }
-        case 185: break;
-        case 62: 
-          {  return symbol(DO);  }
-        case 186: break;
-        case 67: 
-          {  return symbol(OR);  }
-        case 187: break;
-        case 69: 
-          {  return symbol(IN);  }
-        case 188: break;
-        case 70: 
-          {  return symbol(IF);  }
-        case 189: break;
-        case 105: 
-          {  return symbol(AND);  }
-        case 190: break;
-        case 106: 
-          {  return symbol(NOT);  }
-        case 191: break;
-        case 107: 
-          {  return symbol(NIL);  }
-        case 192: break;
-        case 111: 
-          {  return symbol(END);  }
-        case 193: break;
-        case 115: 
-          {  return symbol(FOR);  }
-        case 194: break;
-        case 156: 
-          {  return symbol(FUNCTION);  }
-        case 195: break;
-        case 55: 
-          {  return symbol(DBRBRACK);  }
-        case 196: break;
-        case 54: 
-          {  return symbol(DBLBRACK);  }
-        case 197: break;
-        case 33: 
-          {  return symbol(SEMICOLON);  }
-        case 198: break;
-        case 121: 
-          {  return symbol(MLCOMMENT);  }
-        case 199: break;
-        case 49: 
-        case 50: 
-          {  throw new RuntimeException("Unterminated character literal at end of line");  }
-        case 200: break;
-        case 147: 
-          {  return symbol(WHILE);  }
-        case 201: break;
-        case 146: 
-          {  return symbol(UNTIL);  }
-        case 202: break;
-        case 143: 
-          {  return symbol(LOCAL);  }
-        case 203: break;
-        case 40: 
-          {  return symbol(MULT);  }
-        case 204: break;
-        case 35: 
-          {  return symbol(COMMA);  }
-        case 205: break;
-        case 6: 
-          {  return symbol(MINUS);  }
-        case 206: break;
-        case 13: 
-          {  return symbol(PLUS);  }
-        case 207: break;
-        case 34: 
-          {  return symbol(COLON);  }
-        case 208: break;
-        case 78: 
-          {  return symbol(EQEQ);  }
-        case 209: break;
-        case 79: 
-          {  return symbol(GTEQ);  }
-        case 210: break;
-        case 80: 
-          {  return symbol(LTEQ);  }
-        case 211: break;
-        case 81: 
-          {  return symbol(NOTEQ);  }
-        case 212: break;
-        case 126: 
-          {  return symbol(ELSE);  }
-        case 213: break;
-        case 132: 
-          {  return symbol(THEN);  }
-        case 214: break;
-        case 139: 
-          {  return symbol(BREAK);  }
-        case 215: break;
-        case 9: 
-        case 16: 
-        case 17: 
-        case 18: 
-        case 19: 
-        case 20: 
-        case 21: 
-        case 22: 
-        case 23: 
-        case 24: 
-        case 25: 
-        case 26: 
-        case 27: 
-        case 28: 
-        case 59: 
-        case 60: 
-        case 61: 
-        case 63: 
-        case 64: 
-        case 65: 
-        case 66: 
-        case 68: 
-        case 71: 
-        case 72: 
-        case 73: 
-        case 74: 
-        case 75: 
-        case 76: 
-        case 77: 
-        case 108: 
-        case 109: 
-        case 110: 
-        case 112: 
-        case 113: 
-        case 114: 
-        case 116: 
-        case 117: 
-        case 118: 
-        case 119: 
-        case 120: 
-        case 123: 
-        case 124: 
-        case 125: 
-        case 127: 
-        case 128: 
-        case 129: 
-        case 130: 
-        case 133: 
-        case 140: 
-        case 141: 
-        case 142: 
-        case 145: 
-        case 153: 
-        case 155: 
-          {  return symbol(IDENTIFIER, yytext());  }
-        case 216: break;
-        case 46: 
-          {  yybegin(YYINITIAL); return symbol(STRING_LITERAL, string.toString());  }
-        case 217: break;
-        case 93: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\\'));  }
-        case 218: break;
-        case 122: 
-        case 138: 
-          {  return symbol(MULTILINE_STRING, yytext());  }
-        case 219: break;
-        case 56: 
-        case 58: 
-        case 104: 
-          {  return symbol(FLOATING_POINT_LITERAL, new Double(yytext()));  }
-        case 220: break;
-        case 144: 
-          {  return symbol(BOOLEAN_LITERAL, new Boolean(false));  }
-        case 221: break;
-        case 131: 
-          {  return symbol(BOOLEAN_LITERAL, new Boolean(true));  }
-        case 222: break;
-        case 51: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, string.toString());  }
-        case 223: break;
-        case 10: 
-        case 11: 
-          {  return symbol(INTEGER_LITERAL, new Integer(yytext()));  }
-        case 224: break;
-        case 15: 
-          {  yybegin(CHARLITERAL);  }
-        case 225: break;
-        case 91: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\'')); }
-        case 226: break;
-        case 92: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\"')); }
-        case 227: break;
-        case 94: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\n')); }
-        case 228: break;
-        case 95: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\b')); }
-        case 229: break;
-        case 96: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\r')); }
-        case 230: break;
-        case 97: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\f')); }
-        case 231: break;
-        case 98: 
-          {  yybegin(YYINITIAL); return symbol(CHARACTER_LITERAL, new Character('\t')); }
-        case 232: break;
-        case 48: 
-          {  string.append( yytext() );  }
-        case 233: break;
-        case 43: 
-          {  string.append( yytext() );  }
-        case 234: break;
-        case 3: 
-        case 47: 
-        case 52: 
-          {  throw new RuntimeException("Illegal character \""+yytext()+
-                                                              "\" at line "+yyline+", column "+yycolumn);  }
-        case 235: break;
-        case 82: 
-          {  throw new RuntimeException("Illegal escape sequence \""+yytext()+"\"");  }
-        case 236: break;
-        default: 
-          if (yy_input == YYEOF && yy_startRead == yy_currentPos) {
-            yy_atEOF = true;
-              {  return symbol(EOF);  }
-          } 
-          else {
-            yy_ScanError(YY_NO_MATCH);
-          }
-      }
-    }
-  }
-
-
+	/** Lexical state outside long brackets */
+	public static final int YYINITIAL = 0;
+
+	/** Lexical state inside a long string, plus twice its level */
+	public static final int LONG_STRING = 1;
+
+	/** Lexical state inside a long comment, plus twice its level */
+	public static final int LONG_COMMENT = 2;
+
+	private CharSequence text;
+
+	private int end;
+
+	private int pos;
+
+	private int state;
+
+	private int tokenOffset;
+
+	private int tokenLength;
+
+	public Scanner(CharSequence text) {
+		reset(text);
+	}
+
+	public Scanner(IDocument document) {
+		this(new DocumentCharSequence(document));
+	}
+
+	/**
+	 * Scans a new text from its start.
+	 */
+	public void reset(CharSequence text) {
+		this.text = text;
+		setRange(0, text.length(), YYINITIAL);
+	}
+
+	/**
+	 * Restricts scanning to the range <code>[offset, end)</code>, starting
+	 * in the given lexical state. <code>offset</code> should be a line start
+	 * whose state was recorded with {@link #getState()}.
+	 */
+	public void setRange(int offset, int end, int state) {
+		this.pos = offset;
+		this.end = end;
+		this.state = state;
+		tokenOffset = offset;
+		tokenLength = 0;
+	}
+
+	/**
+	 * @return the lexical state at the current position, to be stored as the
+	 *         snapshot of the next line when the range ends a line
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * @return the bracket level of a long string or comment state
+	 */
+	public static int getLevel(int state) {
+		return (state - 1) / 2;
+	}
+
+	public int getTokenOffset() {
+		return tokenOffset;
+	}
+
+	public int getTokenLength() {
+		return tokenLength;
+	}
+
+	public String getTokenText() {
+		return text.subSequence(tokenOffset, tokenOffset + tokenLength)
+				.toString();
+	}
+
+	/**
+	 * Appends every token of the range to <code>tokens</code>.
+	 * 
+	 * @return the lexical state at the end of the range
+	 */
+	public int scan(int offset, int end, int state, TokenBuffer tokens) {
+		setRange(offset, end, state);
+		int type;
+		while ((type = nextToken()) != EOF)
+			tokens.add(type, tokenOffset, tokenLength);
+		return this.state;
+	}
+
+	/**
+	 * Scans the next token of the range.
+	 * 
+	 * @return the token type, one of the {@link sym} constants, or
+	 *         {@link sym#EOF} at the end of the range
+	 */
+	public int nextToken() {
+		CharSequence t = text;
+		int e = end;
+		int p = pos;
+		if (p < e && state != YYINITIAL)
+			return longBracket(p, p);
+
+		char c = 0;
+		while (p < e) {
+			c = t.charAt(p);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f'
+					|| c == '\u000B')
+				p++;
+			else
+				break;
+		}
+		if (p >= e) {
+			pos = tokenOffset = p;
+			tokenLength = 0;
+			return EOF;
+		}
+
+		int start = p;
+		int type;
+		switch (c) {
+		case '-':
+			if (p + 1 < e && t.charAt(p + 1) == '-') {
+				int level = openLevel(p + 2);
+				if (level >= 0) {
+					state = LONG_COMMENT + 2 * level;
+					return longBracket(start, p + level + 4);
+				}
+				p = lineEnd(p + 2);
+				type = COMMENT;
+			} else {
+				p++;
+				type = MINUS;
+			}
+			break;
+		case '[': {
+			int level = openLevel(p);
+			if (level >= 0) {
+				state = LONG_STRING + 2 * level;
+				return longBracket(start, p + level + 2);
+			}
+			p++;
+			type = LBRACK;
+			break;
+		}
+		case '"':
+		case '\'':
+			p = shortString(p, c);
+			type = STRING_LITERAL;
+			break;
+		case '=':
+			p = twoChar(p, '=');
+			type = p - start == 2 ? EQEQ : EQ;
+			break;
+		case '~':
+			p = twoChar(p, '=');
+			type = p - start == 2 ? NOTEQ : ERROR;
+			break;
+		case '<':
+			p = twoChar(p, '=');
+			type = p - start == 2 ? LTEQ : LT;
+			break;
+		case '>':
+			p = twoChar(p, '=');
+			type = p - start == 2 ? GTEQ : GT;
+			break;
+		case '.':
+			if (p + 1 < e && isDigit(t.charAt(p + 1))) {
+				p = number(p);
+				type = FLOATING_POINT_LITERAL;
+			} else {
+				p = twoChar(p, '.');
+				if (p - start == 2) {
+					p = twoChar(p - 1, '.');
+					type = p - start == 3 ? ELLIPSIS : CONCAT;
+				} else
+					type = DOT;
+			}
+			break;
+		case '#':
+			if (start == 0) {
+				// the first line of a script run with #!
+				p = lineEnd(p);
+				type = COMMENT;
+			} else {
+				p++;
+				type = LENGTH;
+			}
+			break;
+		case '+':
+			p++;
+			type = PLUS;
+			break;
+		case '*':
+			p++;
+			type = MULT;
+			break;
+		case '/':
+			p++;
+			type = DIV;
+			break;
+		case '%':
+			p++;
+			type = MOD;
+			break;
+		case '^':
+			p++;
+			type = POW;
+			break;
+		case '(':
+			p++;
+			type = LPAREN;
+			break;
+		case ')':
+			p++;
+			type = RPAREN;
+			break;
+		case '{':
+			p++;
+			type = LBRACE;
+			break;
+		case '}':
+			p++;
+			type = RBRACE;
+			break;
+		case ']':
+			p++;
+			type = RBRACK;
+			break;
+		case ';':
+			p++;
+			type = SEMICOLON;
+			break;
+		case ':':
+			p++;
+			type = COLON;
+			break;
+		case ',':
+			p++;
+			type = COMMA;
+			break;
+		default:
+			if (isDigit(c)) {
+				p = number(p);
+				type = numberType;
+			} else if (isIdentifierStart(c)) {
+				p++;
+				while (p < e && isIdentifierPart(t.charAt(p)))
+					p++;
+				type = keyword(start, p - start);
+			} else {
+				p++;
+				type = ERROR;
+			}
+		}
+		pos = p;
+		tokenOffset = start;
+		tokenLength = p - start;
+		return type;
+	}
+
+	/* scans a long bracket up to its closing bracket or the end of the range */
+	private int longBracket(int start, int from) {
+		CharSequence t = text;
+		int e = end;
+		int level = getLevel(state);
+		int type = state % 2 == LONG_STRING ? MULTILINE_STRING : MLCOMMENT;
+		int p = from;
+		while (p < e) {
+			if (t.charAt(p++) == ']') {
+				int q = p;
+				while (q < e && t.charAt(q) == '=')
+					q++;
+				if (q - p == level && q < e && t.charAt(q) == ']') {
+					p = q + 1;
+					state = YYINITIAL;
+					break;
+				}
+			}
+		}
+		pos = p;
+		tokenOffset = start;
+		tokenLength = p - start;
+		return type;
+	}
+
+	/* the level of the long bracket opened at p, or -1 */
+	private int openLevel(int p) {
+		CharSequence t = text;
+		if (p >= end || t.charAt(p) != '[')
+			return -1;
+		int q = p + 1;
+		while (q < end && t.charAt(q) == '=')
+			q++;
+		return q < end && t.charAt(q) == '[' ? q - p - 1 : -1;
+	}
+
+	private int lineEnd(int p) {
+		CharSequence t = text;
+		while (p < end) {
+			char c = t.charAt(p);
+			if (c == '\n' || c == '\r')
+				break;
+			p++;
+		}
+		return p;
+	}
+
+	private int shortString(int p, char quote) {
+		CharSequence t = text;
+		p++;
+		while (p < end) {
+			char c = t.charAt(p);
+			if (c == quote)
+				return p + 1;
+			if (c == '\n' || c == '\r')
+				break;
+			if (c == '\\' && p + 1 < end) {
+				char n = t.charAt(p + 1);
+				p += n == '\n' || n == '\r' ? 1 : 2;
+			} else
+				p++;
+		}
+		return p;
+	}
+
+	/* skips the character at p, and the next one too if it is second */
+	private int twoChar(int p, char second) {
+		return p + 1 < end && text.charAt(p + 1) == second ? p + 2 : p + 1;
+	}
+
+	private int numberType;
+
+	private int number(int p) {
+		CharSequence t = text;
+		int e = end;
+		if (t.charAt(p) == '0' && p + 1 < e
+				&& (t.charAt(p + 1) == 'x' || t.charAt(p + 1) == 'X')) {
+			p += 2;
+			while (p < e && isIdentifierPart(t.charAt(p)))
+				p++;
+			numberType = INTEGER_LITERAL;
+			return p;
+		}
+		boolean floating = false;
+		while (p < e) {
+			char c = t.charAt(p);
+			if (c == '.')
+				floating = true;
+			else if (c == 'e' || c == 'E') {
+				floating = true;
+				if (p + 1 < e && (t.charAt(p + 1) == '+' || t.charAt(p + 1) == '-'))
+					p++;
+			} else if (!isIdentifierPart(c))
+				break;
+			p++;
+		}
+		numberType = floating ? FLOATING_POINT_LITERAL : INTEGER_LITERAL;
+		return p;
+	}
+
+	private int keyword(int start, int length) {
+		switch (text.charAt(start)) {
+		case 'a':
+			return is(start, length, "and") ? AND : IDENTIFIER;
+		case 'b':
+			return is(start, length, "break") ? BREAK : IDENTIFIER;
+		case 'd':
+			return is(start, length, "do") ? DO : IDENTIFIER;
+		case 'e':
+			if (is(start, length, "end"))
+				return END;
+			if (is(start, length, "else"))
+				return ELSE;
+			return is(start, length, "elseif") ? ELSEIF : IDENTIFIER;
+		case 'f':
+			if (is(start, length, "for"))
+				return FOR;
+			if (is(start, length, "function"))
+				return FUNCTION;
+			return is(start, length, "false") ? BOOLEAN_LITERAL : IDENTIFIER;
+		case 'i':
+			if (is(start, length, "if"))
+				return IF;
+			return is(start, length, "in") ? IN : IDENTIFIER;
+		case 'l':
+			return is(start, length, "local") ? LOCAL : IDENTIFIER;
+		case 'n':
+			if (is(start, length, "nil"))
+				return NIL;
+			return is(start, length, "not") ? NOT : IDENTIFIER;
+		case 'o':
+			return is(start, length, "or") ? OR : IDENTIFIER;
+		case 'r':
+			if (is(start, length, "return"))
+				return RETURN;
+			return is(start, length, "repeat") ? REPEAT : IDENTIFIER;
+		case 't':
+			if (is(start, length, "then"))
+				return THEN;
+			return is(start, length, "true") ? BOOLEAN_LITERAL : IDENTIFIER;
+		case 'u':
+			return is(start, length, "until") ? UNTIL : IDENTIFIER;
+		case 'w':
+			return is(start, length, "while") ? WHILE : IDENTIFIER;
+		}
+		return IDENTIFIER;
+	}
+
+	private boolean is(int start, int length, String word) {
+		if (length != word.length())
+			return false;
+		CharSequence t = text;
+		for (int i = 1; i < length; i++)
+			if (t.charAt(start + i) != word.charAt(i))
+				return false;
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return isIdentifierStart(c) || isDigit(c);
+	}
 }
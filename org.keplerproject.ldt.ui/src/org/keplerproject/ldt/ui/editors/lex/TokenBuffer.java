@@ -0,0 +1,86 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.editors.lex;
+
+/**
+ * A growable buffer of tokens kept in a single <code>int</code> array, so
+ * that scanning a document does not allocate one object per token. Clear and
+ * reuse the same buffer between scans.
+ * 
+ * @version $Id$
+ */
+public class TokenBuffer {
+	private static final int STRIDE = 3;
+
+	private int[] data;
+
+	private int count;
+
+	public TokenBuffer() {
+		this(256);
+	}
+
+	public TokenBuffer(int capacity) {
+		data = new int[Math.max(capacity, 1) * STRIDE];
+	}
+
+	public void add(int type, int offset, int length) {
+		int i = count * STRIDE;
+		if (i + STRIDE > data.length) {
+			int[] bigger = new int[data.length * 2];
+			System.arraycopy(data, 0, bigger, 0, i);
+			data = bigger;
+		}
+		data[i] = type;
+		data[i + 1] = offset;
+		data[i + 2] = length;
+		count++;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the {@link sym} constant of the i-th token
+	 */
+	public int getType(int i) {
+		return data[i * STRIDE];
+	}
+
+	public int getOffset(int i) {
+		return data[i * STRIDE + 1];
+	}
+
+	public int getLength(int i) {
+		return data[i * STRIDE + 2];
+	}
+
+	public int getEnd(int i) {
+		return data[i * STRIDE + 1] + data[i * STRIDE + 2];
+	}
+}
@@ -80,4 +80,10 @@ public interface sym
   int DBRBRACK = 49;
   int MLCOMMENT = 50;
   int MULTILINE_STRING = 51;
+  int COMMENT = 52;
+  int CONCAT = 53;
+  int ELLIPSIS = 54;
+  int LENGTH = 55;
+  int POW = 56;
+  int ERROR = 57;
 }
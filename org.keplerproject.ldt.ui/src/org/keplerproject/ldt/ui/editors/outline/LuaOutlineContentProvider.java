@@ -5,18 +5,20 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.StructuredViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.keplerproject.ldt.ui.editors.LuaEditor;
+import org.keplerproject.ldt.ui.editors.lex.LuaTokenModel;
+import org.keplerproject.ldt.ui.editors.lex.TokenBuffer;
 
 
 //Do this for the whole class until a compliance level is committed to
@@ -150,14 +152,8 @@ public class LuaOutlineContentProvider implements ITreeContentProvider {
 			return;
 		}
 		
-		//Parse the document content and extract all function information
-		FunctionDefinition [] allDefs;
-		String content = fDocument.get();
-		if(content != null) {
-			allDefs = parseFunctions(content);
-		} else {
-			allDefs = new FunctionDefinition[0];
-		}
+		//Extract all function information from the document's tokens
+		FunctionDefinition [] allDefs = parseFunctions(fDocument);
 				
 		//Get a copy of the original keys to use as markers
 		Set oldKeys = new HashSet(fFunctionCache.keySet());
@@ -217,19 +213,25 @@ public class LuaOutlineContentProvider implements ITreeContentProvider {
 		});
 	}
 	
-	//This is kind of a weak identification, but it is fairly resilient in the face of errors
-	Pattern fLuaFunctionPattern = Pattern.compile("^\\w*function\\s+(\\w+)\\s*\\(.*$", Pattern.MULTILINE);
+	//The function declarations found by the token model, reused between refreshes
+	TokenBuffer fDeclarations = new TokenBuffer();
 
-	protected FunctionDefinition [] parseFunctions(String fileContents) {
+	//This is kind of a weak identification, but it is fairly resilient in the face of errors
+	protected FunctionDefinition [] parseFunctions(IDocument document) {
 		ArrayList<FunctionDefinition> functionList = new ArrayList<FunctionDefinition>();
 		
-		Matcher matcher = fLuaFunctionPattern.matcher(fileContents);
-		int offset = 0;
-		while(matcher.find(offset)) {
-			int startOffset = matcher.start();
-			offset = matcher.end();
-			String functionName = matcher.group(1);
-			functionList.add(new FunctionDefinition(functionName, startOffset, offset));
+		fDeclarations.clear();
+		LuaTokenModel model = LuaTokenModel.getModel(document);
+		if (model != null)
+			model.getFunctionDeclarations(fDeclarations);
+		for(int i = 0; i < fDeclarations.size(); i++) {
+			try {
+				String functionName = document.get(fDeclarations.getOffset(i), fDeclarations.getLength(i));
+				IRegion line = document.getLineInformationOfOffset(fDeclarations.getOffset(i));
+				functionList.add(new FunctionDefinition(functionName, line.getOffset(), line.getOffset() + line.getLength()));
+			} catch (BadLocationException e) {
+				break;
+			}
 		}
 	
 		return (FunctionDefinition [])functionList.toArray(new FunctionDefinition[functionList.size()]);
@@ -40,6 +40,7 @@ import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
@@ -64,6 +65,12 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 	
 	private Button luadocAutoGen;
 	
+	private Button nativeLuadoc;
+	
+	private Spinner luadocCacheSize;
+	
+	private Button parallelBuild;
+	
 	private Text initializeText;
 
 	public LuaPreferencePage() {
@@ -93,6 +100,11 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 		middleGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 		middleGroup.setLayout(layout);
 		
+		Group builderGroup = new Group(parent, SWT.SHADOW_ETCHED_IN);
+		builderGroup.setText("Builder");
+		builderGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		builderGroup.setLayout(layout);
+		
 		Group lowerGroup = new Group(parent, SWT.SHADOW_ETCHED_IN);
 		lowerGroup.setText("Code Completion");
 		lowerGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
@@ -134,13 +146,33 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 		layout = new GridLayout();
 		layout.marginWidth = 0;
 		layout.marginHeight = 0;
-		layout.numColumns = 2;
+		layout.numColumns = 1;
 		luadocControls.setLayout(layout);
 		luadocControls.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
 		luadocAutoGen = new Button(luadocControls, SWT.CHECK);
 		luadocAutoGen.setText("Allow LuaDoc to index your sources at every save");
 		
+		nativeLuadoc = new Button(luadocControls, SWT.CHECK);
+		nativeLuadoc.setText("Use the built-in LuaDoc parser instead of running LuaDoc");
+		
+		Composite cacheControls = new Composite(luadocControls, SWT.NULL);
+		layout = new GridLayout();
+		layout.marginWidth = 0;
+		layout.marginHeight = 0;
+		layout.numColumns = 2;
+		cacheControls.setLayout(layout);
+		
+		Label cacheLabel = new Label(cacheControls, SWT.NULL);
+		cacheLabel.setText("Memory for LuaDoc entries not used lately (MB)");
+		
+		luadocCacheSize = new Spinner(cacheControls, SWT.BORDER);
+		luadocCacheSize.setMinimum(1);
+		luadocCacheSize.setMaximum(1024);
+		
+		parallelBuild = new Button(builderGroup, SWT.CHECK);
+		parallelBuild.setText("Build all the scripts of a project in parallel on full builds");
+		
 		
 		addButton = new Button(buttons, SWT.PUSH);
 		addButton.setText("Add...");
@@ -160,6 +192,9 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 		});
 		fillTable(LuaScriptsSpecs.getDefault().getLuaScriptPatterns());
 		luadocAutoGen.setSelection(LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive());
+		nativeLuadoc.setSelection(LuaScriptsSpecs.getDefault().isNativeLuadocActive());
+		luadocCacheSize.setSelection(LuaScriptsSpecs.getDefault().getLuadocCacheSize());
+		parallelBuild.setSelection(LuaScriptsSpecs.getDefault().isParallelBuildActive());
 
 		Dialog.applyDialogFont(group);
 		setButtonLayoutData(addButton);
@@ -202,6 +237,12 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 		
 		LuaScriptsSpecs.getDefault().setLuaDocAutoGeneration(luadocAutoGen.getSelection());
 		
+		LuaScriptsSpecs.getDefault().setNativeLuadoc(nativeLuadoc.getSelection());
+		
+		LuaScriptsSpecs.getDefault().setLuadocCacheSize(luadocCacheSize.getSelection());
+		
+		LuaScriptsSpecs.getDefault().setParallelBuild(parallelBuild.getSelection());
+		
 		LuaScriptsSpecs.getDefault().setInitialScript(initializeText.getText());
 		
 		LuaScriptsSpecs.getDefault().savePatterns();
@@ -217,6 +258,9 @@ public class LuaPreferencePage extends  PreferencePage implements IWorkbenchPref
 		
 		fillTable(LuaScriptsSpecs.getDefault().getLuaScriptPatterns());
 		luadocAutoGen.setSelection(LuaScriptsSpecs.getDefault().isLuaDocAutoGenerationActive());
+		nativeLuadoc.setSelection(LuaScriptsSpecs.getDefault().isNativeLuadocActive());
+		luadocCacheSize.setSelection(LuaScriptsSpecs.getDefault().getLuadocCacheSize());
+		parallelBuild.setSelection(LuaScriptsSpecs.getDefault().isParallelBuildActive());
 	}
 
 	/**
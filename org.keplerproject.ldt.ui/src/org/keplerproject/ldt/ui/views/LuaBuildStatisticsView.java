@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2003-2007 Kepler Project.
+*
+* Permission is hereby granted, free of charge, to any person obtaining
+* a copy of this software and associated documentation files (the
+* "Software"), to deal in the Software without restriction, including
+* without limitation the rights to use, copy, modify, merge, publish,
+* distribute, sublicense, and/or sell copies of the Software, and to
+* permit persons to whom the Software is furnished to do so, subject to
+* the following conditions:
+*
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+*
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+* IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+* CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+* TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+* SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.keplerproject.ldt.ui.views;
+
+import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+import org.keplerproject.ldt.core.compiler.LuaBuildStatistics;
+import org.keplerproject.ldt.core.luadoc.LuadocCache;
+
+/**
+ * Shows where the last build of every Lua project spent its time, and how
+ * well the {@link LuadocCache} keeps the luadoc entries in use.
+ *
+ * @version $Id$
+ */
+public class LuaBuildStatisticsView extends ViewPart implements
+		LuaBuildStatistics.Listener {
+
+	public static final String VIEW_ID = "org.keplerproject.ldt.ui.views.LuaBuildStatisticsView";
+
+	private static final String[] labelsNames = new String[] { "Project",
+			"Build", "Files", "Cached", "Elapsed (ms)", "Read (ms)",
+			"Compile (ms)", "Luadoc (ms)", "Markers (ms)" };
+
+	// how often the luadoc cache line is refreshed
+	private static final int CACHE_REFRESH_DELAY = 1000;
+
+	private TableViewer viewer;
+
+	private Label cacheLabel;
+
+	private final Runnable cacheRefresh = new Runnable() {
+		public void run() {
+			if (cacheLabel == null || cacheLabel.isDisposed())
+				return;
+			showCacheStatistics();
+			cacheLabel.getDisplay().timerExec(CACHE_REFRESH_DELAY, this);
+		}
+	};
+
+	class ViewContentProvider implements IStructuredContentProvider {
+		public Object[] getElements(Object input) {
+			return LuaBuildStatistics.getLatest();
+		}
+
+		public void inputChanged(Viewer v, Object oldInput, Object newInput) {
+		}
+
+		public void dispose() {
+		}
+	}
+
+	class ViewLabelProvider extends LabelProvider implements
+			ITableLabelProvider {
+		public String getColumnText(Object obj, int index) {
+			LuaBuildStatistics statistics = (LuaBuildStatistics) obj;
+
+			switch (index) {
+			case 0:
+				return statistics.getProjectName();
+			case 1:
+				String kind = statistics.isFullBuild() ? "Full"
+						: "Incremental";
+				return statistics.isCanceled() ? kind + " (canceled)" : kind;
+			case 2:
+				return String.valueOf(statistics.getFileCount());
+			case 3:
+				return String.valueOf(statistics.getCacheHits());
+			case 4:
+				return String.valueOf(statistics.getElapsedTime());
+			default:
+				return String.valueOf(statistics.getTime(index - 5));
+			}
+		}
+
+		public Image getColumnImage(Object obj, int index) {
+			return null;
+		}
+	}
+
+	public void createPartControl(Composite parent) {
+		GridLayout layout = new GridLayout();
+		layout.marginWidth = 0;
+		layout.marginHeight = 0;
+		parent.setLayout(layout);
+
+		cacheLabel = new Label(parent, SWT.NULL);
+		cacheLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		viewer = new TableViewer(parent, SWT.SINGLE | SWT.H_SCROLL
+				| SWT.V_SCROLL | SWT.FULL_SELECTION);
+		viewer.getControl().setLayoutData(new GridData(GridData.FILL_BOTH));
+
+		Table table = viewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		for (int i = 0; i < labelsNames.length; i++) {
+			TableColumn column = new TableColumn(table, i < 2 ? SWT.LEFT
+					: SWT.RIGHT);
+			column.setText(labelsNames[i]);
+			column.setWidth(i == 0 ? 150 : 90);
+		}
+
+		viewer.setContentProvider(new ViewContentProvider());
+		viewer.setLabelProvider(new ViewLabelProvider());
+		viewer.setInput(getViewSite());
+
+		LuaBuildStatistics.addListener(this);
+		cacheRefresh.run();
+	}
+
+	private void showCacheStatistics() {
+		LuadocCache cache = LuadocCache.getDefault();
+		cacheLabel.setText("Luadoc cache: " + cache.getGroupCount()
+				+ " modules, " + cache.getSize() / 1024 + " of "
+				+ cache.getBudget() / 1024 + " KB, hit rate "
+				+ Math.round(cache.getHitRate() * 100) + "% ("
+				+ cache.getHits() + " hits, " + cache.getMisses()
+				+ " misses, " + cache.getEvictions() + " evicted)");
+	}
+
+	public void buildFinished(LuaBuildStatistics statistics) {
+		Display.getDefault().asyncExec(new Runnable() {
+			public void run() {
+				if (viewer != null && !viewer.getControl().isDisposed())
+					viewer.refresh();
+			}
+		});
+	}
+
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	public void dispose() {
+		LuaBuildStatistics.removeListener(this);
+		super.dispose();
+	}
+}
@@ -43,14 +43,25 @@ t = {}
 --TODO: Find a way to iterate through the modules using their module names instead of their filenames
 
 function start(doc)
+	-- the state is reused between runs, drop what a failed run left
+	res = {}
 	local fileOrModule = nil
 	local fileOrModuleName = ''
+	-- the file each block comes from, modules only know their name
+	local owner = {}
+	for _, f in pairs(doc.files) do
+		if type(f) == 'table' then
+			for _, block in ipairs(f.doc) do
+				owner[block] = f.name
+			end
+		end
+	end
 	r = function(d)
 		for k, v in pairs(d) do
 			if type(v)=='table' then
 				if  v.class=='function' then
 					local strDoc = getFunctionDoc(doc, fileOrModule, v)
-					addDocumentationEntry(fileOrModuleName, v.name, v.class, v.summary,v.description,table.concat(v.comment, '\\n'),strDoc)
+					addDocumentationEntry(fileOrModuleName, v.name, v.class, v.summary,v.description,table.concat(v.comment, '\\n'),strDoc, owner[v])
 				elseif v.type == 'file' or v.type == 'module' then
 					fileOrModuleName =  v.name
 					fileOrModule = v